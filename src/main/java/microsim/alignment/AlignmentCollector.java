@@ -0,0 +1,167 @@
+package microsim.alignment;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
+
+import microsim.engine.SimulationEngine;
+
+/**
+ * Collects the {@link AlignmentResult} of every alignment, stamped with the
+ * simulation time, and aggregates them per time and alignment method.
+ * <p>
+ * Typical use, with the print-based warnings replaced by the collected
+ * results:
+ *
+ * <pre>
+ * var collector = new AlignmentCollector();
+ * AlignmentDiagnostics.addListener(collector);
+ * AlignmentDiagnostics.printWarnings = false;
+ * ...
+ * collector.exportSummaryCSV("alignment.csv");
+ * </pre>
+ */
+public class AlignmentCollector implements Consumer<AlignmentResult> {
+
+    /**
+     * An alignment result and the simulation time at which it was published.
+     */
+    public record Entry(double time, AlignmentResult result) {
+    }
+
+    /**
+     * Aggregate of the results of one alignment method at one simulation time.
+     *
+     * @param time         - the simulation time.
+     * @param method       - the simple name of the alignment class.
+     * @param alignments   - the number of alignments, e.g. of cells.
+     * @param agents       - the total number of aligned agents.
+     * @param iterations   - the total number of iterations (or resampling
+     *                     attempts).
+     * @param meanError    - the mean error of the alignments.
+     * @param maxError     - the largest error of the alignments.
+     * @param wallNanos    - the total elapsed time of the alignments.
+     * @param closureNanos - the total time spent in the closures.
+     */
+    public record Summary(double time, String method, int alignments, long agents, long iterations, double meanError,
+            double maxError, long wallNanos, long closureNanos) {
+    }
+
+    private final DoubleSupplier clock;
+    private final List<Entry> entries = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Creates a collector stamping the results with the time of the simulation
+     * engine.
+     */
+    public AlignmentCollector() {
+        this(() -> SimulationEngine.getInstance().getTime());
+    }
+
+    /**
+     * @param clock - supplies the time the results are stamped with.
+     */
+    public AlignmentCollector(DoubleSupplier clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public void accept(AlignmentResult result) {
+        entries.add(new Entry(clock.getAsDouble(), result));
+    }
+
+    /**
+     * @return a copy of the collected entries, in the order they were published.
+     */
+    public List<Entry> getEntries() {
+        synchronized (entries) {
+            return new ArrayList<>(entries);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the results aggregated per simulation time and alignment method,
+     *         in the order they were first published.
+     */
+    public List<Summary> summarize() {
+        record Key(double time, String method) {
+        }
+        Map<Key, List<AlignmentResult>> groups = new LinkedHashMap<>();
+        for (Entry entry : getEntries())
+            groups.computeIfAbsent(new Key(entry.time(), entry.result().method()), key -> new ArrayList<>())
+                    .add(entry.result());
+
+        var summaries = new ArrayList<Summary>(groups.size());
+        for (Map.Entry<Key, List<AlignmentResult>> group : groups.entrySet()) {
+            long agents = 0, iterations = 0, wallNanos = 0, closureNanos = 0;
+            double errorSum = 0., maxError = 0.;
+            for (AlignmentResult result : group.getValue()) {
+                agents += result.size();
+                iterations += result.iterations();
+                wallNanos += result.wallNanos();
+                closureNanos += result.closureNanos();
+                errorSum += result.error();
+                maxError = Math.max(maxError, result.error());
+            }
+            int count = group.getValue().size();
+            summaries.add(new Summary(group.getKey().time(), group.getKey().method(), count, agents, iterations,
+                    errorSum / count, maxError, wallNanos, closureNanos));
+        }
+        return summaries;
+    }
+
+    /**
+     * Writes one line per collected result to a CSV file. Targets and achieved
+     * values of multiple choice alignments are separated by semicolons.
+     */
+    public void exportCSV(String fileName) throws IOException {
+        try (var out = new BufferedWriter(new FileWriter(fileName))) {
+            out.write("time,method,size,targets,achieved,iterations,error,wallNanos,closureNanos");
+            out.newLine();
+            for (Entry entry : getEntries()) {
+                AlignmentResult r = entry.result();
+                out.write(entry.time() + "," + r.method() + "," + r.size() + "," + join(r.targets()) + ","
+                        + join(r.achieved()) + "," + r.iterations() + "," + r.error() + "," + r.wallNanos() + ","
+                        + r.closureNanos());
+                out.newLine();
+            }
+        }
+    }
+
+    /**
+     * Writes the output of {@link #summarize()} to a CSV file.
+     */
+    public void exportSummaryCSV(String fileName) throws IOException {
+        try (var out = new BufferedWriter(new FileWriter(fileName))) {
+            out.write("time,method,alignments,agents,iterations,meanError,maxError,wallNanos,closureNanos");
+            out.newLine();
+            for (Summary s : summarize()) {
+                out.write(s.time() + "," + s.method() + "," + s.alignments() + "," + s.agents() + ","
+                        + s.iterations() + "," + s.meanError() + "," + s.maxError() + "," + s.wallNanos() + ","
+                        + s.closureNanos());
+                out.newLine();
+            }
+        }
+    }
+
+    private static String join(double[] values) {
+        var sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                sb.append(';');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+}
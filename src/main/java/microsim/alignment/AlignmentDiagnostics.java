@@ -0,0 +1,107 @@
+package microsim.alignment;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Registry of the listeners receiving an {@link AlignmentResult} for every
+ * call to an alignment method, e.g. an {@link AlignmentCollector}.
+ * <p>
+ * While no listener is registered, the alignment methods do not measure
+ * anything. The warnings printed to {@code System.out} when an alignment does
+ * not reach its target can be turned off with {@link #printWarnings}, typically
+ * once the results are collected instead.
+ */
+public final class AlignmentDiagnostics {
+
+    /**
+     * Whether alignment methods print a warning (and a stack trace) to
+     * {@code System.out} when they fail to reach their target.
+     */
+    public static volatile boolean printWarnings = true;
+
+    private static final List<Consumer<? super AlignmentResult>> listeners = new CopyOnWriteArrayList<>();
+
+    private AlignmentDiagnostics() {
+    }
+
+    /**
+     * Registers a listener. Listeners may be called concurrently when cells are
+     * aligned in parallel.
+     */
+    public static void addListener(Consumer<? super AlignmentResult> listener) {
+        listeners.add(listener);
+    }
+
+    public static void removeListener(Consumer<? super AlignmentResult> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return true if results are being collected.
+     */
+    public static boolean isEnabled() {
+        return !listeners.isEmpty();
+    }
+
+    /**
+     * Starts measuring an alignment.
+     *
+     * @param alignment - the alignment object.
+     * @return a probe to pass the measurements to, or null if no listener is
+     *         registered.
+     */
+    public static Probe start(Object alignment) {
+        return listeners.isEmpty() ? null : new Probe(alignment.getClass().getSimpleName());
+    }
+
+    /**
+     * Measurements of one alignment in progress.
+     */
+    public static final class Probe {
+
+        private final String method;
+        private final long start = System.nanoTime();
+        private final LongAdder closureNanos = new LongAdder();
+        private final LongAdder iterations = new LongAdder();
+
+        private Probe(String method) {
+            this.method = method;
+        }
+
+        /**
+         * Adds the time of a call to the alignment closure.
+         */
+        public void addClosureNanos(long nanos) {
+            closureNanos.add(nanos);
+        }
+
+        public void addIterations(long count) {
+            iterations.add(count);
+        }
+
+        /**
+         * Publishes the result of a binary alignment.
+         */
+        public void publish(int size, double target, double achieved) {
+            publish(size, new double[] { target }, new double[] { achieved });
+        }
+
+        /**
+         * Publishes the result of an alignment, with the error computed as the
+         * mean absolute difference between the achieved values and the targets.
+         */
+        public void publish(int size, double[] targets, double[] achieved) {
+            double error = 0.;
+            for (int c = 0; c < targets.length; c++)
+                error += Math.abs(achieved[c] - targets[c]);
+            error /= targets.length;
+            var result = new AlignmentResult(method, size, targets, achieved, (int) iterations.sum(), error,
+                    System.nanoTime() - start, closureNanos.sum());
+            for (Consumer<? super AlignmentResult> listener : listeners)
+                listener.accept(result);
+        }
+    }
+}
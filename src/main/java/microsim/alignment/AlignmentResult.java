@@ -0,0 +1,46 @@
+package microsim.alignment;
+
+import java.util.Arrays;
+
+/**
+ * Outcome of one call to an alignment method, published to the listeners of
+ * {@link AlignmentDiagnostics}.
+ * <p>
+ * Targets and achieved values are (weighted) numbers of agents, not shares:
+ * binary alignment methods report one value, multiple choice methods one value
+ * per choice.
+ *
+ * @param method       - the simple name of the alignment class.
+ * @param size         - the number of agents in the aligned sub-population.
+ * @param targets      - the target (weighted) number of positive outcomes, or
+ *                     of each choice.
+ * @param achieved     - the (weighted) number of positive outcomes, or the sum
+ *                     of the aligned probabilities, achieved by the alignment.
+ * @param iterations   - the number of iterations of iterative methods, or the
+ *                     number of resampling attempts of resampling methods; 0 for
+ *                     methods that align in a single pass.
+ * @param error        - the mean absolute difference between the achieved
+ *                     values and the targets.
+ * @param wallNanos    - the elapsed time of the alignment, in nanoseconds.
+ * @param closureNanos - the time spent in the methods of the alignment closure,
+ *                     in nanoseconds (summed over threads, so it can exceed the
+ *                     elapsed time when closures run in parallel).
+ */
+public record AlignmentResult(String method, int size, double[] targets, double[] achieved, int iterations,
+        double error, long wallNanos, long closureNanos) {
+
+    /**
+     * @param precision - the accepted error, as a share of the sub-population.
+     * @return true if the error is within the precision.
+     */
+    public boolean isConverged(double precision) {
+        return error <= precision * size;
+    }
+
+    @Override
+    public String toString() {
+        return method + "[size=" + size + ", targets=" + Arrays.toString(targets) + ", achieved="
+                + Arrays.toString(achieved) + ", iterations=" + iterations + ", error=" + error + ", wallNanos="
+                + wallNanos + ", closureNanos=" + closureNanos + "]";
+    }
+}
@@ -0,0 +1,92 @@
+package microsim.alignment;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.ToIntFunction;
+
+/**
+ * Partition of a population into the cells of a grouped (stratified)
+ * alignment, e.g. region x age band x gender.
+ * <p>
+ * The cell of each agent is evaluated once, and the positions of the agents in
+ * the population are then laid out cell by cell (a counting sort, which keeps
+ * the order of the agents within each cell), so that the sub-population of a
+ * cell is an {@link IndexView} of the population rather than a copy.
+ *
+ * @param <T> agent type.
+ */
+public final class CellPartition<T> {
+
+    private final List<T> agents;
+    private final int[][] indices;
+
+    private CellPartition(List<T> agents, int[][] indices) {
+        this.agents = agents;
+        this.indices = indices;
+    }
+
+    /**
+     * Partitions a population into cells.
+     *
+     * @param agents   - the population; a random access list is referenced
+     *                 rather than copied, and must not be modified while the
+     *                 partition is in use.
+     * @param cell     - returns the cell of an agent, in {@code [0, numCells)},
+     *                 or a negative number for agents that are not to be aligned.
+     * @param numCells - the number of cells.
+     * @throws IllegalArgumentException if the cell of an agent is
+     *                                  {@code numCells} or more.
+     */
+    public static <T> CellPartition<T> of(Collection<T> agents, ToIntFunction<? super T> cell, int numCells) {
+        List<T> list = agents instanceof List<T> l && agents instanceof RandomAccess ? l : new ArrayList<>(agents);
+        int n = list.size();
+        int[] keys = new int[n];
+        int[] sizes = new int[numCells];
+        for (int i = 0; i < n; i++) {
+            T agent = list.get(i);
+            int key = cell.applyAsInt(agent);
+            if (key >= numCells) {
+                throw new IllegalArgumentException(
+                        "Cell " + key + " of agent " + agent + " is out of range, as there are " + numCells + " cells");
+            }
+            if (key >= 0)
+                sizes[key]++;
+            keys[i] = key;
+        }
+
+        int[][] indices = new int[numCells][];
+        for (int c = 0; c < numCells; c++)
+            indices[c] = new int[sizes[c]];
+        int[] next = new int[numCells];
+        for (int i = 0; i < n; i++) {
+            int key = keys[i];
+            if (key >= 0)
+                indices[key][next[key]++] = i;
+        }
+        return new CellPartition<>(list, indices);
+    }
+
+    /**
+     * @return the number of cells.
+     */
+    public int getNumCells() {
+        return indices.length;
+    }
+
+    /**
+     * @return the number of agents in a cell.
+     */
+    public int size(int cell) {
+        return indices[cell].length;
+    }
+
+    /**
+     * @return the agents of a cell, in the order of the population, as a view
+     *         of the population.
+     */
+    public IndexView<T> get(int cell) {
+        return new IndexView<>(agents, indices[cell], indices[cell].length);
+    }
+}
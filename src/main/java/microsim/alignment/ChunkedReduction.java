@@ -0,0 +1,61 @@
+package microsim.alignment;
+
+import java.util.function.IntToDoubleFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Sums over the agents of an aligned sub-population, held in primitive arrays.
+ * <p>
+ * The agents are processed in chunks of {@link #CHUNK_SIZE}, which run in
+ * parallel when there is more than one, and the partial sums of the chunks are
+ * then added up in chunk order. The chunking depends only on the number of
+ * agents, so the results do not depend on the number of threads.
+ */
+public final class ChunkedReduction {
+
+    /** Number of agents processed by each task of a parallel reduction. */
+    public static final int CHUNK_SIZE = 1 << 12;
+
+    /**
+     * Adds the terms of the agents in {@code [from, to)} to the partial sums of
+     * their chunk.
+     */
+    public interface Kernel {
+        void apply(int from, int to, double[] sums);
+    }
+
+    private ChunkedReduction() {
+    }
+
+    /**
+     * @param n      - the number of agents.
+     * @param width  - the number of sums.
+     * @param kernel - adds the terms of a range of agents to the sums.
+     * @return the sums over all the agents.
+     */
+    public static double[] reduce(int n, int width, Kernel kernel) {
+        int chunks = (n + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        double[][] partial = new double[chunks][width];
+        IntStream range = IntStream.range(0, chunks);
+        (chunks > 1 ? range.parallel() : range)
+                .forEach(chunk -> kernel.apply(chunk * CHUNK_SIZE, Math.min(n, (chunk + 1) * CHUNK_SIZE),
+                        partial[chunk]));
+        double[] sums = new double[width];
+        for (double[] chunkSums : partial)
+            for (int c = 0; c < width; c++)
+                sums[c] += chunkSums[c];
+        return sums;
+    }
+
+    /**
+     * @return the sum of {@code term(i)} for {@code i} in {@code [0, n)}.
+     */
+    public static double sum(int n, IntToDoubleFunction term) {
+        return reduce(n, 1, (from, to, sums) -> {
+            double s = 0.;
+            for (int i = from; i < to; i++)
+                s += term.applyAsDouble(i);
+            sums[0] = s;
+        })[0];
+    }
+}
@@ -0,0 +1,155 @@
+package microsim.alignment;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.RandomAccess;
+import java.util.function.Predicate;
+
+/**
+ * Read-only view of a sub-population, given by the positions of its agents in
+ * a population list, i.e. {@code agents.get(indices[0]), ...,
+ * agents.get(indices[size - 1])}.
+ * <p>
+ * A view can be passed to any alignment method with a null filter, in which
+ * case the alignment runs over the view without copying the sub-population; the
+ * closures must then not add or remove agents from the population list.
+ * The index array can be maintained by the model (e.g. one per cell, updated
+ * only when agents move between cells), or filled by {@link #select}, which
+ * reuses the array of the view from one call to the next, so that repeated
+ * alignments of large populations do not allocate a new list every time. The
+ * population list should implement {@link RandomAccess}.
+ *
+ * @param <T> agent type.
+ */
+public final class IndexView<T> extends AbstractList<T> implements RandomAccess {
+
+    private List<T> agents = List.of();
+    private int[] indices = new int[0];
+    private int size;
+
+    /**
+     * Creates an empty view, to be filled by {@link #select}.
+     */
+    public IndexView() {
+    }
+
+    /**
+     * @param agents  - the population.
+     * @param indices - the positions in the population of the agents of the
+     *                view; the array is not copied.
+     * @param size    - the number of agents of the view, i.e. of leading entries
+     *                of {@code indices} in use.
+     */
+    public IndexView(List<T> agents, int[] indices, int size) {
+        set(agents, indices, size);
+    }
+
+    /**
+     * Points the view at another population or set of indices.
+     *
+     * @return this view.
+     */
+    public IndexView<T> set(List<T> agents, int[] indices, int size) {
+        Objects.checkFromIndexSize(0, size, indices.length);
+        this.agents = agents;
+        this.indices = indices;
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Makes the view select the agents of a population that pass a filter, in
+     * the order of the population. The index array of the view is reused, and
+     * only replaced by a larger one when the population has grown.
+     *
+     * @param agents - the population.
+     * @param filter - the filter, or null to select all the agents.
+     * @return this view.
+     */
+    public IndexView<T> select(List<T> agents, Predicate<? super T> filter) {
+        int n = agents.size();
+        if (indices.length < n)
+            indices = new int[Math.max(n, indices.length + (indices.length >> 1))];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (filter == null || filter.test(agents.get(i)))
+                indices[k++] = i;
+        }
+        this.agents = agents;
+        this.size = k;
+        return this;
+    }
+
+    /**
+     * @return the position in the population of the i-th agent of the view.
+     */
+    public int index(int i) {
+        Objects.checkIndex(i, size);
+        return indices[i];
+    }
+
+    @Override
+    public T get(int i) {
+        Objects.checkIndex(i, size);
+        return agents.get(indices[i]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the agents that pass a filter as a list that the alignment
+     * methods only read. A view passed with a null filter is returned as it is;
+     * any other collection is copied, so that the closures may still modify it
+     * (e.g. remove agents from it) during the alignment.
+     *
+     * @param agents - the population.
+     * @param filter - the filter, or null to select all the agents.
+     * @return the selected agents, in the order of the population.
+     */
+    public static <T> List<T> filtered(Collection<T> agents, Predicate<? super T> filter) {
+        if (filter == null && agents instanceof IndexView<T> view)
+            return view;
+        var list = filter == null ? new ArrayList<T>(agents.size()) : new ArrayList<T>();
+        for (T agent : agents) {
+            if (filter == null || filter.test(agent))
+                list.add(agent);
+        }
+        return list;
+    }
+
+    /**
+     * Returns a random permutation of a list as a view, without modifying the
+     * list. The permutation is the one {@link java.util.Collections#shuffle}
+     * would apply to a random access list given the same generator. A view is
+     * permuted into a view of the same population.
+     *
+     * @param agents - the list to permute.
+     * @param random - the random number generator.
+     * @return a view of the agents in random order.
+     */
+    public static <T> IndexView<T> shuffled(List<T> agents, Random random) {
+        int n = agents.size();
+        int[] order = new int[n];
+        Arrays.setAll(order, i -> i);
+        for (int i = n; i > 1; i--) {
+            int j = random.nextInt(i);
+            int tmp = order[i - 1];
+            order[i - 1] = order[j];
+            order[j] = tmp;
+        }
+        if (agents instanceof IndexView<T> view) {
+            for (int i = 0; i < n; i++)
+                order[i] = view.indices[order[i]];
+            return new IndexView<>(view.agents, order, n);
+        }
+        return new IndexView<>(agents, order, n);
+    }
+}
@@ -0,0 +1,389 @@
+package microsim.alignment;
+
+import java.util.Arrays;
+
+/**
+ * Direct solvers for Logit Scaling alignment (as introduced by P. Stephensen in
+ * International Journal of Microsimulation (2016) 9(3) 89-102).
+ * <p>
+ * The iterative scheme of the paper converges to probabilities of the form
+ * {@code q[i][j] = p[i][j] * exp(b[j]) / sum_c(p[i][c] * exp(b[c]))}, i.e. to a
+ * shift {@code b[j]} of the log-odds of each choice that is common to all
+ * agents. In the binary case this is a single scalar shift {@code a} such that
+ * {@code sum_i(w[i] * sigma(logit(p[i]) + a))} equals the target, which is
+ * found by Newton iteration safeguarded by bisection. In the multiple choice
+ * case the shifts minimise the convex function
+ * {@code sum_i(w[i] * log(sum_c(p[i][c] * exp(b[c])))) - sum_j(target[j] * b[j])},
+ * which is done by Newton iteration with a backtracking line search. Both
+ * typically converge in fewer than 10 passes over the agents, and each pass
+ * costs about as much as one iteration of the iterative scheme.
+ */
+public final class LogitScaling {
+
+    /**
+     * The method used to find the aligned probabilities.
+     */
+    public enum Method {
+        /**
+         * The fixed-point iteration of the original paper, stopping when the sums
+         * of the probabilities change by less than the precision.
+         */
+        ITERATIVE,
+        /**
+         * Solving for the common shifts of the log-odds by Newton iteration, then
+         * applying them once.
+         */
+        NEWTON
+    }
+
+    /**
+     * Outcome of a solver.
+     *
+     * @param iterations - the number of Newton steps taken.
+     * @param error      - the mean, over the choices, of the absolute difference
+     *                   between the (weighted) sum of the aligned probabilities
+     *                   and the target.
+     */
+    public record Solution(int iterations, double error) {
+    }
+
+    private LogitScaling() {
+    }
+
+    private static double weight(double[] weights, int i) {
+        return weights == null ? 1. : weights[i];
+    }
+
+    private static double shift(double p, double odds) {
+        if (p <= 0.)
+            return 0.;
+        if (p >= 1.)
+            return 1.;
+        return 1. / (1. + (1. - p) / (p * odds));
+    }
+
+    /**
+     * Aligns binary probabilities by shifting their log-odds by a common amount.
+     * Probabilities of exactly 0 or 1 are left unchanged.
+     *
+     * @param prob          - the unaligned probabilities, replaced by the aligned
+     *                      ones.
+     * @param weights       - the weights of the agents, or null if all the agents
+     *                      count for one.
+     * @param target        - the target (weighted) sum of the aligned
+     *                      probabilities.
+     * @param allowedError  - the largest accepted difference between the sum of
+     *                      the aligned probabilities and the target.
+     * @param maxIterations - the maximum number of Newton steps.
+     * @return the number of steps and the remaining error.
+     */
+    public static Solution solveBinary(double[] prob, double[] weights, double target, double allowedError,
+            int maxIterations) {
+        int n = prob.length;
+        double surelyTrue = 0., possiblyTrue = 0., total = 0., sum = 0.;
+        for (int i = 0; i < n; i++) {
+            double w = weight(weights, i);
+            total += w;
+            sum += w * prob[i];
+            if (prob[i] >= 1.)
+                surelyTrue += w;
+            if (prob[i] > 0.)
+                possiblyTrue += w;
+        }
+
+        // Targets that can only be approached with an infinite shift
+        if (target <= surelyTrue || target >= possiblyTrue) {
+            double limit = target <= surelyTrue ? 0. : 1.;
+            double achieved = 0.;
+            for (int i = 0; i < n; i++) {
+                if (prob[i] > 0. && prob[i] < 1.)
+                    prob[i] = limit;
+                achieved += weight(weights, i) * prob[i];
+            }
+            return new Solution(0, Math.abs(achieved - target));
+        }
+
+        // Start from the shift that would align the mean probability
+        double a = Math.log(target / (total - target)) - Math.log(sum / (total - sum));
+        if (!Double.isFinite(a))
+            a = 0.;
+        double lower = Double.NEGATIVE_INFINITY, upper = Double.POSITIVE_INFINITY;
+        int count = 0;
+        while (count < maxIterations) {
+            double odds = Math.exp(a);
+            double achieved = 0., slope = 0.;
+            for (int i = 0; i < n; i++) {
+                double w = weight(weights, i);
+                double q = shift(prob[i], odds);
+                achieved += w * q;
+                slope += w * q * (1. - q);
+            }
+            double f = achieved - target;
+            if (Math.abs(f) < allowedError)
+                break;
+            count++;
+            if (f > 0.)
+                upper = a;
+            else
+                lower = a;
+            double next = slope > 0. ? a - f / slope : Double.NaN;
+            if (!(next > lower && next < upper)) {
+                // Newton step left the bracket: bisect, or expand the bracket if
+                // it is still open
+                if (Double.isInfinite(lower))
+                    next = upper - Math.max(1., Math.abs(upper));
+                else if (Double.isInfinite(upper))
+                    next = lower + Math.max(1., Math.abs(lower));
+                else
+                    next = 0.5 * (lower + upper);
+            }
+            a = next;
+        }
+
+        double odds = Math.exp(a);
+        double achieved = 0.;
+        for (int i = 0; i < n; i++) {
+            prob[i] = shift(prob[i], odds);
+            achieved += weight(weights, i) * prob[i];
+        }
+        return new Solution(count, Math.abs(achieved - target));
+    }
+
+    /**
+     * Aligns the probabilities of multiple choices by shifting the log-odds of
+     * each choice by an amount common to all agents, and renormalising the
+     * probabilities of each agent to sum to one.
+     * <p>
+     * Choices with a zero target are given a zero probability. The choice with
+     * the largest target is the reference whose shift is held at zero, so if the
+     * targets do not add up to the (weighted) size of the population the
+     * reference choice absorbs the difference. The error is therefore measured
+     * over the other choices only.
+     *
+     * @param prob          - the unaligned probabilities, in row-major order
+     *                      ({@code prob[i * numOptions + choice]}), replaced by
+     *                      the aligned ones.
+     * @param numOptions    - the number of choices.
+     * @param weights       - the weights of the agents, or null if all the agents
+     *                      count for one.
+     * @param target        - the target (weighted) sum of the aligned
+     *                      probabilities of each choice.
+     * @param allowedError  - the largest accepted mean difference between the
+     *                      sums of the aligned probabilities and the targets of
+     *                      the choices other than the reference.
+     * @param maxIterations - the maximum number of Newton steps.
+     * @return the number of steps and the remaining error.
+     */
+    public static Solution solveMultinomial(double[] prob, int numOptions, double[] weights, double[] target,
+            double allowedError, int maxIterations) {
+        int n = prob.length / numOptions;
+        double[] columnSum = new double[numOptions];
+        for (int i = 0; i < n; i++)
+            for (int c = 0; c < numOptions; c++)
+                columnSum[c] += prob[i * numOptions + c];
+
+        // Choices whose shift is solved for: positive target and some positive
+        // probability, except the reference
+        int reference = -1;
+        for (int c = 0; c < numOptions; c++)
+            if (target[c] > 0. && columnSum[c] > 0. && (reference < 0 || target[c] > target[reference]))
+                reference = c;
+        int[] free = new int[numOptions];
+        int m = 0;
+        boolean[] active = new boolean[numOptions];
+        for (int c = 0; c < numOptions; c++) {
+            active[c] = target[c] > 0. && columnSum[c] > 0.;
+            if (active[c] && c != reference)
+                free[m++] = c;
+        }
+
+        // Work with the log-probabilities
+        for (int k = 0; k < prob.length; k++)
+            prob[k] = Math.log(prob[k]);
+
+        double[] b = new double[numOptions];
+        double[] trial = new double[numOptions];
+        double[] gradient = new double[m];
+        double[] hessian = new double[m * m];
+        double[] trialGradient = new double[m];
+        double[] trialHessian = new double[m * m];
+        double[] step = new double[m];
+        double[] sums = new double[numOptions];
+
+        double objective = evaluate(prob, numOptions, weights, active, free, m, target, b, gradient, hessian, sums);
+        double error = error(sums, target, free, m);
+        int count = 0;
+        while (error >= allowedError && count < maxIterations && m > 0) {
+            count++;
+            if (!solve(hessian, gradient, step, m))
+                break;
+            double descent = 0.;
+            for (int r = 0; r < m; r++)
+                descent += gradient[r] * step[r];
+            double s = 1.;
+            boolean accepted = false;
+            for (int halvings = 0; halvings < 40; halvings++) {
+                System.arraycopy(b, 0, trial, 0, numOptions);
+                for (int r = 0; r < m; r++)
+                    trial[free[r]] += s * step[r];
+                double value = evaluate(prob, numOptions, weights, active, free, m, target, trial, trialGradient,
+                        trialHessian, sums);
+                if (value <= objective + 1.e-4 * s * descent) {
+                    System.arraycopy(trial, 0, b, 0, numOptions);
+                    System.arraycopy(trialGradient, 0, gradient, 0, m);
+                    System.arraycopy(trialHessian, 0, hessian, 0, m * m);
+                    objective = value;
+                    error = error(sums, target, free, m);
+                    accepted = true;
+                    break;
+                }
+                s *= 0.5;
+            }
+            if (!accepted)
+                break;
+        }
+
+        // Apply the shifts
+        double[] achieved = new double[numOptions];
+        for (int i = 0; i < n; i++) {
+            int row = i * numOptions;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < numOptions; c++)
+                if (active[c])
+                    max = Math.max(max, prob[row + c] + b[c]);
+            if (max == Double.NEGATIVE_INFINITY) {
+                // No probability on any aligned choice: leave the agent unchanged
+                for (int c = 0; c < numOptions; c++) {
+                    prob[row + c] = Math.exp(prob[row + c]);
+                    achieved[c] += weight(weights, i) * prob[row + c];
+                }
+                continue;
+            }
+            double norm = 0.;
+            for (int c = 0; c < numOptions; c++) {
+                prob[row + c] = active[c] ? Math.exp(prob[row + c] + b[c] - max) : 0.;
+                norm += prob[row + c];
+            }
+            for (int c = 0; c < numOptions; c++) {
+                prob[row + c] /= norm;
+                achieved[c] += weight(weights, i) * prob[row + c];
+            }
+        }
+        return new Solution(count, error(achieved, target, free, m));
+    }
+
+    /**
+     * @return the mean difference between the sums and the targets of the
+     *         choices whose shift is solved for, over all the choices.
+     */
+    private static double error(double[] sums, double[] target, int[] free, int m) {
+        double error = 0.;
+        for (int r = 0; r < m; r++)
+            error += Math.abs(sums[free[r]] - target[free[r]]);
+        return error / target.length;
+    }
+
+    /**
+     * Computes the objective function at the shifts {@code b}, its gradient and
+     * Hessian with respect to the free shifts, and the (weighted) sums of the
+     * aligned probabilities of each choice.
+     */
+    private static double evaluate(double[] logProb, int numOptions, double[] weights, boolean[] active, int[] free,
+            int m, double[] target, double[] b, double[] gradient, double[] hessian, double[] sums) {
+        int n = logProb.length / numOptions;
+        double[] q = new double[numOptions];
+        Arrays.fill(gradient, 0.);
+        Arrays.fill(hessian, 0.);
+        Arrays.fill(sums, 0.);
+        double objective = 0.;
+        for (int i = 0; i < n; i++) {
+            int row = i * numOptions;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int c = 0; c < numOptions; c++)
+                if (active[c])
+                    max = Math.max(max, logProb[row + c] + b[c]);
+            double w = weight(weights, i);
+            if (max == Double.NEGATIVE_INFINITY) {
+                for (int c = 0; c < numOptions; c++)
+                    sums[c] += w * Math.exp(logProb[row + c]);
+                continue;
+            }
+            double norm = 0.;
+            for (int c = 0; c < numOptions; c++) {
+                q[c] = active[c] ? Math.exp(logProb[row + c] + b[c] - max) : 0.;
+                norm += q[c];
+            }
+            objective += w * (max + Math.log(norm));
+            for (int c = 0; c < numOptions; c++) {
+                q[c] /= norm;
+                sums[c] += w * q[c];
+            }
+            for (int r = 0; r < m; r++) {
+                double qr = q[free[r]];
+                if (qr == 0.)
+                    continue;
+                hessian[r * m + r] += w * qr;
+                for (int s = 0; s < m; s++)
+                    hessian[r * m + s] -= w * qr * q[free[s]];
+            }
+        }
+        for (int c = 0; c < numOptions; c++)
+            if (active[c])
+                objective -= target[c] * b[c];
+        for (int r = 0; r < m; r++)
+            gradient[r] = sums[free[r]] - target[free[r]];
+        return objective;
+    }
+
+    /**
+     * Solves {@code hessian * step = -gradient} by Gaussian elimination with
+     * partial pivoting, after adding a small ridge to the diagonal. The inputs are
+     * left unchanged.
+     *
+     * @return false if the system is singular.
+     */
+    private static boolean solve(double[] hessian, double[] gradient, double[] step, int m) {
+        double[] a = hessian.clone();
+        double trace = 0.;
+        for (int r = 0; r < m; r++)
+            trace += a[r * m + r];
+        double ridge = 1.e-12 * Math.max(trace, Double.MIN_NORMAL);
+        for (int r = 0; r < m; r++) {
+            a[r * m + r] += ridge;
+            step[r] = -gradient[r];
+        }
+        for (int col = 0; col < m; col++) {
+            int pivot = col;
+            for (int r = col + 1; r < m; r++)
+                if (Math.abs(a[r * m + col]) > Math.abs(a[pivot * m + col]))
+                    pivot = r;
+            if (a[pivot * m + col] == 0.)
+                return false;
+            if (pivot != col) {
+                for (int s = 0; s < m; s++) {
+                    double tmp = a[col * m + s];
+                    a[col * m + s] = a[pivot * m + s];
+                    a[pivot * m + s] = tmp;
+                }
+                double tmp = step[col];
+                step[col] = step[pivot];
+                step[pivot] = tmp;
+            }
+            for (int r = col + 1; r < m; r++) {
+                double factor = a[r * m + col] / a[col * m + col];
+                if (factor == 0.)
+                    continue;
+                for (int s = col; s < m; s++)
+                    a[r * m + s] -= factor * a[col * m + s];
+                step[r] -= factor * step[col];
+            }
+        }
+        for (int r = m - 1; r >= 0; r--) {
+            double value = step[r];
+            for (int s = r + 1; s < m; s++)
+                value -= a[r * m + s] * step[s];
+            step[r] = value / a[r * m + r];
+        }
+        return true;
+    }
+}
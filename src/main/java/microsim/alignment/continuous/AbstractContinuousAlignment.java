@@ -0,0 +1,295 @@
+package microsim.alignment.continuous;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.CellPartition;
+import microsim.alignment.ChunkedReduction;
+import microsim.alignment.IndexView;
+
+/**
+ * Abstract class for CONTINUOUS alignment methods, which calibrate a simulated
+ * quantity of the agents (e.g. earnings or hours worked) so that its mean, or
+ * its total, over a sub-population equals an external aggregate (for binary
+ * and multiple choice alignment, see the microsim.alignment.probability,
+ * microsim.alignment.outcome and microsim.alignment.multiple packages).
+ *
+ * The unaligned values of the agents are collected once into a primitive
+ * array, calibrated by the subclass, and handed back to the agents through the
+ * closure, in the order of the sub-population. Sums over the agents are
+ * computed as chunked parallel reductions, in a fixed order, so the results do
+ * not depend on the number of threads.
+ *
+ * By default all the agents count for one. Weighted agents, e.g. of a
+ * grossed-up survey population, are aligned by setting a weight function, e.g.
+ * {@code setWeight(Weight::getWeight)} for agents that implement the
+ * {@link microsim.agent.Weight} interface.
+ *
+ * @param <T> - the Type parameter usually representing the agent class.
+ */
+public abstract class AbstractContinuousAlignment<T> {
+
+    private boolean parallelValues = false;
+    private ToDoubleFunction<? super T> weight = null;
+
+    /**
+     * @return true if the unaligned values are evaluated in parallel.
+     */
+    public boolean isParallelValues() {
+        return parallelValues;
+    }
+
+    /**
+     * Sets whether the unaligned values of the agents are evaluated in
+     * parallel, which requires {@link AlignmentContinuousClosure#getValue} to be
+     * safe to call concurrently for different agents. The aligned values are
+     * still passed to the closure in order, on the calling thread.
+     *
+     * @param parallelValues - true to evaluate the values in parallel.
+     */
+    public void setParallelValues(boolean parallelValues) {
+        this.parallelValues = parallelValues;
+    }
+
+    /**
+     * @return the weight function, or null if all the agents count for one.
+     */
+    public ToDoubleFunction<? super T> getWeight() {
+        return weight;
+    }
+
+    /**
+     * Sets the number of individuals each agent represents, which must be
+     * positive.
+     *
+     * @param weight - the weight function, or null if all the agents count for
+     *               one.
+     */
+    public void setWeight(ToDoubleFunction<? super T> weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Aligns the (weighted) mean of the values of a sub-population.
+     *
+     * @param agents     - a collection of agents to potentially be aligned
+     * @param filter     - filters the agentList so that only the relevant
+     *                   sub-population of agents is aligned
+     * @param closure    - specifies the method returning the unaligned value of
+     *                   the agent and the method receiving the aligned value.
+     * @param targetMean - the target (weighted) mean of the values of the
+     *                   relevant sub-population.
+     */
+    public void align(Collection<T> agents, Predicate<T> filter, AlignmentContinuousClosure<T> closure,
+            double targetMean) {
+        doAlignment(IndexView.filtered(agents, filter), closure, targetMean, true);
+    }
+
+    /**
+     * Aligns the (weighted) total of the values of a sub-population.
+     *
+     * @param agents      - a collection of agents to potentially be aligned
+     * @param filter      - filters the agentList so that only the relevant
+     *                    sub-population of agents is aligned
+     * @param closure     - specifies the method returning the unaligned value of
+     *                    the agent and the method receiving the aligned value.
+     * @param targetTotal - the target (weighted) sum of the values of the
+     *                    relevant sub-population.
+     */
+    public void alignTotal(Collection<T> agents, Predicate<T> filter, AlignmentContinuousClosure<T> closure,
+            double targetTotal) {
+        doAlignment(IndexView.filtered(agents, filter), closure, targetTotal, false);
+    }
+
+    /**
+     * Aligns the (weighted) mean of the values of the sub-population given by
+     * the positions of its agents in a list, without copying it (see
+     * {@link IndexView}). The closure must not add or remove agents from the
+     * list.
+     *
+     * @param agents     - the population.
+     * @param indices    - the positions of the agents to be aligned.
+     * @param size       - the number of agents to be aligned, i.e. of leading
+     *                   entries of {@code indices} in use.
+     * @param closure    - specifies the method returning the unaligned value of
+     *                   the agent and the method receiving the aligned value.
+     * @param targetMean - the target (weighted) mean of the values.
+     */
+    public void align(List<T> agents, int[] indices, int size, AlignmentContinuousClosure<T> closure,
+            double targetMean) {
+        doAlignment(new IndexView<>(agents, indices, size), closure, targetMean, true);
+    }
+
+    /**
+     * Aligns the (weighted) total of the values of the sub-population given by
+     * the positions of its agents in a list, without copying it (see
+     * {@link IndexView}). The closure must not add or remove agents from the
+     * list.
+     *
+     * @param agents      - the population.
+     * @param indices     - the positions of the agents to be aligned.
+     * @param size        - the number of agents to be aligned, i.e. of leading
+     *                    entries of {@code indices} in use.
+     * @param closure     - specifies the method returning the unaligned value of
+     *                    the agent and the method receiving the aligned value.
+     * @param targetTotal - the target (weighted) sum of the values.
+     */
+    public void alignTotal(List<T> agents, int[] indices, int size, AlignmentContinuousClosure<T> closure,
+            double targetTotal) {
+        doAlignment(new IndexView<>(agents, indices, size), closure, targetTotal, false);
+    }
+
+    /**
+     * Aligns the (weighted) mean of the values of several sub-populations
+     * (cells) of the agents at once, each to its own target, e.g. the mean
+     * earnings of the cells of region x age band x gender. The cells are
+     * aligned as views of the population, so the closure must not add or
+     * remove agents from it.
+     *
+     * @param agents      - a collection of agents to potentially be aligned
+     * @param cell        - returns the cell of an agent, in
+     *                    {@code [0, targetMeans.length)}, or a negative number
+     *                    for agents that are not to be aligned
+     * @param closure     - specifies the method returning the unaligned value
+     *                    of the agent and the method receiving the aligned value.
+     * @param targetMeans - the target (weighted) mean of each cell.
+     * @param parallel    - if true, the cells are aligned in parallel (no
+     *                    random numbers are drawn); the closure must then be
+     *                    safe to call concurrently for different agents.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentContinuousClosure<T> closure, double[] targetMeans, boolean parallel) {
+        doGroupedAlignment(agents, cell, closure, targetMeans, true, parallel);
+    }
+
+    /**
+     * Aligns the (weighted) total of the values of several sub-populations
+     * (cells) of the agents at once, each to its own target, e.g. the total
+     * earnings of the cells of region x age band x gender. The cells are
+     * aligned as views of the population, so the closure must not add or
+     * remove agents from it.
+     *
+     * @param agents       - a collection of agents to potentially be aligned
+     * @param cell         - returns the cell of an agent, in
+     *                     {@code [0, targetTotals.length)}, or a negative number
+     *                     for agents that are not to be aligned
+     * @param closure      - specifies the method returning the unaligned value
+     *                     of the agent and the method receiving the aligned
+     *                     value.
+     * @param targetTotals - the target (weighted) sum of the values of each cell.
+     * @param parallel     - if true, the cells are aligned in parallel (no
+     *                     random numbers are drawn); the closure must then be
+     *                     safe to call concurrently for different agents.
+     */
+    public void alignTotalGrouped(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentContinuousClosure<T> closure, double[] targetTotals, boolean parallel) {
+        doGroupedAlignment(agents, cell, closure, targetTotals, false, parallel);
+    }
+
+    /**
+     * Calibrates the values of the agents in place.
+     *
+     * @param values      - the unaligned values, to be replaced by the aligned
+     *                    ones.
+     * @param weights     - the weights of the agents, or null if all the agents
+     *                    count for one.
+     * @param totalWeight - the sum of the weights (or the number of agents).
+     * @param targetTotal - the target (weighted) sum of the aligned values.
+     * @return the number of iterations, or 0 for a method in closed form.
+     */
+    protected abstract int calibrate(double[] values, double[] weights, double totalWeight, double targetTotal);
+
+    private void doGroupedAlignment(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentContinuousClosure<T> closure, double[] targets, boolean isMean, boolean parallel) {
+        CellPartition<T> cells = CellPartition.of(agents, cell, targets.length);
+        IntStream range = IntStream.range(0, targets.length).filter(c -> cells.size(c) > 0);
+        (parallel ? range.parallel() : range).forEach(c -> doAlignment(cells.get(c), closure, targets[c], isMean));
+    }
+
+    private void doAlignment(List<T> list, AlignmentContinuousClosure<T> closure, double target, boolean isMean) {
+        if (!Double.isFinite(target)) {
+            throw new IllegalArgumentException("target of " + getClass().getSimpleName() + " must be finite");
+        }
+
+        int n = list.size();
+        if (n == 0)
+            return;
+
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        double[] values = new double[n];
+        AlignmentContinuousClosure<T> c = closure;
+        IntStream range = IntStream.range(0, n);
+        (parallelValues ? range.parallel() : range).forEach(i -> values[i] = c.getValue(list.get(i)));
+
+        double[] weights = null;
+        double totalWeight = n;
+        if (weight != null) {
+            weights = new double[n];
+            for (int i = 0; i < n; i++) {
+                double w = weight.applyAsDouble(list.get(i));
+                if (w <= 0.) {
+                    throw new IllegalArgumentException(
+                            "Weight cannot be zero or negative in " + getClass().getSimpleName() + "!");
+                }
+                weights[i] = w;
+            }
+            double[] w = weights;
+            totalWeight = ChunkedReduction.sum(n, i -> w[i]);
+        }
+        double targetTotal = isMean ? target * totalWeight : target;
+
+        int iterations = calibrate(values, weights, totalWeight, targetTotal);
+
+        for (int i = 0; i < n; i++) {
+            closure.align(list.get(i), values[i]);
+        }
+
+        if (probe != null) {
+            probe.addIterations(iterations);
+            probe.publish(n, targetTotal, Reductions.weightedSum(values, weights));
+        }
+    }
+
+    /**
+     * Wraps a closure so that the time spent in its methods is added to the
+     * probe of an alignment in progress.
+     *
+     * @param closure - the closure of the alignment.
+     * @param probe   - the probe returned by {@link AlignmentDiagnostics#start},
+     *                possibly null.
+     * @return the closure itself if the probe is null.
+     */
+    protected AlignmentContinuousClosure<T> timed(AlignmentContinuousClosure<T> closure,
+            AlignmentDiagnostics.Probe probe) {
+        if (probe == null)
+            return closure;
+        return new AlignmentContinuousClosure<T>() {
+            @Override
+            public double getValue(T agent) {
+                long start = System.nanoTime();
+                try {
+                    return closure.getValue(agent);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void align(T agent, double alignedValue) {
+                long start = System.nanoTime();
+                try {
+                    closure.align(agent, alignedValue);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+}
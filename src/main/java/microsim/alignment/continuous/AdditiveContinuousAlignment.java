@@ -0,0 +1,22 @@
+package microsim.alignment.continuous;
+
+/**
+ * Aligns a continuous quantity by adding the same amount to the value of every
+ * agent. This preserves the ranks of the agents and the differences between
+ * their values, but not their signs, so it suits quantities that can be
+ * negative, or whose target is close to the unaligned mean.
+ *
+ * @param <T> agent type.
+ */
+public class AdditiveContinuousAlignment<T> extends AbstractContinuousAlignment<T> {
+
+    @Override
+    protected int calibrate(double[] values, double[] weights, double totalWeight, double targetTotal) {
+        double shift = (targetTotal - Reductions.weightedSum(values, weights)) / totalWeight;
+        for (int i = 0; i < values.length; i++) {
+            values[i] += shift;
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,23 @@
+package microsim.alignment.continuous;
+
+public interface AlignmentContinuousClosure<T> {
+
+    /**
+     * Returns the unaligned value of the simulated quantity for the agent, e.g.
+     * earnings or hours worked.
+     * 
+     * @param agent
+     * @return the value for the agent
+     */
+    double getValue(T agent);
+
+    /**
+     * Method specifying what to do with the aligned value of the agent,
+     * typically storing it.
+     * 
+     * @param agent
+     * @param alignedValue
+     */
+    void align(T agent, double alignedValue);
+
+}
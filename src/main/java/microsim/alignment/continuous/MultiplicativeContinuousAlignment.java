@@ -0,0 +1,36 @@
+package microsim.alignment.continuous;
+
+/**
+ * Aligns a continuous quantity by multiplying the value of every agent by the
+ * same factor. This preserves the ranks of the agents, the ratios between
+ * their values and their signs, so it suits positive quantities such as
+ * earnings, where it keeps the shape of the distribution (e.g. its Gini
+ * coefficient) unchanged.
+ *
+ * @param <T> agent type.
+ */
+public class MultiplicativeContinuousAlignment<T> extends AbstractContinuousAlignment<T> {
+
+    /**
+     * @throws IllegalArgumentException if the unaligned total is zero while the
+     *                                  target is not, or the two have opposite
+     *                                  signs (a negative factor would reverse
+     *                                  the ranks).
+     */
+    @Override
+    protected int calibrate(double[] values, double[] weights, double totalWeight, double targetTotal) {
+        double sum = Reductions.weightedSum(values, weights);
+        if (sum == 0. && targetTotal == 0.)
+            return 0;
+        double factor = targetTotal / sum;
+        if (!(factor >= 0.) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("MultiplicativeContinuousAlignment cannot scale an unaligned total of "
+                    + sum + " to a target of " + targetTotal);
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] *= factor;
+        }
+        return 0;
+    }
+
+}
@@ -0,0 +1,149 @@
+package microsim.alignment.continuous;
+
+import microsim.alignment.LogitScaling;
+
+/**
+ * Aligns a continuous quantity that must stay within bounds, e.g. hours worked
+ * in [0, 80] or a share in [0, 1], by a common shift of the values on a scale
+ * that maps the bounds to infinity, so that the ranks of the agents are
+ * preserved and no value crosses a bound:
+ * <ul>
+ * <li>with no bounds, the values are shifted by the same amount, as in
+ * {@link AdditiveContinuousAlignment};</li>
+ * <li>with a lower bound only, their distances from the bound are multiplied by
+ * the same factor (with a lower bound of 0, this is
+ * {@link MultiplicativeContinuousAlignment});</li>
+ * <li>with an upper bound only, likewise for their distances from the upper
+ * bound;</li>
+ * <li>with both bounds, their log-odds {@code log((v - lower) / (upper - v))}
+ * are shifted by the same amount, which is solved for by Newton's method as in
+ * the binary Logit Scaling alignment.</li>
+ * </ul>
+ * Values lying on a bound are left unchanged. The target must lie within the
+ * range the bounds allow. If Newton's method stops short of the precision, the
+ * values of its last step are kept, and the (weighted) total they reach is
+ * reported to the listeners of {@link microsim.alignment.AlignmentDiagnostics}
+ * along with the target.
+ *
+ * @param <T> agent type.
+ */
+public class RankPreservingContinuousAlignment<T> extends AbstractContinuousAlignment<T> {
+
+    private final double lower;
+    private final double upper;
+    private int maxNumberIterations = 100;
+    private double precision = 1.e-10;
+
+    /**
+     * @param lower - the lower bound of the values, or
+     *              {@code Double.NEGATIVE_INFINITY}.
+     * @param upper - the upper bound of the values, or
+     *              {@code Double.POSITIVE_INFINITY}.
+     */
+    public RankPreservingContinuousAlignment(double lower, double upper) {
+        if (!(lower < upper) || lower == Double.POSITIVE_INFINITY || upper == Double.NEGATIVE_INFINITY) {
+            throw new IllegalArgumentException(
+                    "RankPreservingContinuousAlignment bounds must satisfy lower < upper, but are " + lower + " and "
+                            + upper);
+        }
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    public int getMaxNumberIterations() {
+        return maxNumberIterations;
+    }
+
+    /**
+     * @param maxNumberIterations - the maximum number of Newton steps, when
+     *                            both bounds are finite.
+     */
+    public void setMaxNumberIterations(int maxNumberIterations) {
+        if (maxNumberIterations < 1) {
+            throw new IllegalArgumentException(
+                    "maxNumberIterations in RankPreservingContinuousAlignment must be at least 1");
+        }
+        this.maxNumberIterations = maxNumberIterations;
+    }
+
+    public double getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @param precision - the largest accepted difference between the aligned
+     *                  mean and the target, as a share of the range between the
+     *                  bounds, when both bounds are finite.
+     */
+    public void setPrecision(double precision) {
+        if (precision <= 0.) {
+            throw new IllegalArgumentException("precision in RankPreservingContinuousAlignment must be greater than 0");
+        }
+        this.precision = precision;
+    }
+
+    @Override
+    protected int calibrate(double[] values, double[] weights, double totalWeight, double targetTotal) {
+        int n = values.length;
+        for (int i = 0; i < n; i++) {
+            if (values[i] < lower || values[i] > upper || Double.isNaN(values[i])) {
+                throw new IllegalArgumentException("Value " + values[i]
+                        + " is out of the bounds of RankPreservingContinuousAlignment [" + lower + ", " + upper + "]");
+            }
+        }
+        if (targetTotal < lower * totalWeight || targetTotal > upper * totalWeight) {
+            throw new IllegalArgumentException("The target of RankPreservingContinuousAlignment, " + targetTotal
+                    / totalWeight + " on average, is out of the bounds [" + lower + ", " + upper + "]");
+        }
+
+        boolean hasLower = Double.isFinite(lower);
+        boolean hasUpper = Double.isFinite(upper);
+        if (!hasLower && !hasUpper) {
+            double shift = (targetTotal - Reductions.weightedSum(values, weights)) / totalWeight;
+            for (int i = 0; i < n; i++) {
+                values[i] += shift;
+            }
+            return 0;
+        }
+        if (!hasUpper || !hasLower) {
+            // Distances from the finite bound, scaled by a common factor
+            double bound = hasLower ? lower : upper;
+            double distance = Math.abs(Reductions.weightedSum(values, weights) - bound * totalWeight);
+            double targetDistance = Math.abs(targetTotal - bound * totalWeight);
+            if (distance == 0.) {
+                if (targetDistance > 0.) {
+                    throw new IllegalArgumentException(
+                            "RankPreservingContinuousAlignment cannot move values that all lie on the bound " + bound);
+                }
+                return 0;
+            }
+            double factor = targetDistance / distance;
+            for (int i = 0; i < n; i++) {
+                values[i] = bound + (values[i] - bound) * factor;
+            }
+            return 0;
+        }
+
+        // Both bounds: binary Logit Scaling of the positions of the values between
+        // the bounds
+        double range = upper - lower;
+        for (int i = 0; i < n; i++) {
+            values[i] = (values[i] - lower) / range;
+        }
+        LogitScaling.Solution solution = LogitScaling.solveBinary(values, weights,
+                (targetTotal - lower * totalWeight) / range, precision * totalWeight, maxNumberIterations);
+        for (int i = 0; i < n; i++) {
+            values[i] = lower + values[i] * range;
+        }
+        return solution.iterations();
+    }
+
+}
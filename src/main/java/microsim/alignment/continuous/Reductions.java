@@ -0,0 +1,25 @@
+package microsim.alignment.continuous;
+
+import microsim.alignment.ChunkedReduction;
+
+/**
+ * Weighted sums over the agents of an aligned sub-population, computed as
+ * {@link ChunkedReduction chunked reductions}, so the results do not depend on
+ * the number of threads.
+ */
+final class Reductions {
+
+    private Reductions() {
+    }
+
+    /**
+     * @param weights - the weights of the agents, or null if all the agents
+     *                count for one.
+     * @return the (weighted) sum of the values.
+     */
+    static double weightedSum(double[] values, double[] weights) {
+        if (weights == null)
+            return ChunkedReduction.sum(values.length, i -> values[i]);
+        return ChunkedReduction.sum(values.length, i -> weights[i] * values[i]);
+    }
+}
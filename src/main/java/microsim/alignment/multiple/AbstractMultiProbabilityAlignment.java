@@ -1,7 +1,14 @@
 package microsim.alignment.multiple;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.CellPartition;
+import microsim.alignment.IndexView;
 
 /**
  * Multiple choice alignment methods, where there are in general many
@@ -32,6 +39,30 @@ import java.util.function.Predicate;
  */
 public abstract class AbstractMultiProbabilityAlignment<T> {
 
+    private boolean parallelProbabilities = false;
+
+    /**
+     * @return true if the unaligned probabilities are evaluated in parallel.
+     */
+    public boolean isParallelProbabilities() {
+        return parallelProbabilities;
+    }
+
+    /**
+     * Sets whether the unaligned probabilities of the agents are evaluated in
+     * parallel before aligning them, which requires
+     * {@link AlignmentMultiProbabilityClosure#getProbability} to be safe to call
+     * concurrently for different agents. The results are the same as when they
+     * are evaluated in turn provided that {@code getProbability} does not draw
+     * random numbers from the simulation engine.
+     * 
+     * @param parallelProbabilities - true to evaluate the probabilities in
+     *                              parallel.
+     */
+    public void setParallelProbabilities(boolean parallelProbabilities) {
+        this.parallelProbabilities = parallelProbabilities;
+    }
+
     /**
      * 
      * @param agents      - a collection of agents to potentially be aligned
@@ -53,4 +84,129 @@ public abstract class AbstractMultiProbabilityAlignment<T> {
     public abstract void align(Collection<T> agents, Predicate<T> filter, AlignmentMultiProbabilityClosure<T> closure,
             double[] targetShare);
 
+    /**
+     * Aligns the sub-population given by the positions of its agents in a list,
+     * without copying it (see {@link IndexView}). The closure must not add or
+     * remove agents from the list.
+     * 
+     * @param agents      - the population.
+     * @param indices     - the positions of the agents to be aligned.
+     * @param size        - the number of agents to be aligned, i.e. of leading
+     *                    entries of {@code indices} in use.
+     * @param closure     - specifies the method returning the unaligned
+     *                    probabilities of the outcomes for the agent and the
+     *                    method that samples the aligned probabilities.
+     * @param targetShare - the target share of each outcome in the
+     *                    sub-population.
+     */
+    public void align(List<T> agents, int[] indices, int size, AlignmentMultiProbabilityClosure<T> closure,
+            double[] targetShare) {
+        align(new IndexView<>(agents, indices, size), null, closure, targetShare);
+    }
+
+    /**
+     * Aligns several sub-populations (cells) of the agents at once, each to its
+     * own target shares, e.g. the cells of region x age band x gender. The
+     * population is partitioned into cells in a single pass, instead of being
+     * filtered again for every cell, and the cells are aligned as views of the
+     * population, so the closure must not add or remove agents from it.
+     * 
+     * @param agents       - a collection of agents to potentially be aligned
+     * @param cell         - returns the cell of an agent, in
+     *                     {@code [0, targetShares.length)}, or a negative number
+     *                     for agents that are not to be aligned
+     * @param closure      - specifies the method returning the unaligned
+     *                     probabilities of the possible outcomes for the agent
+     *                     and the method that samples the aligned probabilities
+     *                     to specify the outcome.
+     * @param targetShares - the target shares of the outcomes in each cell
+     *                     ({@code targetShares[cell][outcome]}).
+     * @param parallel     - if true, the cells are aligned in parallel, unless the
+     *                     alignment method draws random numbers (in which case
+     *                     they are aligned in turn, so that results do not depend
+     *                     on the scheduling of threads). The closure must then be
+     *                     safe to call concurrently for different agents.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentMultiProbabilityClosure<T> closure, double[][] targetShares, boolean parallel) {
+        CellPartition<T> cells = CellPartition.of(agents, cell, targetShares.length);
+        IntStream range = IntStream.range(0, targetShares.length).filter(c -> cells.size(c) > 0);
+        (parallel && !drawsRandomNumbers() ? range.parallel() : range)
+                .forEach(c -> align(cells.get(c), null, closure, targetShares[c]));
+    }
+
+    /**
+     * Aligns several sub-populations (cells) of the agents at once, one cell
+     * after the other. See
+     * {@link #alignGrouped(Collection, ToIntFunction, AlignmentMultiProbabilityClosure, double[][], boolean)}.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentMultiProbabilityClosure<T> closure, double[][] targetShares) {
+        alignGrouped(agents, cell, closure, targetShares, false);
+    }
+
+    /**
+     * Evaluates the unaligned probabilities of a sub-population into a flat
+     * row-major array, in parallel if {@link #isParallelProbabilities()}.
+     * 
+     * @param agents     - the sub-population to be aligned.
+     * @param closure    - the closure returning the unaligned probabilities.
+     * @param numOptions - the number of possible outcomes.
+     * @return the probabilities, the probability of outcome {@code choice} for
+     *         the i-th agent being at index {@code i * numOptions + choice}.
+     */
+    protected double[] getProbabilities(List<T> agents, AlignmentMultiProbabilityClosure<T> closure,
+            int numOptions) {
+        double[] prob = new double[agents.size() * numOptions];
+        IntStream range = IntStream.range(0, agents.size());
+        (parallelProbabilities ? range.parallel() : range).forEach(
+                i -> System.arraycopy(closure.getProbability(agents.get(i)), 0, prob, i * numOptions, numOptions));
+        return prob;
+    }
+
+    /**
+     * Wraps a closure so that the time spent in its methods is added to the
+     * probe of an alignment in progress.
+     * 
+     * @param closure - the closure of the alignment.
+     * @param probe   - the probe returned by {@link AlignmentDiagnostics#start},
+     *                possibly null.
+     * @return the closure itself if the probe is null.
+     */
+    protected AlignmentMultiProbabilityClosure<T> timed(AlignmentMultiProbabilityClosure<T> closure,
+            AlignmentDiagnostics.Probe probe) {
+        if (probe == null)
+            return closure;
+        return new AlignmentMultiProbabilityClosure<T>() {
+            @Override
+            public double[] getProbability(T agent) {
+                long start = System.nanoTime();
+                try {
+                    return closure.getProbability(agent);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void align(T agent, double[] alignedProbability) {
+                long start = System.nanoTime();
+                try {
+                    closure.align(agent, alignedProbability);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return true if the alignment method draws random numbers from the
+     *         simulation engine, so that sub-populations must be aligned one
+     *         after the other to give reproducible results.
+     */
+    protected boolean drawsRandomNumbers() {
+        return true;
+    }
+
 }
@@ -1,9 +1,14 @@
 package microsim.alignment.multiple;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
 
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
+import microsim.alignment.LogitScaling;
+
 /**
  * Logit Scaling alignment (as introduced by P. Stephensen in International
  * Journal of Microsimulation (2016) 9(3) 89-102),
@@ -18,6 +23,40 @@ import java.util.function.Predicate;
  */
 public class LogitScalingAlignment<T> extends AbstractMultiProbabilityAlignment<T> {
 
+    private LogitScaling.Method method = LogitScaling.Method.ITERATIVE;
+
+    /**
+     * @return the method used to find the aligned probabilities.
+     */
+    public LogitScaling.Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Sets the method used to find the aligned probabilities:
+     * {@link LogitScaling.Method#ITERATIVE} (the default) runs the fixed-point
+     * iteration of the original paper, while {@link LogitScaling.Method#NEWTON}
+     * solves directly for the shift of the log-odds of each choice, which usually takes
+     * far fewer passes over the agents. With the Newton solver, the maximum
+     * number of iterations bounds the number of Newton steps, and the precision
+     * bounds the difference between the mean aligned probabilities and the
+     * targetShare rather than between two iterations.
+     * 
+     * @param method - the solution method.
+     */
+    public void setMethod(LogitScaling.Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Logit Scaling draws no random numbers, so grouped alignment can align the
+     * cells in parallel.
+     */
+    @Override
+    protected boolean drawsRandomNumbers() {
+        return false;
+    }
+
     /**
      * 
      * Aligns a sub-population of objects using Logit Scaling alignment.
@@ -135,11 +174,10 @@ public class LogitScalingAlignment<T> extends AbstractMultiProbabilityAlignment<
                     "precision in LogitScalingAlignment.align() method must be greater than 0");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
 
         int n = list.size();
         double[] target = new double[numOptions];
@@ -149,79 +187,50 @@ public class LogitScalingAlignment<T> extends AbstractMultiProbabilityAlignment<
         double allowedError = precision * (double) n; // precision refers to the share of the sub-population aligned,
                                                       // allowedError refers to the target number, so is scaled up by n.
 
-        // 2-dimensional array of probabilities that will be adjusted by iteration.
-        // The goal of the alignment algorithm is for the sum of each column (iterate
-        // over the array's first index)
-        // to equal the corresponding target, while the sum of each row (iterate over
-        // the array's second index) to
-        // equal 1 (i.e. the sum of state probabilities, where one of the states must be
-        // true).
-        double[][] prob = new double[list.size()][numOptions];
-
-        // compute total expected number of simulated positive outcomes
-        for (int i = 0; i < n; i++) {
-            T agent = list.get(i);
-            for (int choice = 0; choice < numOptions; choice++) {
-                prob[i][choice] = closure.getProbability(agent)[choice]; // Unaligned probabilities (to be aligned by
-                                                                         // the procedure).
-            }
-        }
+        // Probabilities that will be adjusted by iteration, stored in row-major order
+        // so that the probability of the choice for the i-th agent is
+        // prob[i * numOptions + choice]. The goal of the alignment algorithm is for the
+        // sum of each column (over the agents) to equal the corresponding target,
+        // while the sum of each row (over the choices) equals 1 (i.e. the sum of state
+        // probabilities, where one of the states must be true).
+        // Initially, these are the unaligned probabilities (to be aligned by the
+        // procedure), with a single call to the closure for each agent.
+        double[] prob = getProbabilities(list, closure, numOptions);
 
         int count = 0;
         double error = Double.MAX_VALUE;
-        double[] probSumOverAgents = new double[numOptions];
-        double[] previousProbSumOverAgents = new double[numOptions];
-        for (int choice = 0; choice < numOptions; choice++) {
-            probSumOverAgents[choice] = 0.;
-        }
-        while ((error >= allowedError) && (count < maxNumberIterations)) {
-
-            error = 0.;
+        if (method == LogitScaling.Method.NEWTON) {
+            LogitScaling.Solution solution = LogitScaling.solveMultinomial(prob, numOptions, null, target,
+                    allowedError, maxNumberIterations);
+            count = solution.iterations();
+            error = solution.error();
+        } else {
+            double[] probSumOverAgents = RowMajorProbabilities.columnSums(prob, numOptions, null);
+            double[] previousProbSumOverAgents = new double[numOptions]; // Values of the previous iteration (will
+                                                                         // compare iterations for convergence)
             double[] gamma = new double[numOptions];
+            while ((error >= allowedError) && (count < maxNumberIterations)) {
 
-            for (int choice = 0; choice < numOptions; choice++) {
-
-                previousProbSumOverAgents[choice] = probSumOverAgents[choice]; // Store previous iteration values (will
-                                                                               // compare iterations for convergence)
-                probSumOverAgents[choice] = 0.; // Reset values
-
-                for (int agent = 0; agent < n; agent++) {
-                    probSumOverAgents[choice] += prob[agent][choice];
-                }
-                gamma[choice] = target[choice] / probSumOverAgents[choice];
-
-                probSumOverAgents[choice] = 0.; // Reset for use in summing final probabilities for test of convergence
-            }
-
-            for (int agent = 0; agent < n; agent++) {
-
-                double probSumOverChoices = 0;
                 for (int choice = 0; choice < numOptions; choice++) {
-
-                    // Gamma transform of the probabilities
-                    prob[agent][choice] *= gamma[choice];
-
-                    probSumOverChoices += prob[agent][choice];
+                    gamma[choice] = target[choice] / probSumOverAgents[choice];
                 }
-                double alpha = 1. / probSumOverChoices;
 
-                // Alpha transform of the probabilities
-                for (int choice = 0; choice < numOptions; choice++) {
-                    prob[agent][choice] *= alpha;
+                // Gamma and alpha transforms of the probabilities, summing the final
+                // probabilities for the test of convergence (which are also the sums needed
+                // for the gamma factors of the next iteration)
+                probSumOverAgents = RowMajorProbabilities.scaleRows(prob, numOptions, gamma, null);
 
-                    probSumOverAgents[choice] += prob[agent][choice];
+                error = 0.;
+                for (int choice = 0; choice < numOptions; choice++) {
+                    error += Math.abs(probSumOverAgents[choice] - previousProbSumOverAgents[choice]);
                 }
-
+                error /= (double) numOptions;
+                previousProbSumOverAgents = probSumOverAgents;
+                count++;
             }
-
-            for (int choice = 0; choice < numOptions; choice++) {
-                error += Math.abs(probSumOverAgents[choice] - previousProbSumOverAgents[choice]);
-            }
-            error /= (double) numOptions;
-            count++;
         }
 
-        if ((error >= allowedError) && enableWarnings) {
+        if ((error >= allowedError) && enableWarnings && AlignmentDiagnostics.printWarnings) {
             System.out.println("WARNING: The LogitScalingAlignment.align() method terminated with an error of "
                     + (error / (double) n) + ", which has a greater magnitude than the precision bounds of +/-"
                     + precision + ".  The size of "
@@ -232,12 +241,16 @@ public class LogitScalingAlignment<T> extends AbstractMultiProbabilityAlignment<
             new Exception().printStackTrace();
         }
 
-        // Correct individual probabilities with the aligned probabilities, prob[i]
+        // Correct individual probabilities with the aligned probabilities of each agent
         for (int i = 0; i < n; i++) {
             T agent = list.get(i);
-            closure.align(agent, prob[i]);
+            closure.align(agent, Arrays.copyOfRange(prob, i * numOptions, (i + 1) * numOptions));
         }
 
+        if (probe != null) {
+            probe.addIterations(count);
+            probe.publish(n, target, RowMajorProbabilities.columnSums(prob, numOptions, null));
+        }
     }
 
 }
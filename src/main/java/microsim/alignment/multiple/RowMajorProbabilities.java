@@ -0,0 +1,61 @@
+package microsim.alignment.multiple;
+
+import microsim.alignment.ChunkedReduction;
+
+/**
+ * Passes of the Logit Scaling iteration over a flat, row-major matrix of
+ * probabilities, where the probability of choice {@code c} for the i-th agent
+ * is {@code prob[i * numOptions + c]}.
+ * <p>
+ * Each pass is a {@link ChunkedReduction} over the rows, whose sums are the
+ * (weighted) column sums, so the results do not depend on the number of
+ * threads.
+ */
+final class RowMajorProbabilities {
+
+    private RowMajorProbabilities() {
+    }
+
+    /**
+     * @param weights - the weights of the agents, or null if all the agents
+     *                count for one.
+     * @return the (weighted) sum of the probabilities of each choice.
+     */
+    static double[] columnSums(double[] prob, int numOptions, double[] weights) {
+        return ChunkedReduction.reduce(prob.length / numOptions, numOptions, (from, to, sums) -> {
+            for (int i = from; i < to; i++) {
+                double w = weights == null ? 1. : weights[i];
+                int row = i * numOptions;
+                for (int c = 0; c < numOptions; c++)
+                    sums[c] += w * prob[row + c];
+            }
+        });
+    }
+
+    /**
+     * Multiplies the probabilities of each choice by its gamma factor, then
+     * rescales the probabilities of each agent to sum to one.
+     *
+     * @param weights - the weights of the agents, or null if all the agents
+     *                count for one.
+     * @return the (weighted) sum of the rescaled probabilities of each choice.
+     */
+    static double[] scaleRows(double[] prob, int numOptions, double[] gamma, double[] weights) {
+        return ChunkedReduction.reduce(prob.length / numOptions, numOptions, (from, to, sums) -> {
+            for (int i = from; i < to; i++) {
+                int row = i * numOptions;
+                double probSumOverChoices = 0.;
+                for (int c = 0; c < numOptions; c++) {
+                    prob[row + c] *= gamma[c]; // Gamma transform
+                    probSumOverChoices += prob[row + c];
+                }
+                double alpha = 1. / probSumOverChoices;
+                double w = weights == null ? 1. : weights[i];
+                for (int c = 0; c < numOptions; c++) {
+                    prob[row + c] *= alpha; // Alpha transform
+                    sums[c] += w * prob[row + c];
+                }
+            }
+        });
+    }
+}
@@ -1,7 +1,14 @@
 package microsim.alignment.outcome;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Random;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.CellPartition;
+import microsim.alignment.IndexView;
 
 /**
  * 
@@ -46,10 +53,162 @@ import java.util.function.Predicate;
  */
 public abstract class AbstractOutcomeAlignment<T> {
 
+    private boolean batchResampling = false;
+
+    /**
+     * @return true if agents are resampled in batches.
+     */
+    public boolean isBatchResampling() {
+        return batchResampling;
+    }
+
+    /**
+     * Sets whether agents are resampled in batches rather than one at a
+     * time. In batch mode, the agents whose outcome needs to change are collected
+     * once, and each round resamples a random batch of them, no larger than the
+     * change still needed. Each partition of a batch draws from its own random
+     * number generator, passed to
+     * {@link AlignmentOutcomeClosure#resample(Object, java.util.Random)}. The
+     * partitions are resampled in parallel only if the closure opts in with
+     * {@link AlignmentOutcomeClosure#isConcurrentResampling()}, and otherwise in
+     * turn on the calling thread.
+     * 
+     * @param batchResampling - true to resample in batches.
+     */
+    public void setBatchResampling(boolean batchResampling) {
+        this.batchResampling = batchResampling;
+    }
+
     public abstract void align(Collection<T> agents, Predicate<T> filter, AlignmentOutcomeClosure<T> closure,
             double targetShare, int maxResamplingAttempts);
 
     public abstract void align(Collection<T> agents, Predicate<T> filter, AlignmentOutcomeClosure<T> closure,
             int targetNumber, int maxResamplingAttempts);
 
+    /**
+     * Aligns the sub-population given by the positions of its agents in a list to
+     * a target share, without copying it (see {@link IndexView}). The closure
+     * must not add or remove agents from the list.
+     * 
+     * @param agents                - the population.
+     * @param indices               - the positions of the agents to be aligned.
+     * @param size                  - the number of agents to be aligned, i.e. of
+     *                              leading entries of {@code indices} in use.
+     * @param closure               - specifies how to define the outcome of the
+     *                              agent and how to resample it
+     * @param targetShare           - the target share of the sub-population.
+     * @param maxResamplingAttempts - the maximum number of attempts to resample.
+     */
+    public void align(List<T> agents, int[] indices, int size, AlignmentOutcomeClosure<T> closure,
+            double targetShare, int maxResamplingAttempts) {
+        align(new IndexView<>(agents, indices, size), null, closure, targetShare, maxResamplingAttempts);
+    }
+
+    /**
+     * Aligns the sub-population given by the positions of its agents in a list to
+     * a target number, without copying it. See
+     * {@link #align(List, int[], int, AlignmentOutcomeClosure, double, int)}.
+     */
+    public void align(List<T> agents, int[] indices, int size, AlignmentOutcomeClosure<T> closure,
+            int targetNumber, int maxResamplingAttempts) {
+        align(new IndexView<>(agents, indices, size), null, closure, targetNumber, maxResamplingAttempts);
+    }
+
+    /**
+     * Aligns several sub-populations (cells) of the agents at once, each to its
+     * own target share, e.g. the cells of region x age band x gender. The
+     * population is partitioned into cells in a single pass, instead of being
+     * filtered again for every cell, and the cells are aligned as views of the
+     * population, so the closure must not add or remove agents from it. As
+     * outcome alignment draws random numbers, the cells are aligned one after
+     * the other.
+     * 
+     * @param agents                - a collection of agents to potentially be
+     *                              aligned
+     * @param cell                  - returns the cell of an agent, in
+     *                              {@code [0, targetShares.length)}, or a negative
+     *                              number for agents that are not to be aligned
+     * @param closure               - specifies how to define the outcome of the
+     *                              agent and how to resample it
+     * @param targetShares          - the target share of each cell (specified as a
+     *                              proportion of the agents of the cell).
+     * @param maxResamplingAttempts - the maximum number of attempts to resample
+     *                              in each cell.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell, AlignmentOutcomeClosure<T> closure,
+            double[] targetShares, int maxResamplingAttempts) {
+        CellPartition<T> cells = CellPartition.of(agents, cell, targetShares.length);
+        for (int c = 0; c < targetShares.length; c++) {
+            if (cells.size(c) > 0)
+                align(cells.get(c), null, closure, targetShares[c], maxResamplingAttempts);
+        }
+    }
+
+    /**
+     * Aligns several sub-populations (cells) of the agents at once, each to its
+     * own target number, one cell after the other. See
+     * {@link #alignGrouped(Collection, ToIntFunction, AlignmentOutcomeClosure, double[], int)}.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell, AlignmentOutcomeClosure<T> closure,
+            int[] targetNumbers, int maxResamplingAttempts) {
+        CellPartition<T> cells = CellPartition.of(agents, cell, targetNumbers.length);
+        for (int c = 0; c < targetNumbers.length; c++) {
+            if (cells.size(c) > 0)
+                align(cells.get(c), null, closure, targetNumbers[c], maxResamplingAttempts);
+        }
+    }
+
+    /**
+     * Wraps a closure so that the time spent in its methods is added to the
+     * probe of an alignment in progress, and each resampling counts as one
+     * iteration.
+     * 
+     * @param closure - the closure of the alignment.
+     * @param probe   - the probe returned by {@link AlignmentDiagnostics#start},
+     *                possibly null.
+     * @return the closure itself if the probe is null.
+     */
+    protected AlignmentOutcomeClosure<T> timed(AlignmentOutcomeClosure<T> closure, AlignmentDiagnostics.Probe probe) {
+        if (probe == null)
+            return closure;
+        return new AlignmentOutcomeClosure<T>() {
+            @Override
+            public boolean getOutcome(T agent) {
+                long start = System.nanoTime();
+                try {
+                    return closure.getOutcome(agent);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void resample(T agent) {
+                long start = System.nanoTime();
+                try {
+                    closure.resample(agent);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                    probe.addIterations(1);
+                }
+            }
+
+            @Override
+            public void resample(T agent, Random random) {
+                long start = System.nanoTime();
+                try {
+                    closure.resample(agent, random);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                    probe.addIterations(1);
+                }
+            }
+
+            @Override
+            public boolean isConcurrentResampling() {
+                return closure.isConcurrentResampling();
+            }
+        };
+    }
+
 }
@@ -1,9 +1,41 @@
 package microsim.alignment.outcome;
 
+import java.util.Random;
+
 public interface AlignmentOutcomeClosure<T> {
 
     boolean getOutcome(T agent);
 
     void resample(T agent);
 
+    /**
+     * Resamples the outcome of the agent, drawing any random numbers from the
+     * given generator. Batch resampling (see
+     * {@link AbstractOutcomeAlignment#setBatchResampling(boolean)}) gives each
+     * partition of a batch its own generator, and calls this method
+     * concurrently for different agents if {@link #isConcurrentResampling()}.
+     * The default implementation ignores the generator and calls
+     * {@link #resample(Object)}.
+     * 
+     * @param agent  - the agent to resample.
+     * @param random - the random number generator to use.
+     */
+    default void resample(T agent, Random random) {
+        resample(agent);
+    }
+
+    /**
+     * Opts in to parallel batch resampling. Implementations returning true must
+     * override {@link #resample(Object, Random)} to draw their random numbers
+     * from the given generator only, and be safe to call concurrently for
+     * different agents; the results then do not depend on the scheduling of
+     * threads. By default, batches are resampled in turn on the calling thread.
+     * 
+     * @return true if {@link #resample(Object, Random)} may be called
+     *         concurrently for different agents.
+     */
+    default boolean isConcurrentResampling() {
+        return false;
+    }
+
 }
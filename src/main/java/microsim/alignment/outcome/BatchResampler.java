@@ -0,0 +1,183 @@
+package microsim.alignment.outcome;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Batch resampling shared by {@link ResamplingAlignment} and
+ * {@link ResamplingWeightedAlignment}.
+ * <p>
+ * The agents whose outcome has to change (the positive ones if there are too
+ * many positive outcomes, the negative ones otherwise) are collected once into
+ * a pool of indices. Each round draws a random batch of distinct agents from
+ * the pool, no larger (in number, or in weight) than the change still needed,
+ * so that the target cannot be overshot. The batch is resampled in partitions
+ * of {@link #PARTITION_SIZE} agents, each with its own random number generator
+ * seeded from the main one, in parallel if the closure opts in with
+ * {@link AlignmentOutcomeClosure#isConcurrentResampling()}, and otherwise in
+ * turn on the calling thread. The successful changes are then counted
+ * in batch order and the changed agents leave the pool. All the draws from the
+ * main generator happen on the calling thread, so the results are reproducible.
+ */
+final class BatchResampler {
+
+    /** Number of agents resampled by each task of a parallel batch. */
+    static final int PARTITION_SIZE = 256;
+
+    /**
+     * @param delta - the remaining difference between the (weighted) number of
+     *              positive outcomes and the target.
+     * @param count - the number of failed resampling attempts since the last
+     *              successful one.
+     */
+    record Result(double delta, int count) {
+    }
+
+    private BatchResampler() {
+    }
+
+    /**
+     * Resamples agents until the difference with the target is no larger than
+     * the tolerance, the pool of agents that can change is exhausted, or
+     * {@code maxResamplingAttempts} consecutive attempts have failed.
+     *
+     * @param agents                - the sub-population to align.
+     * @param weights               - the weights of the agents, or null if all
+     *                              the agents count for one.
+     * @param closure               - the closure defining and resampling the
+     *                              outcomes.
+     * @param random                - the generator drawing the batches and the
+     *                              seeds of the partitions.
+     * @param delta                 - the (weighted) number of positive outcomes
+     *                              minus the target.
+     * @param tolerance             - the accepted absolute difference.
+     * @param maxResamplingAttempts - the maximum number of consecutive failed
+     *                              attempts.
+     * @param lastAttempts          - for weighted agents, the number of attempts
+     *                              at resampling the lightest agent that was too
+     *                              heavy to be part of a batch, if changing it
+     *                              brings the total closer to the target.
+     */
+    static <T> Result resample(List<T> agents, double[] weights, AlignmentOutcomeClosure<T> closure, Random random,
+            double delta, double tolerance, int maxResamplingAttempts, int lastAttempts) {
+        boolean positive = delta > 0.;
+        int n = agents.size();
+        int[] pool = new int[n];
+        int m = 0;
+        for (int i = 0; i < n; i++)
+            if (closure.getOutcome(agents.get(i)) == positive)
+                pool[m++] = i;
+
+        int[] batch = new int[m];
+        boolean[] changed = new boolean[m];
+        boolean[] removed = new boolean[n];
+        long[] order = weights == null ? null : new long[m];
+        int lightestTooHeavy = -1;
+        int count = 0;
+        while (m > 0 && count < maxResamplingAttempts) {
+            double remaining = Math.abs(delta) - tolerance;
+            if (remaining <= 0.)
+                break;
+            double capacity = weights == null ? Math.ceil(remaining) : remaining;
+
+            int b = 0;
+            if (weights == null) {
+                // Uniform batch: the first agents of a partial Fisher-Yates shuffle
+                b = (int) Math.min(m, capacity);
+                for (int j = 0; j < b; j++) {
+                    int r = j + random.nextInt(m - j);
+                    int tmp = pool[j];
+                    pool[j] = pool[r];
+                    pool[r] = tmp;
+                    batch[j] = pool[j];
+                }
+            } else {
+                // Agents heavier than the change still needed can no longer be part of a
+                // batch
+                int kept = 0;
+                for (int j = 0; j < m; j++) {
+                    int i = pool[j];
+                    if (weights[i] <= capacity)
+                        pool[kept++] = i;
+                    else if (lightestTooHeavy < 0 || weights[i] < weights[lightestTooHeavy])
+                        lightestTooHeavy = i;
+                }
+                m = kept;
+                if (m == 0)
+                    break;
+                // Weighted random order (Efraimidis-Spirakis: exponential keys with rate
+                // equal to the weight), packed with the position in the pool so that a
+                // primitive sort orders both
+                for (int j = 0; j < m; j++) {
+                    float key = (float) (-Math.log(1. - random.nextDouble()) / weights[pool[j]]);
+                    order[j] = ((long) Float.floatToIntBits(key) << 32) | j;
+                }
+                Arrays.sort(order, 0, m);
+                double load = 0.;
+                for (int j = 0; j < m; j++) {
+                    int i = pool[(int) order[j]];
+                    if (load + weights[i] <= capacity) {
+                        load += weights[i];
+                        batch[b++] = i;
+                    }
+                }
+            }
+
+            int size = b;
+            int partitions = (size + PARTITION_SIZE - 1) / PARTITION_SIZE;
+            long[] seeds = new long[partitions];
+            for (int p = 0; p < partitions; p++)
+                seeds[p] = random.nextLong();
+            IntStream range = IntStream.range(0, partitions);
+            (partitions > 1 && closure.isConcurrentResampling() ? range.parallel() : range).forEach(p -> {
+                Random partitionRandom = new Random(seeds[p]);
+                for (int j = p * PARTITION_SIZE; j < Math.min(size, (p + 1) * PARTITION_SIZE); j++) {
+                    T agent = agents.get(batch[j]);
+                    closure.resample(agent, partitionRandom);
+                    changed[j] = closure.getOutcome(agent) != positive;
+                }
+            });
+
+            // Count the changes in batch order, and drop the changed agents from the pool
+            boolean any = false;
+            for (int j = 0; j < size; j++) {
+                if (changed[j]) {
+                    double w = weights == null ? 1. : weights[batch[j]];
+                    delta += positive ? -w : w;
+                    count = 0;
+                    removed[batch[j]] = true;
+                    any = true;
+                } else {
+                    count++;
+                }
+            }
+            if (any) {
+                int kept = 0;
+                for (int j = 0; j < m; j++)
+                    if (!removed[pool[j]])
+                        pool[kept++] = pool[j];
+                m = kept;
+            }
+        }
+
+        // The lightest of the agents that were too heavy is resampled if changing it
+        // would bring the total closer to the target
+        if (lightestTooHeavy >= 0) {
+            double w = weights[lightestTooHeavy];
+            double after = positive ? delta - w : delta + w;
+            if (Math.abs(after) < Math.abs(delta)) {
+                T agent = agents.get(lightestTooHeavy);
+                for (int attempt = 0; attempt < lastAttempts; attempt++) {
+                    closure.resample(agent, random);
+                    if (closure.getOutcome(agent) != positive) {
+                        delta = after;
+                        break;
+                    }
+                }
+            }
+        }
+        return new Result(delta, count);
+    }
+}
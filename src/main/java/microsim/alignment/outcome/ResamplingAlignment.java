@@ -1,11 +1,12 @@
 package microsim.alignment.outcome;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
 import java.util.function.Predicate;
 
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
 import microsim.engine.SimulationEngine;
 import microsim.event.EventListener;
 
@@ -108,13 +109,12 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
             throw new IllegalArgumentException("ResamplingAlignment targetShare is negative!  This is impossible.");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
 
-        Collections.shuffle(list, SimulationEngine.getRnd());
+        List<T> list = IndexView.filtered(agents, filter);
+
+        list = IndexView.shuffled(list, SimulationEngine.getRnd());
         int n = list.size();
         double sum = 0;
 
@@ -169,8 +169,12 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
 
         int count = 0;
 
-        // if too many positive outcomes (delta is positive)
-        if (delta > 0) {
+        if (isBatchResampling()) {
+            BatchResampler.Result result = BatchResampler.resample(list, null, closure, SimulationEngine.getRnd(),
+                    delta, 1., maxResamplingAttempts, 0);
+            delta = result.delta();
+            count = result.count();
+        } else if (delta > 0) { // if too many positive outcomes (delta is positive)
             while ((Math.abs(delta) > 1.) && (count < maxResamplingAttempts)) {
                 T agent = list.get(SimulationEngine.getRnd().nextInt(list.size()));
                 // System.out.println("count " + count);
@@ -200,7 +204,7 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
             }
         }
 
-        if (count >= maxResamplingAttempts) {
+        if ((count >= maxResamplingAttempts) && AlignmentDiagnostics.printWarnings) {
             System.out.println("Resampling Alignment Algorithm has reached the maximum number of resample attempts "
                     + "(on average, " + avgResampleAttemptPerCapita + " attempts per object to be aligned) and has "
                     + "terminated.  Alignment may have failed.  The difference between the population in "
@@ -212,6 +216,8 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
         }
         // System.out.println("final delta is ," + delta);
 
+        if (probe != null)
+            probe.publish(n, targetShare * n, targetShare * n + delta);
     }
 
     // -----------------------------------------------------------------------------------
@@ -287,13 +293,12 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
                     "ResamplingAlignment targetNumber is negative!  This is impossible to reach.");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
 
-        Collections.shuffle(list, SimulationEngine.getRnd());
+        list = IndexView.shuffled(list, SimulationEngine.getRnd());
         int n = list.size();
         int sum = 0;
 
@@ -345,8 +350,12 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
         // list.size() + " sum is ," + sum);
         int count = 0;
 
-        // if too many positive outcomes (delta is positive)
-        if (delta > 0) {
+        if (isBatchResampling()) {
+            BatchResampler.Result result = BatchResampler.resample(list, null, closure, SimulationEngine.getRnd(),
+                    delta, 0., maxResamplingAttempts, 0);
+            delta = result.delta();
+            count = result.count();
+        } else if (delta > 0) { // if too many positive outcomes (delta is positive)
             int resample = sum;
             int indx = 0;
             while ((delta > 0) && (count < maxResamplingAttempts) && (resample > 0)) {
@@ -394,7 +403,7 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
                     indx = 0;
             }
         }
-        if (delta != 0) {
+        if ((delta != 0) && AlignmentDiagnostics.printWarnings) {
 
             if (count >= maxResamplingAttempts) {
                 System.out.println("Resampling Alignment Algorithm has reached the maximum number of "
@@ -412,5 +421,8 @@ public class ResamplingAlignment<T extends EventListener> extends AbstractOutcom
                     + "not enough of the population are able to change their outcomes.");
             System.out.println(Arrays.toString(Thread.currentThread().getStackTrace()));
         }
+
+        if (probe != null)
+            probe.publish(n, targetNumber, targetNumber + delta);
     }
 }
@@ -1,14 +1,14 @@
 package microsim.alignment.outcome;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.function.Predicate;
 
 import microsim.agent.Weight;
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
 import microsim.engine.SimulationEngine;
 import microsim.event.EventListener;
 import microsim.statistics.regression.RegressionUtils;
@@ -121,11 +121,7 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
                     "ResamplingWeightedAlignment targetShare is negative!  This is impossible to reach.");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        List<T> list = IndexView.filtered(agents, filter);
 
         double total = 0.;
 
@@ -221,11 +217,7 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
                     "ResamplingWeightedAlignment targetNumber is negative!  This is impossible to reach.");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        List<T> list = IndexView.filtered(agents, filter);
 
         doAlignment(list, closure, targetNumber, maxResamplingAttempts);
 
@@ -239,13 +231,17 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
         // System.out.println("Starting Resampling Alignment. This may take some time,
         // please wait...");
 
-        Collections.shuffle(list, SimulationEngine.getRnd());
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        list = IndexView.shuffled(list, SimulationEngine.getRnd());
 
         int avgResampleAttemptsPerAgent = 20;
         double sum = 0.;
         double total = 0.;
         HashMap<T, Double> trueAgentMap = new HashMap<T, Double>();
         HashMap<T, Double> falseAgentMap = new HashMap<T, Double>();
+        double[] weights = new double[list.size()];
 
         // compute total number of simulated positive outcomes
         for (int i = 0; i < list.size(); i++) {
@@ -255,6 +251,7 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
                 throw new IllegalArgumentException("Weight cannot be zero or negative in ResamplingWeightedAlignment!");
             }
             total += weight;
+            weights[i] = weight;
             if (closure.getOutcome(agent)) {
                 sum += weight;
                 trueAgentMap.put(agent, weight);
@@ -276,14 +273,24 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
                            // called). Then count = 0 is > maxResamplingAttempts, and the warning at the
                            // bottom is called unnecessarily.
             // System.out.println("No need for alignment as delta is ," + delta);
+            if (probe != null)
+                probe.publish(list.size(), targetNumber, sum);
             return;
         }
 
         int count = 0;
         T agentSmallestButTooLargeWeight = null; // Store the agent with the smallest weight that is too big to be used
 
-        // if too many positive outcomes (delta is positive)
-        if (delta > 0.) {
+        if (isBatchResampling()) {
+            int candidates = delta > 0. ? trueAgentMap.size() : falseAgentMap.size();
+            if (maxResamplingAttempts < candidates) { // As below, default of 20 attempts per agent on average
+                maxResamplingAttempts = avgResampleAttemptsPerAgent * candidates;
+            }
+            BatchResampler.Result result = BatchResampler.resample(list, weights, closure, SimulationEngine.getRnd(),
+                    delta, 0., maxResamplingAttempts, avgResampleAttemptsPerAgent);
+            delta = result.delta();
+            count = result.count();
+        } else if (delta > 0.) { // if too many positive outcomes (delta is positive)
             if (maxResamplingAttempts < trueAgentMap.size()) { // This will catch the case where maxResamplingAttempts
                                                                // is not included in the arguments. Also it provides a
                                                                // lower bound for the user to specify, which is the size
@@ -437,7 +444,7 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
             }
         }
 
-        if (count >= maxResamplingAttempts) {
+        if ((count >= maxResamplingAttempts) && AlignmentDiagnostics.printWarnings) {
             System.out.println("Count, " + count + ", maxResamplingAttempts, " + maxResamplingAttempts
                     + ", Weighted Resampling Alignment Algorithm has reached the maximum number of "
                     + "resample attempts (on average, " + avgResampleAttemptsPerAgent + " attempts "
@@ -451,6 +458,8 @@ public class ResamplingWeightedAlignment<T extends EventListener & Weight> exten
         }
         // System.out.println("final delta is ," + delta);
 
+        if (probe != null)
+            probe.publish(list.size(), targetNumber, targetNumber + delta);
     }
 
 }
@@ -9,6 +9,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.CellPartition;
+import microsim.alignment.IndexView;
 
 /**
  * Abstract class for BINARY PROBABILITY alignment methods (for Binary
@@ -40,6 +46,37 @@ import java.util.function.Predicate;
  */
 public abstract class AbstractProbabilityAlignment<T> {
 
+    private boolean parallelProbabilities = false;
+
+    /**
+     * @return true if the unaligned probabilities are evaluated in parallel.
+     */
+    public boolean isParallelProbabilities() {
+        return parallelProbabilities;
+    }
+
+    /**
+     * Sets whether the unaligned probabilities of the agents are evaluated in
+     * parallel before aligning them. This pays off when
+     * {@link AlignmentProbabilityClosure#getProbability} is expensive, e.g. the
+     * score of a regression, and requires it to be safe to call concurrently for
+     * different agents.
+     * <p>
+     * The alignment itself, including any random numbers it draws, still runs
+     * in order on the calling thread, but all the probabilities are evaluated
+     * before the first random number is drawn or the first agent is aligned,
+     * whereas the serial SBD, SBDL and Sidewalk alignments interleave them agent
+     * by agent. The results are therefore the same only if
+     * {@code getProbability} neither draws random numbers from the simulation
+     * engine nor depends on the outcome of {@code align} for other agents.
+     * 
+     * @param parallelProbabilities - true to evaluate the probabilities in
+     *                              parallel.
+     */
+    public void setParallelProbabilities(boolean parallelProbabilities) {
+        this.parallelProbabilities = parallelProbabilities;
+    }
+
     /**
      * Method to implement alignment.
      * 
@@ -59,11 +96,149 @@ public abstract class AbstractProbabilityAlignment<T> {
     public abstract void align(Collection<T> agents, Predicate<T> filter, AlignmentProbabilityClosure<T> closure,
             double targetShare);
 
+    /**
+     * Aligns the sub-population given by the positions of its agents in a list,
+     * without copying it (see {@link IndexView}). The closure must not add or
+     * remove agents from the list.
+     * 
+     * @param agents      - the population.
+     * @param indices     - the positions of the agents to be aligned.
+     * @param size        - the number of agents to be aligned, i.e. of leading
+     *                    entries of {@code indices} in use.
+     * @param closure     - specifies the method returning the unaligned probability
+     *                    of the positive outcome for the agent and the method that
+     *                    samples the aligned probabilities to specify the outcome.
+     * @param targetShare - a target share of the sub-population.
+     */
+    public void align(List<T> agents, int[] indices, int size, AlignmentProbabilityClosure<T> closure,
+            double targetShare) {
+        align(new IndexView<>(agents, indices, size), null, closure, targetShare);
+    }
+
+    /**
+     * Aligns several sub-populations (cells) of the agents at once, each to its
+     * own target share, e.g. the cells of region x age band x gender. The
+     * population is partitioned into cells in a single pass, instead of being
+     * filtered again for every cell, and the cells are aligned as views of the
+     * population, so the closure must not add or remove agents from it.
+     * 
+     * @param agents       - a collection of agents to potentially be aligned
+     * @param cell         - returns the cell of an agent, in
+     *                     {@code [0, targetShares.length)}, or a negative number
+     *                     for agents that are not to be aligned
+     * @param closure      - specifies the method returning the unaligned
+     *                     probability of the positive outcome for the agent and
+     *                     the method that samples the aligned probabilities to
+     *                     specify the outcome.
+     * @param targetShares - the target share of each cell (specified as a
+     *                     proportion of the agents of the cell).
+     * @param parallel     - if true, the cells are aligned in parallel, unless the
+     *                     alignment method draws random numbers (in which case
+     *                     they are aligned in turn, so that results do not depend
+     *                     on the scheduling of threads). The closure must then be
+     *                     safe to call concurrently for different agents.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentProbabilityClosure<T> closure, double[] targetShares, boolean parallel) {
+        CellPartition<T> cells = CellPartition.of(agents, cell, targetShares.length);
+        IntStream range = IntStream.range(0, targetShares.length).filter(c -> cells.size(c) > 0);
+        (parallel && !drawsRandomNumbers() ? range.parallel() : range)
+                .forEach(c -> align(cells.get(c), null, closure, targetShares[c]));
+    }
+
+    /**
+     * Aligns several sub-populations (cells) of the agents at once, one cell
+     * after the other. See
+     * {@link #alignGrouped(Collection, ToIntFunction, AlignmentProbabilityClosure, double[], boolean)}.
+     */
+    public void alignGrouped(Collection<T> agents, ToIntFunction<? super T> cell,
+            AlignmentProbabilityClosure<T> closure, double[] targetShares) {
+        alignGrouped(agents, cell, closure, targetShares, false);
+    }
+
+    /**
+     * @return true if the alignment method draws random numbers from the
+     *         simulation engine, so that sub-populations must be aligned one
+     *         after the other to give reproducible results.
+     */
+    protected boolean drawsRandomNumbers() {
+        return true;
+    }
+
+    /**
+     * Evaluates the unaligned probabilities of a sub-population, in parallel if
+     * {@link #isParallelProbabilities()}.
+     * 
+     * @param agents  - the sub-population to be aligned.
+     * @param closure - the closure returning the unaligned probabilities.
+     * @return the probability of each agent, in the order of the list.
+     */
+    protected double[] getProbabilities(List<T> agents, AlignmentProbabilityClosure<T> closure) {
+        double[] prob = new double[agents.size()];
+        IntStream range = IntStream.range(0, prob.length);
+        (parallelProbabilities ? range.parallel() : range)
+                .forEach(i -> prob[i] = closure.getProbability(agents.get(i)));
+        return prob;
+    }
+
+    /**
+     * Evaluates the unaligned probabilities of a sub-population in parallel
+     * beforehand, for the alignment methods that otherwise evaluate them agent by
+     * agent, interleaved with their random draws and aligning steps.
+     * 
+     * @param agents  - the sub-population to be aligned.
+     * @param closure - the closure returning the unaligned probabilities.
+     * @return the probability of each agent, in the order of the list, or null
+     *         if not {@link #isParallelProbabilities()}, in which case they are
+     *         to be evaluated in turn.
+     */
+    protected double[] getParallelProbabilities(List<T> agents, AlignmentProbabilityClosure<T> closure) {
+        return parallelProbabilities ? getProbabilities(agents, closure) : null;
+    }
+
+    /**
+     * Wraps a closure so that the time spent in its methods is added to the
+     * probe of an alignment in progress.
+     * 
+     * @param closure - the closure of the alignment.
+     * @param probe   - the probe returned by {@link AlignmentDiagnostics#start},
+     *                possibly null.
+     * @return the closure itself if the probe is null.
+     */
+    protected AlignmentProbabilityClosure<T> timed(AlignmentProbabilityClosure<T> closure,
+            AlignmentDiagnostics.Probe probe) {
+        if (probe == null)
+            return closure;
+        return new AlignmentProbabilityClosure<T>() {
+            @Override
+            public double getProbability(T agent) {
+                long start = System.nanoTime();
+                try {
+                    return closure.getProbability(agent);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void align(T agent, double alignedProbability) {
+                long start = System.nanoTime();
+                try {
+                    closure.align(agent, alignedProbability);
+                } finally {
+                    probe.addClosureNanos(System.nanoTime() - start);
+                }
+            }
+        };
+    }
+
     /**
      * 
      * Sorting of objects of type T (usually the agents)
-     * by an associated Double number. This method is used in
-     * the SBD and SBDL alignment algorithms.
+     * by an associated Double number. The SBD and SBDL alignment
+     * algorithms no longer use this method, as they only need the
+     * agents ranking above the target share and select them over
+     * primitive arrays instead.
      * 
      * @param unsortedMap
      * @param ascendingOrder - if true, the method returns a map ordered
@@ -1,9 +1,13 @@
 package microsim.alignment.probability;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
 
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
+import microsim.alignment.LogitScaling;
+
 /**
  * Logit Scaling alignment (as introduced by P. Stephensen in International
  * Journal of Microsimulation (2016) 9(3) 89-102),
@@ -21,6 +25,40 @@ import java.util.function.Predicate;
  */
 public class LogitScalingBinaryAlignment<T> extends AbstractProbabilityAlignment<T> {
 
+    private LogitScaling.Method method = LogitScaling.Method.ITERATIVE;
+
+    /**
+     * @return the method used to find the aligned probabilities.
+     */
+    public LogitScaling.Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Sets the method used to find the aligned probabilities:
+     * {@link LogitScaling.Method#ITERATIVE} (the default) runs the fixed-point
+     * iteration of the original paper, while {@link LogitScaling.Method#NEWTON}
+     * solves directly for the shift of the log-odds, which usually takes
+     * far fewer passes over the agents. With the Newton solver, the maximum
+     * number of iterations bounds the number of Newton steps, and the precision
+     * bounds the difference between the mean aligned probabilities and the
+     * targetShare rather than between two iterations.
+     * 
+     * @param method - the solution method.
+     */
+    public void setMethod(LogitScaling.Method method) {
+        this.method = method;
+    }
+
+    /**
+     * Logit Scaling draws no random numbers, so grouped alignment can align the
+     * cells in parallel.
+     */
+    @Override
+    protected boolean drawsRandomNumbers() {
+        return false;
+    }
+
     /**
      * 
      * Aligns a sub-population of objects using Logit Scaling alignment.
@@ -125,33 +163,39 @@ public class LogitScalingBinaryAlignment<T> extends AbstractProbabilityAlignment
                     "precision in LogitScalingBinaryAlignment.align() method must be greater than 0");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
 
         int n = list.size();
         double target = targetShare * (double) n;
         double allowedError = precision * (double) n; // precision refers to the share of the sub-population aligned,
                                                       // allowedError refers to the target number, so is scaled up by n.
 
-        double[] prob = new double[list.size()]; // Array of probabilities that will be adjusted by iteration
+        // Array of probabilities that will be adjusted by iteration, initially the
+        // unaligned probabilities (to be aligned by the procedure).
+        double[] prob = getProbabilities(list, closure);
         double[] notProb = new double[list.size()]; // The complement probabilities (i.e. probabilities of the
                                                     // alternative choice), that will also be adjusted by iteration
 
         // compute total expected number of simulated positive outcomes
         for (int i = 0; i < n; i++) {
-            T agent = list.get(i);
-            prob[i] = closure.getProbability(agent); // Unaligned probabilities (to be aligned by the procedure).
             notProb[i] = 1. - prob[i];
         }
 
         int count = 0;
         double error = Double.MAX_VALUE;
+        if (method == LogitScaling.Method.NEWTON) {
+            LogitScaling.Solution solution = LogitScaling.solveBinary(prob, null, target, allowedError,
+                    maxNumberIterations);
+            count = solution.iterations();
+            error = solution.error();
+        }
         double sumProb = 0., sumNotProb = 0.;
         double previousSumProb, previousSumNotProb;
-        while ((error >= allowedError) && (count < maxNumberIterations)) {
+        while (method == LogitScaling.Method.ITERATIVE && (error >= allowedError)
+                && (count < maxNumberIterations)) {
 
             previousSumProb = sumProb; // Save previous values to test convergence
             previousSumNotProb = sumNotProb; // Save previous values to test convergence
@@ -195,7 +239,7 @@ public class LogitScalingBinaryAlignment<T> extends AbstractProbabilityAlignment
             count++;
         }
 
-        if ((error >= allowedError) && enableWarnings) {
+        if ((error >= allowedError) && enableWarnings && AlignmentDiagnostics.printWarnings) {
             System.out.println("WARNING: The LogitScalingBinaryAlignment.align() method terminated with an error of "
                     + (error / (double) n) + ", which has a greater magnitude than the precision bounds of +/-"
                     + precision + ".  The size of "
@@ -212,6 +256,14 @@ public class LogitScalingBinaryAlignment<T> extends AbstractProbabilityAlignment
             closure.align(agent, prob[i]);
         }
 
+        if (probe != null) {
+            double achieved = 0.;
+            for (int i = 0; i < n; i++) {
+                achieved += prob[i];
+            }
+            probe.addIterations(count);
+            probe.publish(n, target, achieved);
+        }
     }
 
 }
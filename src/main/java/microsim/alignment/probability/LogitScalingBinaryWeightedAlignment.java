@@ -1,10 +1,13 @@
 package microsim.alignment.probability;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
 
 import microsim.agent.Weight;
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
+import microsim.alignment.LogitScaling;
 
 /**
  * Logit Scaling alignment (as introduced by P. Stephensen in International
@@ -23,6 +26,40 @@ import microsim.agent.Weight;
  */
 public class LogitScalingBinaryWeightedAlignment<T extends Weight> extends AbstractProbabilityAlignment<T> {
 
+    private LogitScaling.Method method = LogitScaling.Method.ITERATIVE;
+
+    /**
+     * @return the method used to find the aligned probabilities.
+     */
+    public LogitScaling.Method getMethod() {
+        return method;
+    }
+
+    /**
+     * Sets the method used to find the aligned probabilities:
+     * {@link LogitScaling.Method#ITERATIVE} (the default) runs the fixed-point
+     * iteration of the original paper, while {@link LogitScaling.Method#NEWTON}
+     * solves directly for the shift of the log-odds, which usually takes
+     * far fewer passes over the agents. With the Newton solver, the maximum
+     * number of iterations bounds the number of Newton steps, and the precision
+     * bounds the difference between the mean aligned probabilities and the
+     * targetShare rather than between two iterations.
+     * 
+     * @param method - the solution method.
+     */
+    public void setMethod(LogitScaling.Method method) {
+        this.method = method;
+    }
+
+    /**
+     * No random numbers are drawn, so the cells of a grouped alignment may be
+     * aligned in parallel.
+     */
+    @Override
+    protected boolean drawsRandomNumbers() {
+        return false;
+    }
+
     /**
      * 
      * Aligns a sub-population of objects using Logit Scaling alignment.
@@ -136,17 +173,18 @@ public class LogitScalingBinaryWeightedAlignment<T extends Weight> extends Abstr
                     "precision in LogitScalingBinaryWeightedAlignment.align() method must be greater than 0");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
 
         int n = list.size();
         double total = 0.; // The total weight, i.e. will sum the weight of each agent in the
                            // sub-population to be aligned.
 
-        double[] prob = new double[list.size()]; // Array of probabilities that will be adjusted by iteration
+        // Array of probabilities that will be adjusted by iteration, initially the
+        // unaligned probabilities (to be aligned by the procedure).
+        double[] prob = getProbabilities(list, closure);
         double[] notProb = new double[list.size()]; // The complement probabilities (i.e. probabilities of the
                                                     // alternative choice), that will also be adjusted by iteration
 
@@ -158,8 +196,7 @@ public class LogitScalingBinaryWeightedAlignment<T extends Weight> extends Abstr
                 throw new IllegalArgumentException("Weight cannot be zero or negative in ResamplingWeightedAlignment!");
             }
             total += weight;
-            prob[i] = closure.getProbability(agent) * weight; // Unaligned probabilities (to be aligned by the
-                                                              // procedure), weighted by the agents' weight.
+            prob[i] *= weight; // Unaligned probabilities weighted by the agents' weight.
             notProb[i] = weight - prob[i]; // Now, prob + notProb = weight, instead of 1 as prob counts for potentially
                                            // more (or less) numbers of individuals, specified by the agent's getWeight
                                            // method.
@@ -171,9 +208,24 @@ public class LogitScalingBinaryWeightedAlignment<T extends Weight> extends Abstr
 
         int count = 0;
         double error = Double.MAX_VALUE;
+        if (method == LogitScaling.Method.NEWTON) {
+            double[] weights = new double[n];
+            for (int i = 0; i < n; i++) {
+                weights[i] = list.get(i).getWeight();
+                prob[i] /= weights[i]; // The solver takes the weights separately
+            }
+            LogitScaling.Solution solution = LogitScaling.solveBinary(prob, weights, target, allowedError,
+                    maxNumberIterations);
+            for (int i = 0; i < n; i++) {
+                prob[i] *= weights[i];
+            }
+            count = solution.iterations();
+            error = solution.error();
+        }
         double sumProb = 0., sumNotProb = 0.;
         double previousSumProb, previousSumNotProb;
-        while ((error >= allowedError) && (count < maxNumberIterations)) {
+        while (method == LogitScaling.Method.ITERATIVE && (error >= allowedError)
+                && (count < maxNumberIterations)) {
 
             previousSumProb = sumProb; // Save previous values to test convergence
             previousSumNotProb = sumNotProb; // Save previous values to test convergence
@@ -223,7 +275,7 @@ public class LogitScalingBinaryWeightedAlignment<T extends Weight> extends Abstr
             count++;
         }
 
-        if ((error >= allowedError) && enableWarnings) {
+        if ((error >= allowedError) && enableWarnings && AlignmentDiagnostics.printWarnings) {
             System.out.println(
                     "WARNING: The LogitScalingBinaryWeightedAlignment.align() method terminated with an error of "
                             + (error / total) + ", which has a greater magnitude than the precision bounds of +/-"
@@ -242,6 +294,14 @@ public class LogitScalingBinaryWeightedAlignment<T extends Weight> extends Abstr
                                                                // scale down here to 'renormalise'.
         }
 
+        if (probe != null) {
+            double achieved = 0.;
+            for (int i = 0; i < n; i++) {
+                achieved += prob[i];
+            }
+            probe.addIterations(count);
+            probe.publish(n, target, achieved);
+        }
     }
 
 }
@@ -1,9 +1,12 @@
 package microsim.alignment.probability;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.function.Predicate;
 
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
+
 public class MultiplicativeScalingAlignment<T> extends AbstractProbabilityAlignment<T> {
 
     @Override
@@ -13,20 +16,18 @@ public class MultiplicativeScalingAlignment<T> extends AbstractProbabilityAlignm
             throw new IllegalArgumentException("target probability must lie in [0,1]");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
 
         int n = list.size();
-        double sum = 0;
+        double[] prob = getProbabilities(list, closure);
 
         // compute total expected number of simulated positive outcomes
-        sum = 0;
+        double sum = 0;
         for (int i = 0; i < n; i++) {
-            T agent = list.get(i);
-            sum += closure.getProbability(agent);
+            sum += prob[i];
         }
 
         // compute correction factor
@@ -34,11 +35,20 @@ public class MultiplicativeScalingAlignment<T> extends AbstractProbabilityAlignm
 
         // correct individual probabilities
         for (int i = 0; i < n; i++) {
-            T agent = list.get(i);
-            double val = closure.getProbability(agent);
-            closure.align(agent, val * m);
+            closure.align(list.get(i), prob[i] * m);
         }
 
+        if (probe != null)
+            probe.publish(n, targetShare * n, sum * m);
+    }
+
+    /**
+     * Multiplicative scaling is deterministic, so the cells of a grouped
+     * alignment may be aligned in parallel.
+     */
+    @Override
+    protected boolean drawsRandomNumbers() {
+        return false;
     }
 
 }
@@ -0,0 +1,255 @@
+package microsim.alignment.probability;
+
+import java.util.List;
+
+/**
+ * Selection of the agents with the largest sorting keys, used by the
+ * sort-based alignment algorithms (SBD and SBDL, and their weighted variants).
+ * <p>
+ * The keys are held in a primitive array indexed by the position of the agent
+ * in the aligned sub-population, and only an {@code int[]} permutation of those
+ * positions is rearranged. The k agents with the largest keys are found by
+ * introselect in O(n) expected time: only the boundary between the selected and
+ * the unselected agents is ordered exactly, with a heapsort fallback bounding
+ * the worst case to O(n log n). Keys are compared with {@link Double#compare}
+ * and ties are broken by position, so the selection is deterministic for a
+ * given order of the agents and sequence of random numbers.
+ */
+final class RankSelection {
+
+    private RankSelection() {
+    }
+
+    /**
+     * Number of agents receiving the positive outcome in the SBD and SBDL
+     * algorithms, i.e. the number of ranks {@code i} (counted from 0) such that
+     * {@code i <= targetShare * n}.
+     *
+     * @param targetShare - the target share of the sub-population.
+     * @param n           - the size of the sub-population.
+     */
+    static int selectedCount(double targetShare, int n) {
+        return (int) Math.min(n, Math.floor(targetShare * n) + 1);
+    }
+
+    /**
+     * @return the identity permutation of the positions {@code 0 .. n-1}.
+     */
+    static int[] identity(int n) {
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++)
+            order[i] = i;
+        return order;
+    }
+
+    /**
+     * Rearranges the first {@code n} entries of {@code order} so that its first
+     * {@code k} entries are the positions of the {@code k} largest keys (in no
+     * particular order).
+     *
+     * @param keys  - the sorting keys, indexed by position.
+     * @param order - a permutation of the positions {@code 0 .. n-1}.
+     * @param n     - the number of positions.
+     * @param k     - the number of positions to select.
+     */
+    static void selectLargest(double[] keys, int[] order, int n, int k) {
+        if (k <= 0 || k >= n)
+            return;
+        int target = k - 1;
+        int lo = 0;
+        int hi = n - 1;
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(n));
+        while (lo < hi) {
+            if (depth-- == 0) {
+                heapSort(keys, order, lo, hi);
+                return;
+            }
+            int p = partition(keys, order, lo, hi, medianOfThree(keys, order, lo, (lo + hi) >>> 1, hi));
+            if (p == target)
+                return;
+            if (p < target)
+                lo = p + 1;
+            else
+                hi = p - 1;
+        }
+    }
+
+    /**
+     * Rearranges the first {@code n} entries of {@code order} so that its first
+     * {@code k} entries are the positions of the largest keys whose total
+     * weight is closest to the target: the positions are taken in rank order
+     * up to the first one that would take the total weight above the target,
+     * which is taken too if that brings the total closer to the target. This is
+     * a weighted introselect, which only orders exactly the boundary between
+     * the selected and the unselected positions.
+     *
+     * @param keys    - the sorting keys, indexed by position.
+     * @param weights - the positive weights, indexed by position.
+     * @param order   - a permutation of the positions {@code 0 .. n-1}.
+     * @param n       - the number of positions.
+     * @param target  - the target total weight.
+     * @return the number {@code k} of positions selected.
+     */
+    static int selectLargestWeighted(double[] keys, double[] weights, int[] order, int n, double target) {
+        int lo = 0;
+        int hi = n - 1;
+        double selected = 0.; // weight of order[0 .. lo), which never exceeds the target
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(n));
+        while (lo <= hi) {
+            if (depth-- == 0) {
+                heapSort(keys, order, lo, hi);
+                while (lo <= hi && selected + weights[order[lo]] <= target)
+                    selected += weights[order[lo++]];
+                break;
+            }
+            int p = partition(keys, order, lo, hi, medianOfThree(keys, order, lo, (lo + hi) >>> 1, hi));
+            double left = 0.;
+            for (int j = lo; j < p; j++)
+                left += weights[order[j]];
+            if (selected + left > target) {
+                hi = p - 1; // the target is crossed before the pivot
+            } else {
+                selected += left;
+                lo = p;
+                if (selected + weights[order[p]] > target)
+                    break; // the target is crossed at the pivot
+                selected += weights[order[p]];
+                lo = p + 1;
+            }
+        }
+        // order[lo] is the position crossing the target, if any
+        if (lo < n && selected + 0.5 * weights[order[lo]] < target)
+            lo++;
+        return lo;
+    }
+
+    /**
+     * Aligns the agents with the {@code k} largest keys to probability 1 and the
+     * others to probability 0. The closure is called once per agent, in the
+     * order of the list.
+     *
+     * @param agents  - the aligned sub-population.
+     * @param keys    - the sorting keys, indexed by position in the list; the
+     *                array is overwritten.
+     * @param k       - the number of agents receiving the positive outcome.
+     * @param closure - the closure receiving the aligned probabilities.
+     */
+    static <T> void alignLargest(List<T> agents, double[] keys, int k, AlignmentProbabilityClosure<T> closure) {
+        int n = agents.size();
+        int[] order = identity(n);
+        selectLargest(keys, order, n, k);
+        align(agents, keys, order, k, closure);
+    }
+
+    /**
+     * Aligns the agents with the largest keys whose total weight is closest to
+     * the target to probability 1 (see {@link #selectLargestWeighted}) and the
+     * others to probability 0. The closure is called once per agent, in the
+     * order of the list.
+     *
+     * @param agents  - the aligned sub-population.
+     * @param keys    - the sorting keys, indexed by position in the list; the
+     *                array is overwritten.
+     * @param weights - the weights, indexed by position in the list.
+     * @param target  - the target total weight of the agents receiving the
+     *                positive outcome.
+     * @param closure - the closure receiving the aligned probabilities.
+     * @return the total weight of the agents receiving the positive outcome.
+     */
+    static <T> double alignLargestWeighted(List<T> agents, double[] keys, double[] weights, double target,
+            AlignmentProbabilityClosure<T> closure) {
+        int n = agents.size();
+        int[] order = identity(n);
+        int k = selectLargestWeighted(keys, weights, order, n, target);
+        double selected = 0.;
+        for (int j = 0; j < k; j++)
+            selected += weights[order[j]];
+        align(agents, keys, order, k, closure);
+        return selected;
+    }
+
+    private static <T> void align(List<T> agents, double[] keys, int[] order, int k,
+            AlignmentProbabilityClosure<T> closure) {
+        int n = agents.size();
+        for (int j = 0; j < n; j++)
+            keys[order[j]] = j < k ? 1.0 : 0.0;
+        for (int i = 0; i < n; i++)
+            closure.align(agents.get(i), keys[i]);
+    }
+
+    /**
+     * @return true if position {@code a} ranks before position {@code b}, i.e.
+     *         has a larger key, or the same key and a smaller position.
+     */
+    private static boolean before(double[] keys, int a, int b) {
+        int c = Double.compare(keys[a], keys[b]);
+        return c > 0 || c == 0 && a < b;
+    }
+
+    private static int medianOfThree(double[] keys, int[] order, int i, int j, int k) {
+        int a = order[i], b = order[j], c = order[k];
+        if (before(keys, a, b)) {
+            if (before(keys, b, c))
+                return j;
+            return before(keys, a, c) ? k : i;
+        }
+        if (before(keys, a, c))
+            return i;
+        return before(keys, b, c) ? k : j;
+    }
+
+    /**
+     * Lomuto partition of {@code order[lo..hi]} around the entry at
+     * {@code pivotIndex}; the ranking is a strict total order, so equal keys do
+     * not degrade it.
+     *
+     * @return the final index of the pivot.
+     */
+    private static int partition(double[] keys, int[] order, int lo, int hi, int pivotIndex) {
+        int pivot = order[pivotIndex];
+        order[pivotIndex] = order[hi];
+        order[hi] = pivot;
+        int store = lo;
+        for (int i = lo; i < hi; i++) {
+            int position = order[i];
+            if (before(keys, position, pivot)) {
+                order[i] = order[store];
+                order[store++] = position;
+            }
+        }
+        order[hi] = order[store];
+        order[store] = pivot;
+        return store;
+    }
+
+    private static void heapSort(double[] keys, int[] order, int lo, int hi) {
+        int n = hi - lo + 1;
+        for (int i = n / 2 - 1; i >= 0; i--)
+            siftDown(keys, order, lo, i, n);
+        for (int end = n - 1; end > 0; end--) {
+            int last = order[lo + end];
+            order[lo + end] = order[lo];
+            order[lo] = last;
+            siftDown(keys, order, lo, 0, end);
+        }
+    }
+
+    /**
+     * Sift-down in a heap whose root is the position ranking last.
+     */
+    private static void siftDown(double[] keys, int[] order, int lo, int i, int n) {
+        int item = order[lo + i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= n)
+                break;
+            if (child + 1 < n && before(keys, order[lo + child], order[lo + child + 1]))
+                child++;
+            if (!before(keys, item, order[lo + child]))
+                break;
+            order[lo + i] = order[lo + child];
+            i = child;
+        }
+        order[lo + i] = item;
+    }
+}
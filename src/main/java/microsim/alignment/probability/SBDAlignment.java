@@ -1,11 +1,11 @@
 package microsim.alignment.probability;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 import java.util.function.Predicate;
 
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
 import microsim.engine.SimulationEngine;
 
 public class SBDAlignment<T> extends AbstractProbabilityAlignment<T> {
@@ -17,35 +17,25 @@ public class SBDAlignment<T> extends AbstractProbabilityAlignment<T> {
             throw new IllegalArgumentException("target probability must lie in [0,1]");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
 
         int n = list.size();
 
-        Map<T, Double> map = new HashMap<T, Double>();
+        double[] prob = getParallelProbabilities(list, closure);
+        double[] keys = new double[n];
         for (int i = 0; i < n; i++) {
-            T agent = list.get(i);
-            double p = closure.getProbability(agent);
+            double p = prob != null ? prob[i] : closure.getProbability(list.get(i));
             double r = SimulationEngine.getRnd().nextDouble();
-            map.put(agent, p - r);
-        }
-        map = sortByComparator(map, false); // true for ascending order. //Returns a LinkedHashMap, that maintains the
-                                            // order of insertion.
-
-        int i = 0;
-        for (T agent : map.keySet()) {
-
-            if (i <= targetShare * n) {
-                closure.align(agent, 1.0);
-            } else {
-                closure.align(agent, 0.0);
-            }
-            i++;
+            keys[i] = p - r;
         }
+        int k = RankSelection.selectedCount(targetShare, n);
+        RankSelection.alignLargest(list, keys, k, closure);
 
+        if (probe != null)
+            probe.publish(n, targetShare * n, k);
     }
 
 }
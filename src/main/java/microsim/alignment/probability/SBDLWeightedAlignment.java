@@ -0,0 +1,70 @@
+package microsim.alignment.probability;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Predicate;
+
+import microsim.agent.Weight;
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
+import microsim.engine.SimulationEngine;
+
+/**
+ * Sort By Difference with Logistic adjustment (SBDL) alignment for agents who
+ * implement the Weight interface, so that the weight of each agent represents
+ * the number of individuals it represents, e.g. in a grossed-up survey
+ * population. If the agents do not implement the Weight interface, use the
+ * SBDLAlignment class instead.
+ * <p>
+ * The agents are ranked by the same random-perturbed key as in SBDLAlignment,
+ * and the positive outcome is given to the agents in rank order until their
+ * total weight reaches the weighted target; the agent crossing the target
+ * receives it if that brings the total weight closer to the target. The
+ * boundary is found by a weighted selection in O(n) expected time, without
+ * sorting the agents or resampling them. With unit weights, the number of
+ * agents receiving the positive outcome is the target number rounded to the
+ * nearest integer.
+ *
+ * @param <T> agent type.
+ */
+public class SBDLWeightedAlignment<T extends Weight> extends AbstractProbabilityAlignment<T> {
+
+    @Override
+    public void align(Collection<T> agents, Predicate<T> filter, AlignmentProbabilityClosure<T> closure,
+            double targetShare) {
+        if (targetShare < 0. || targetShare > 1.) {
+            throw new IllegalArgumentException("target probability must lie in [0,1]");
+        }
+
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
+
+        List<T> list = IndexView.filtered(agents, filter);
+
+        int n = list.size();
+        double total = 0.;
+        double[] weights = new double[n];
+        for (int i = 0; i < n; i++) {
+            double weight = list.get(i).getWeight();
+            if (weight <= 0.) {
+                throw new IllegalArgumentException("Weight cannot be zero or negative in SBDLWeightedAlignment!");
+            }
+            weights[i] = weight;
+            total += weight;
+        }
+        double target = targetShare * total;
+
+        double[] prob = getParallelProbabilities(list, closure);
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            double p = prob != null ? prob[i] : closure.getProbability(list.get(i));
+            double r = SimulationEngine.getRnd().nextDouble();
+            keys[i] = Math.log(1 / r - 1) + Math.log(p / (1 - p));
+        }
+        double selected = RankSelection.alignLargestWeighted(list, keys, weights, target, closure);
+
+        if (probe != null)
+            probe.publish(n, target, selected);
+    }
+
+}
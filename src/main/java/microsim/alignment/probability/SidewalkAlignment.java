@@ -1,10 +1,11 @@
 package microsim.alignment.probability;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.List;
 import java.util.function.Predicate;
 
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.IndexView;
 import microsim.engine.SimulationEngine;
 
 public class SidewalkAlignment<T> extends AbstractProbabilityAlignment<T> {
@@ -16,15 +17,16 @@ public class SidewalkAlignment<T> extends AbstractProbabilityAlignment<T> {
             throw new IllegalArgumentException("target probability must lie in [0,1]");
         }
 
-        var list = new ArrayList<T>();
-        if (filter != null)
-            agents.stream().filter(filter).forEachOrdered(list::add);
-        else
-            list.addAll(agents);
+        AlignmentDiagnostics.Probe probe = AlignmentDiagnostics.start(this);
+        closure = timed(closure, probe);
 
-        Collections.shuffle(list, SimulationEngine.getRnd());
+        List<T> list = IndexView.filtered(agents, filter);
+
+        list = IndexView.shuffled(list, SimulationEngine.getRnd());
         int n = list.size();
+        double[] prob = getParallelProbabilities(list, closure);
         double sum = 0;
+        int selected = 0;
 
         for (int i = 0; i < n; i++) {
             T agent = list.get(i);
@@ -32,17 +34,20 @@ public class SidewalkAlignment<T> extends AbstractProbabilityAlignment<T> {
             int oldSum = (int) sum;
 
             // update cumulated probability
-            sum += closure.getProbability(agent);
+            sum += prob != null ? prob[i] : closure.getProbability(agent);
 
             // set individual probability to 1 if there is a change of the integer part of
             // the cumulated probability, 0 otherwise
             if ((int) sum != oldSum) {
                 closure.align(agent, 1.0);
+                selected++;
             } else {
                 closure.align(agent, 0.0);
             }
         }
 
+        if (probe != null)
+            probe.publish(n, targetShare * n, selected);
     }
 
 }
@@ -16,4 +16,12 @@ public @interface CoefficientMapping {
     public String[] keys();
 
     public String[] values();
+
+    /**
+     * Key fields whose values are the lower bounds of bands (e.g. age bands)
+     * rather than exact-match keys.
+     *
+     * @see microsim.data.MultiKeyCoefficientMap#setRangeKeys(String...)
+     */
+    public String[] rangeKeys() default {};
 }
@@ -0,0 +1,184 @@
+package microsim.data;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writer handing text over to a shared pool of background threads through a
+ * bounded queue.
+ * <p>
+ * {@link #write(CharSequence)} returns as soon as the text is queued, and
+ * blocks only when the queue is full, i.e. when the disk cannot keep up with
+ * the simulation. The queue of a writer is drained by one task of the executor
+ * at a time, so its text is written in order, and in turns of at most one
+ * queue's worth of items, so that writers sharing a small pool all progress.
+ * Writing errors are reported by the next call to {@link #write(CharSequence)},
+ * {@link #flush()} or {@link #close()}. Writers that are still open when the
+ * JVM exits are flushed and closed by a shutdown hook, so no output is lost if
+ * a model does not close its exporters.
+ */
+final class AsyncWriter implements Flushable, Closeable {
+
+    private static final Set<AsyncWriter> open = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (AsyncWriter writer : open) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "AsyncWriter shutdown"));
+    }
+
+    private static final Object CLOSE = new Object();
+
+    private final Writer out;
+    private final String name;
+    private final Executor executor;
+    private final BlockingQueue<Object> queue;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile IOException failure;
+    private volatile boolean closed;
+
+    /**
+     * @param out      the writer that the background tasks write to; it is
+     *                 closed by {@link #close()}.
+     * @param capacity the maximum number of chunks of text waiting to be written.
+     * @param name     the name of the writer, used in error messages.
+     * @param executor the executor running the background tasks; its threads
+     *                 should be daemons.
+     */
+    AsyncWriter(Writer out, int capacity, String name, Executor executor) {
+        this.out = out;
+        this.name = name;
+        this.executor = executor;
+        queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        open.add(this);
+    }
+
+    /**
+     * @return the number of writers that have not been closed.
+     */
+    static int openCount() {
+        return open.size();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true))
+            executor.execute(this::drain);
+    }
+
+    private void drain() {
+        try {
+            for (int n = queue.remainingCapacity() + queue.size(); n > 0; n--) {
+                Object item = queue.poll();
+                if (item == null)
+                    break;
+                process(item);
+            }
+        } finally {
+            scheduled.set(false);
+            if (!queue.isEmpty())
+                schedule();
+        }
+    }
+
+    private void process(Object item) {
+        try {
+            if (item == CLOSE) {
+                out.close();
+                done.countDown();
+            } else if (item instanceof CountDownLatch barrier) {
+                out.flush();
+                barrier.countDown();
+            } else if (failure == null) {
+                out.write((String) item);
+                if (queue.isEmpty())
+                    out.flush();
+            }
+        } catch (IOException e) {
+            if (failure == null)
+                failure = e;
+            if (item instanceof CountDownLatch barrier)
+                barrier.countDown();
+            else if (item == CLOSE)
+                done.countDown();
+        }
+    }
+
+    /**
+     * Queues text for writing, waiting if the queue is full.
+     */
+    void write(CharSequence text) throws IOException {
+        check();
+        if (closed)
+            throw new IOException("Writer " + name + " is closed");
+        put(text.toString());
+    }
+
+    /**
+     * Waits until all the text queued so far has been written and flushed.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (!closed) {
+            var barrier = new CountDownLatch(1);
+            put(barrier);
+            await(barrier, "flushing");
+        }
+        check();
+    }
+
+    /**
+     * Writes the queued text, then closes the underlying writer.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!closed) {
+            closed = true;
+            open.remove(this);
+            put(CLOSE);
+        }
+        await(done, "closing");
+        check();
+    }
+
+    private void put(Object item) throws IOException {
+        try {
+            queue.put(item);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing to " + name);
+        }
+        schedule();
+    }
+
+    private void await(CountDownLatch latch, String action) throws IOException {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while " + action + " " + name);
+        }
+    }
+
+    private void check() throws IOException {
+        IOException e = failure;
+        if (e != null)
+            throw new IOException("Background write to " + name + " failed: " + e.getMessage(), e);
+    }
+}
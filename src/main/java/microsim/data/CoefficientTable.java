@@ -0,0 +1,322 @@
+package microsim.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only, primitive view of a {@link MultiKeyCoefficientMap}, for lookups
+ * on hot paths.
+ * <p>
+ * The distinct values of each key column are interned into dense integer codes
+ * and the numeric values of the table are stored in a single {@code double[]},
+ * addressed by the codes of the keys and the index of the value column. Once
+ * the codes have been resolved (typically once, when a model is built),
+ * lookups such as {@link #get(int, int, int)} neither allocate nor hash.
+ * <p>
+ * Codes of a key column follow the natural order of its values when they are
+ * all of the same {@link Comparable} type (e.g. ages, years), and the order of
+ * first appearance otherwise. Numeric values are stored as doubles, booleans
+ * as 1 or 0; combinations of keys that are absent from the map, and null
+ * values, read as {@link Double#NaN}.
+ * <p>
+ * Range key columns of the map (see {@link MultiKeyCoefficientMap}) keep their
+ * bands in increasing order, and {@link #code(int, double)} maps a value to the
+ * code of its band by binary search.
+ *
+ * @see MultiKeyCoefficientMap#toCoefficientTable()
+ */
+public class CoefficientTable {
+
+    private static final int MAX_SIZE = 1 << 27;
+
+    private final String[] keyNames;
+    private final String[] valueNames;
+    private final Object[][] keyValues;
+    private final List<Map<Object, Integer>> codes;
+    private final double[][] rangeBounds;
+    private final int[] strides;
+    private final int numColumns;
+    private final double[] values;
+
+    /**
+     * Builds a table from the content of a coefficient map.
+     *
+     * @param map the map to convert; it is not referenced by the table.
+     * @throws IllegalArgumentException if a value is neither numeric, boolean nor
+     *                                  null, or if the dense table would be too
+     *                                  large.
+     */
+    public CoefficientTable(MultiKeyCoefficientMap map) {
+        keyNames = map.getKeysNames();
+        valueNames = map.getValuesNames();
+        numColumns = valueNames.length;
+        int numKeys = keyNames.length;
+
+        // intern key values
+        List<List<Object>> distinct = new ArrayList<>();
+        for (int k = 0; k < numKeys; k++)
+            distinct.add(new ArrayList<>());
+        codes = new ArrayList<>(numKeys);
+        for (int k = 0; k < numKeys; k++)
+            codes.add(new HashMap<>());
+        for (var multiKey : map.keySet()) {
+            for (int k = 0; k < numKeys; k++) {
+                Object key = multiKey.getKey(k);
+                if (!codes.get(k).containsKey(key)) {
+                    codes.get(k).put(key, codes.get(k).size());
+                    distinct.get(k).add(key);
+                }
+            }
+        }
+        keyValues = new Object[numKeys][];
+        rangeBounds = new double[numKeys][];
+        for (int k = 0; k < numKeys; k++) {
+            Object[] column = distinct.get(k).toArray();
+            if (map.isRangeKey(k)) {
+                Arrays.sort(column, (a, b) -> Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue()));
+                rangeBounds[k] = new double[column.length];
+                for (int i = 0; i < column.length; i++)
+                    rangeBounds[k][i] = ((Number) column[i]).doubleValue();
+            } else
+                sortIfComparable(column);
+            keyValues[k] = column;
+            codes.get(k).clear();
+            for (int i = 0; i < column.length; i++)
+                codes.get(k).put(column[i], i);
+        }
+
+        // dense storage, last key varying fastest, value columns innermost
+        strides = new int[numKeys];
+        long size = numColumns;
+        for (int k = numKeys - 1; k >= 0; k--) {
+            strides[k] = (int) size;
+            size *= Math.max(1, keyValues[k].length);
+            if (size > MAX_SIZE)
+                throw new IllegalArgumentException("Coefficient map with keys " + Arrays.toString(keyNames)
+                        + " is too sparse to be converted into a dense coefficient table");
+        }
+        values = new double[(int) size];
+        Arrays.fill(values, Double.NaN);
+
+        for (var iterator = map.mapIterator(); iterator.hasNext();) {
+            iterator.next();
+            var multiKey = iterator.getKey();
+            int offset = 0;
+            for (int k = 0; k < numKeys; k++)
+                offset += codes.get(k).get(multiKey.getKey(k)) * strides[k];
+            Object value = iterator.getValue();
+            if (value instanceof Object[] vector) {
+                for (int c = 0; c < numColumns && c < vector.length; c++)
+                    values[offset + c] = toDouble(vector[c]);
+            } else {
+                values[offset] = toDouble(value);
+            }
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static void sortIfComparable(Object[] column) {
+        if (column.length == 0 || !(column[0] instanceof Comparable))
+            return;
+        Class<?> type = column[0].getClass();
+        for (Object value : column)
+            if (value == null || value.getClass() != type)
+                return;
+        Arrays.sort(column, (a, b) -> ((Comparable) a).compareTo(b));
+    }
+
+    private static double toDouble(Object value) {
+        if (value == null)
+            return Double.NaN;
+        if (value instanceof Number number)
+            return number.doubleValue();
+        if (value instanceof Boolean bool)
+            return bool ? 1.0 : 0.0;
+        throw new IllegalArgumentException("Coefficient table values must be numeric, found " + value);
+    }
+
+    /**
+     * @return a clone of the names of the key columns.
+     */
+    public String[] getKeysNames() {
+        return keyNames.clone();
+    }
+
+    /**
+     * @return a clone of the names of the value columns.
+     */
+    public String[] getValuesNames() {
+        return valueNames.clone();
+    }
+
+    /**
+     * @param keyColumn the index of a key column.
+     * @return the number of distinct values of the key column.
+     */
+    public int getCardinality(int keyColumn) {
+        return keyValues[keyColumn].length;
+    }
+
+    /**
+     * @param keyColumn the index of a key column.
+     * @param code      a code of the key column.
+     * @return the key value that the code stands for.
+     */
+    public Object getKey(int keyColumn, int code) {
+        return keyValues[keyColumn][code];
+    }
+
+    /**
+     * Resolves a key value into its code. Keys are matched as in the
+     * {@link MultiKeyCoefficientMap} the table was built from, i.e. with
+     * {@code equals}.
+     *
+     * @param keyColumn the index of a key column.
+     * @param key       the key value.
+     * @return the code of the key, or -1 if the key is absent from the column.
+     */
+    public int code(int keyColumn, Object key) {
+        if (rangeBounds[keyColumn] != null && key instanceof Number number)
+            return code(keyColumn, number.doubleValue());
+        Integer code = codes.get(keyColumn).get(key);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * Resolves a numeric value into a code without allocating. For a range key
+     * column, the code is that of the band containing the value.
+     *
+     * @param keyColumn the index of a key column.
+     * @param value     the value.
+     * @return the code, or -1 if the value is below the lowest band or, for an
+     *         exact-match column, absent.
+     */
+    public int code(int keyColumn, double value) {
+        double[] bounds = rangeBounds[keyColumn];
+        if (bounds == null) {
+            Object[] column = keyValues[keyColumn];
+            for (int i = 0; i < column.length; i++)
+                if (column[i] instanceof Number number && number.doubleValue() == value)
+                    return i;
+            return -1;
+        }
+        int i = Arrays.binarySearch(bounds, value);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * @param keyColumn the index of a key column.
+     * @return true if the column is range-keyed.
+     */
+    public boolean isRangeKey(int keyColumn) {
+        return rangeBounds[keyColumn] != null;
+    }
+
+    /**
+     * @param keyName the name of a key column.
+     * @return the index of the key column, or -1 if there is no such column.
+     */
+    public int keyColumn(String keyName) {
+        for (int k = 0; k < keyNames.length; k++)
+            if (keyNames[k].equals(keyName))
+                return k;
+        return -1;
+    }
+
+    /**
+     * @param valueName the name of a value column.
+     * @return the index of the value column, or -1 if there is no such column.
+     */
+    public int column(String valueName) {
+        for (int c = 0; c < valueNames.length; c++)
+            if (valueNames[c].equals(valueName))
+                return c;
+        return -1;
+    }
+
+    /**
+     * Lookup in a table with one key; the overloads with more codes are for
+     * tables with as many keys.
+     *
+     * @param code0  the code of the key, as returned by {@link #code}.
+     * @param column the index of the value column.
+     * @return the value, or NaN if a code is -1 (absent key) or the combination
+     *         of keys is absent.
+     * @throws IllegalArgumentException if the table has a different number of
+     *                                  keys, or a code or the column is out of
+     *                                  range.
+     */
+    public double get(int code0, int column) {
+        checkArity(1);
+        if (code0 < 0)
+            return Double.NaN;
+        return values[offset(0, code0) + checkColumn(column)];
+    }
+
+    public double get(int code0, int code1, int column) {
+        checkArity(2);
+        if ((code0 | code1) < 0)
+            return Double.NaN;
+        return values[offset(0, code0) + offset(1, code1) + checkColumn(column)];
+    }
+
+    public double get(int code0, int code1, int code2, int column) {
+        checkArity(3);
+        if ((code0 | code1 | code2) < 0)
+            return Double.NaN;
+        return values[offset(0, code0) + offset(1, code1) + offset(2, code2) + checkColumn(column)];
+    }
+
+    public double get(int code0, int code1, int code2, int code3, int column) {
+        checkArity(4);
+        if ((code0 | code1 | code2 | code3) < 0)
+            return Double.NaN;
+        return values[offset(0, code0) + offset(1, code1) + offset(2, code2) + offset(3, code3)
+                + checkColumn(column)];
+    }
+
+    /**
+     * General lookup, for tables with any number of keys.
+     *
+     * @param keyCodes the codes of all the keys, in column order.
+     * @param column   the index of the value column.
+     * @return the value, or NaN if a code is -1 (absent key) or the combination
+     *         of keys is absent.
+     * @throws IllegalArgumentException if the number of codes is not the number
+     *                                  of keys, or a code or the column is out
+     *                                  of range.
+     */
+    public double get(int[] keyCodes, int column) {
+        checkArity(keyCodes.length);
+        int offset = checkColumn(column);
+        for (int k = 0; k < strides.length; k++) {
+            if (keyCodes[k] < 0)
+                return Double.NaN;
+            offset += offset(k, keyCodes[k]);
+        }
+        return values[offset];
+    }
+
+    private void checkArity(int numCodes) {
+        if (numCodes != strides.length)
+            throw new IllegalArgumentException("Coefficient table with keys " + Arrays.toString(keyNames)
+                    + " cannot be looked up with " + numCodes + " key codes");
+    }
+
+    private int offset(int keyColumn, int code) {
+        if (code >= keyValues[keyColumn].length)
+            throw new IllegalArgumentException(
+                    "Code " + code + " is out of range for key column " + keyNames[keyColumn]);
+        return code * strides[keyColumn];
+    }
+
+    private int checkColumn(int column) {
+        if (column < 0 || column >= numColumns)
+            throw new IllegalArgumentException("Value column " + column + " is out of range for coefficient table "
+                    + "with values " + Arrays.toString(valueNames));
+        return column;
+    }
+}
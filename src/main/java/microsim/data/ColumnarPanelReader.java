@@ -0,0 +1,477 @@
+package microsim.data;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads back the files written by {@link ExportColumnar}, one row group (i.e.
+ * one export) at a time.
+ * <p>
+ * {@link #nextRowGroup()} reads the (possibly compressed) column blocks of the
+ * next row group without decoding them; columns are decoded on request, so
+ * that reading a few columns of a wide file costs little more than reading
+ * the file.
+ * <p>
+ * Files written in delta mode (see {@link ExportColumnar#delta}) mix complete
+ * row groups, which start each run, and delta row groups ({@link #isDelta()}),
+ * which only hold the objects added or changed since the previous row group
+ * and list the ids of the removed ones ({@link #getRemovedIds()}).
+ * {@link #updateCrossSection(Map)} applies either kind to a cross-section.
+ *
+ * <pre>{@code
+ * try (var reader = new ColumnarPanelReader(new File("output/bin/Person.jcol"))) {
+ *     int age = reader.getColumnIndex("age");
+ *     while (reader.nextRowGroup()) {
+ *         long[] ids = reader.getIds();
+ *         long[] ages = reader.getLongs(age);
+ *         ...
+ *     }
+ * }
+ * }</pre>
+ */
+public class ColumnarPanelReader implements Closeable {
+
+    /** Type of the values of a column. */
+    public enum ColumnType {
+        /** Booleans, read with {@link ColumnarPanelReader#getBooleans(int)}. */
+        BOOLEAN,
+        /**
+         * Integral numbers and characters, read with
+         * {@link ColumnarPanelReader#getLongs(int)}.
+         */
+        LONG,
+        /** Floats, read with {@link ColumnarPanelReader#getDoubles(int)}. */
+        FLOAT,
+        /** Doubles, read with {@link ColumnarPanelReader#getDoubles(int)}. */
+        DOUBLE,
+        /**
+         * Enums (by name), strings and other numbers, read with
+         * {@link ColumnarPanelReader#getStrings(int)}.
+         */
+        STRING
+    }
+
+    private final DataInputStream in;
+    private final String className;
+    private final List<String> names;
+    private final ColumnType[] types;
+    private final boolean[] nullable;
+    private final Inflater inflater = new Inflater();
+
+    // current row group
+    private int rowCount = -1;
+    private boolean delta;
+    private long run;
+    private double time;
+    private final byte[][] blocks;
+    private final int[] blockLengths;
+    private final int[] rawLengths;
+    private final boolean[] deflated;
+
+    /**
+     * Opens a file and reads its schema.
+     *
+     * @throws IOException if the file cannot be read or was not written by
+     *                     {@link ExportColumnar}.
+     */
+    public ColumnarPanelReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != ExportColumnar.MAGIC)
+                throw new IOException(file + " is not a columnar export file");
+            int version = in.readInt();
+            if (version != ExportColumnar.VERSION)
+                throw new IOException("Unsupported version " + version + " of columnar export file " + file);
+            className = in.readUTF();
+            int numColumns = in.readInt();
+            var columnNames = new ArrayList<String>(numColumns);
+            types = new ColumnType[numColumns];
+            nullable = new boolean[numColumns];
+            for (int c = 0; c < numColumns; c++) {
+                columnNames.add(in.readUTF());
+                types[c] = ColumnType.values()[in.readByte()];
+                nullable[c] = in.readBoolean();
+            }
+            names = Collections.unmodifiableList(columnNames);
+        } catch (IOException | RuntimeException e) {
+            in.close();
+            throw e;
+        }
+        // columns, then ids, then removed ids (delta row groups only)
+        blocks = new byte[types.length + 2][];
+        blockLengths = new int[types.length + 2];
+        rawLengths = new int[types.length + 2];
+        deflated = new boolean[types.length + 2];
+    }
+
+    /**
+     * @return the name of the class of the exported objects.
+     */
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * @return the names of the columns, in column order (the id is not a column).
+     */
+    public List<String> getColumnNames() {
+        return names;
+    }
+
+    /**
+     * @return the index of the column, or -1 if there is no such column.
+     */
+    public int getColumnIndex(String name) {
+        return names.indexOf(name);
+    }
+
+    public ColumnType getColumnType(int column) {
+        return types[column];
+    }
+
+    /**
+     * @return true if the column holds a boxed field, whose values can be null.
+     */
+    public boolean isNullable(int column) {
+        return nullable[column];
+    }
+
+    /**
+     * Moves to the next row group.
+     *
+     * @return false at the end of the file.
+     */
+    public boolean nextRowGroup() throws IOException {
+        int marker;
+        try {
+            marker = in.readInt();
+        } catch (EOFException e) {
+            rowCount = -1;
+            return false;
+        }
+        if (marker != ExportColumnar.ROW_GROUP && marker != ExportColumnar.DELTA_GROUP)
+            throw new IOException("Corrupted columnar export file");
+        delta = marker == ExportColumnar.DELTA_GROUP;
+        rowCount = in.readInt();
+        run = in.readLong();
+        time = in.readDouble();
+        int numBlocks = delta ? blocks.length : blocks.length - 1;
+        for (int c = 0; c < numBlocks; c++) {
+            byte encoding = in.readByte();
+            rawLengths[c] = in.readInt();
+            int length = in.readInt();
+            if (blocks[c] == null || blocks[c].length < length)
+                blocks[c] = new byte[length];
+            in.readFully(blocks[c], 0, length);
+            blockLengths[c] = length;
+            deflated[c] = encoding == ExportColumnar.DEFLATED;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of rows of the current row group.
+     */
+    public int getRowCount() {
+        checkRowGroup();
+        return rowCount;
+    }
+
+    public long getRun() {
+        checkRowGroup();
+        return run;
+    }
+
+    public double getTime() {
+        checkRowGroup();
+        return time;
+    }
+
+    /**
+     * @return true if the current row group only holds the changes since the
+     *         previous row group of the run.
+     */
+    public boolean isDelta() {
+        checkRowGroup();
+        return delta;
+    }
+
+    /**
+     * @return the ids of the rows of the current row group.
+     */
+    public long[] getIds() throws IOException {
+        return decodeIds(decoder(types.length), rowCount);
+    }
+
+    /**
+     * @return for a delta row group, the sorted ids of the objects exported in
+     *         the previous row group and no longer exported; an empty array for
+     *         a complete row group.
+     */
+    public long[] getRemovedIds() throws IOException {
+        checkRowGroup();
+        if (!delta)
+            return new long[0];
+        Decoder decoder = decoder(types.length + 1);
+        int count = 0;
+        while (decoder.position < rawLengths[types.length + 1]) { // count the varints
+            if ((decoder.next() & 0x80) == 0)
+                count++;
+        }
+        return decodeIds(decoder(types.length + 1), count);
+    }
+
+    private static long[] decodeIds(Decoder decoder, int count) {
+        long[] ids = new long[count];
+        long previous = 0;
+        for (int r = 0; r < count; r++)
+            ids[r] = previous += ExportColumnar.unzigzag(decoder.varLong());
+        return ids;
+    }
+
+    /**
+     * Applies the current row group to a cross-section: a complete row group
+     * replaces its content, while a delta row group removes the removed ids and
+     * adds or replaces the rows it holds. Replaying the row groups of a run in
+     * order thus yields the full cross-section at each time.
+     *
+     * @param crossSection the values of the rows by id, each row holding the
+     *                     values of the columns in column order ({@link Boolean},
+     *                     {@link Long}, {@link Float}, {@link Double} or
+     *                     {@link String}, or null).
+     * @return the cross-section.
+     */
+    public Map<Long, Object[]> updateCrossSection(Map<Long, Object[]> crossSection) throws IOException {
+        checkRowGroup();
+        if (delta) {
+            for (long id : getRemovedIds())
+                crossSection.remove(id);
+        } else
+            crossSection.clear();
+
+        long[] ids = getIds();
+        Object[][] rows = new Object[rowCount][types.length];
+        for (int c = 0; c < types.length; c++) {
+            boolean[] nulls = getNulls(c);
+            switch (types[c]) {
+                case BOOLEAN -> {
+                    boolean[] values = getBooleans(c);
+                    for (int r = 0; r < rowCount; r++)
+                        rows[r][c] = values[r];
+                }
+                case LONG -> {
+                    long[] values = getLongs(c);
+                    for (int r = 0; r < rowCount; r++)
+                        rows[r][c] = values[r];
+                }
+                case FLOAT -> {
+                    double[] values = getDoubles(c);
+                    for (int r = 0; r < rowCount; r++)
+                        rows[r][c] = (float) values[r];
+                }
+                case DOUBLE -> {
+                    double[] values = getDoubles(c);
+                    for (int r = 0; r < rowCount; r++)
+                        rows[r][c] = values[r];
+                }
+                case STRING -> {
+                    String[] values = getStrings(c);
+                    for (int r = 0; r < rowCount; r++)
+                        rows[r][c] = values[r];
+                }
+            }
+            if (nulls != null)
+                for (int r = 0; r < rowCount; r++)
+                    if (nulls[r])
+                        rows[r][c] = null;
+        }
+        for (int r = 0; r < rowCount; r++)
+            crossSection.put(ids[r], rows[r]);
+        return crossSection;
+    }
+
+    /**
+     * @return for a nullable column, whether each row of the current row group
+     *         is null, or null if no row is.
+     */
+    public boolean[] getNulls(int column) throws IOException {
+        Decoder decoder = decoder(column);
+        return nullable[column] ? decoder.nulls(rowCount) : null;
+    }
+
+    /**
+     * @return the values of a {@link ColumnType#BOOLEAN} column; null rows read
+     *         as false.
+     */
+    public boolean[] getBooleans(int column) throws IOException {
+        checkType(column, ColumnType.BOOLEAN);
+        Decoder decoder = decoder(column);
+        boolean[] nulls = nullable[column] ? decoder.nulls(rowCount) : null;
+        boolean[] values = new boolean[rowCount];
+        int bit = 0;
+        int bits = 0;
+        for (int r = 0; r < rowCount; r++) {
+            if (nulls != null && nulls[r])
+                continue;
+            if ((bit & 7) == 0)
+                bits = decoder.next();
+            values[r] = (bits & (1 << (bit & 7))) != 0;
+            bit++;
+        }
+        return values;
+    }
+
+    /**
+     * @return the values of a {@link ColumnType#LONG} column; null rows read as
+     *         0.
+     */
+    public long[] getLongs(int column) throws IOException {
+        checkType(column, ColumnType.LONG);
+        Decoder decoder = decoder(column);
+        boolean[] nulls = nullable[column] ? decoder.nulls(rowCount) : null;
+        long[] values = new long[rowCount];
+        for (int r = 0; r < rowCount; r++)
+            if (nulls == null || !nulls[r])
+                values[r] = ExportColumnar.unzigzag(decoder.varLong());
+        return values;
+    }
+
+    /**
+     * @return the values of a {@link ColumnType#FLOAT} or
+     *         {@link ColumnType#DOUBLE} column; null rows read as NaN.
+     */
+    public double[] getDoubles(int column) throws IOException {
+        boolean isFloat = types[column] == ColumnType.FLOAT;
+        if (!isFloat)
+            checkType(column, ColumnType.DOUBLE);
+        Decoder decoder = decoder(column);
+        boolean[] nulls = nullable[column] ? decoder.nulls(rowCount) : null;
+        double[] values = new double[rowCount];
+        for (int r = 0; r < rowCount; r++) {
+            if (nulls != null && nulls[r])
+                values[r] = Double.NaN;
+            else if (isFloat)
+                values[r] = Float.intBitsToFloat(decoder.int32());
+            else
+                values[r] = Double.longBitsToDouble(decoder.int64());
+        }
+        return values;
+    }
+
+    /**
+     * @return the values of a {@link ColumnType#STRING} column, sharing one
+     *         instance per distinct value; null rows read as null.
+     */
+    public String[] getStrings(int column) throws IOException {
+        checkType(column, ColumnType.STRING);
+        Decoder decoder = decoder(column);
+        boolean[] nulls = nullable[column] ? decoder.nulls(rowCount) : null;
+        String[] dictionary = new String[(int) decoder.varLong()];
+        for (int i = 0; i < dictionary.length; i++) {
+            int length = (int) decoder.varLong();
+            dictionary[i] = new String(decoder.data, decoder.position, length, StandardCharsets.UTF_8);
+            decoder.position += length;
+        }
+        String[] values = new String[rowCount];
+        for (int r = 0; r < rowCount; r++)
+            if (nulls == null || !nulls[r])
+                values[r] = dictionary[(int) decoder.varLong()];
+        return values;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    private void checkRowGroup() {
+        if (rowCount < 0)
+            throw new IllegalStateException("No current row group, call nextRowGroup() first");
+    }
+
+    private void checkType(int column, ColumnType type) {
+        if (types[column] != type)
+            throw new IllegalArgumentException(
+                    "Column " + names.get(column) + " is of type " + types[column] + ", not " + type);
+    }
+
+    private Decoder decoder(int column) throws IOException {
+        checkRowGroup();
+        if (!deflated[column])
+            return new Decoder(blocks[column]);
+        byte[] raw = new byte[rawLengths[column]];
+        inflater.reset();
+        inflater.setInput(blocks[column], 0, blockLengths[column]);
+        try {
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, raw.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += n;
+            }
+            if (length < raw.length)
+                throw new IOException("Truncated column " + names.get(column) + " in columnar export file");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted column " + names.get(column) + " in columnar export file", e);
+        }
+        return new Decoder(raw);
+    }
+
+    /**
+     * Cursor over the bytes of a column block.
+     */
+    private static final class Decoder {
+        final byte[] data;
+        int position;
+
+        Decoder(byte[] data) {
+            this.data = data;
+        }
+
+        int next() {
+            return data[position++] & 0xFF;
+        }
+
+        boolean[] nulls(int rows) {
+            if (next() == 0)
+                return null;
+            boolean[] nulls = new boolean[rows];
+            for (int r = 0; r < rows; r++)
+                nulls[r] = (data[position + (r >> 3)] & (1 << (r & 7))) == 0;
+            position += (rows + 7) >> 3;
+            return nulls;
+        }
+
+        long varLong() {
+            long value = 0;
+            for (int shift = 0;; shift += 7) {
+                int b = next();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return value;
+            }
+        }
+
+        int int32() {
+            return (next() << 24) | (next() << 16) | (next() << 8) | next();
+        }
+
+        long int64() {
+            return ((long) int32() << 32) | (int32() & 0xFFFFFFFFL);
+        }
+    }
+}
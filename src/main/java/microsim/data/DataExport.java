@@ -1,24 +1,92 @@
 package microsim.data;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import microsim.data.db.DatabaseUtils;
+import microsim.engine.EngineListener;
+import microsim.engine.SimulationEngine;
+import microsim.event.SystemEventType;
 
 /**
  * DataExport is a class that handles the exporting to data to an output
- * database and/or .csv files. Note that only numbers, enums
- * or strings are exported to .csv files.
+ * database, .csv files and/or columnar binary files (see
+ * {@link ExportColumnar}). Note that only numbers, enums
+ * or strings are exported to .csv and columnar files.
+ * <p>
+ * When {@link #asynchronous} is set, {@link #export()} only copies the exported
+ * fields into a reusable columnar snapshot, consistent with the current
+ * simulation time, and the .csv and columnar files are written from the
+ * snapshot by background writer threads. The simulation waits only when all
+ * the {@link #snapshotBuffers} snapshots of an exporter are still being
+ * written. Database exports, whose mapping is managed by Hibernate from the
+ * entities themselves, remain synchronous.
+ * <p>
+ * Whether or not they are asynchronous, the .csv and columnar files of all the
+ * DataExport objects are flushed and closed when the simulation ends (on
+ * {@link SystemEventType#End}), and can be flushed at any time with
+ * {@link #flush()}.
  * 
  * @author Ross Richardson
  *
  */
 public class DataExport {
 
+    /**
+     * Whether collections are exported to the output database with JDBC batch
+     * inserts (see {@link DatabaseUtils#bulkSnap(Collection)}) rather than by
+     * merging each entity. Set to false if the same entities may be exported
+     * more than once at the same simulation time.
+     */
+    public static boolean bulkDatabaseExport = true;
+
+    /**
+     * Whether DataExport objects created from now on write their .csv and
+     * columnar files in the background.
+     */
+    public static boolean asynchronous = false;
+
+    /**
+     * Number of snapshots of an asynchronous DataExport that can be captured
+     * while previous ones are being written.
+     */
+    public static int snapshotBuffers = 2;
+
+    /**
+     * Number of background threads writing snapshots, shared by all the
+     * asynchronous DataExport objects.
+     */
+    public static int writerThreads = 2;
+
+    private static ExecutorService writers;
+    private static final Set<DataExport> fileExports = Collections
+            .synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private static final EngineListener endListener = event -> {
+        if (event == SystemEventType.End)
+            closeAll();
+    };
+
     private ExportCSV csvExport;
+    private ExportColumnar columnarExport;
     private boolean toDatabase;
     private boolean toCSV;
+    private boolean toColumnar;
     private Object targetObject;
     private Collection<?> collectionTarget;
+    private boolean registered;
+
+    private BlockingQueue<PanelSnapshot> freeSnapshots; // null if synchronous
+    private volatile CompletableFuture<Void> pending = CompletableFuture.completedFuture(null);
 
     /**
      * Create a DataExport object to handle the exporting of a collection of objects
@@ -34,12 +102,39 @@ public class DataExport {
      *                         targetCollection
      */
     public DataExport(Collection<?> targetCollection, boolean exportToDatabase, boolean exportToCSVfile) {
+        this(targetCollection, exportToDatabase, exportToCSVfile, false);
+    }
+
+    /**
+     * Create a DataExport object to handle the exporting of a collection of objects
+     * to an output database, .csv files and/or columnar binary files.
+     * 
+     * @param targetCollection     - a collection of objects whose fields (including
+     *                             private and inherited) will be exported
+     * @param exportToDatabase     - set to true if the user wants to export to an
+     *                             output database
+     * @param exportToCSVfile      - set to true if the user wants to export to .csv
+     *                             files named after the class name of the
+     *                             targetCollection
+     * @param exportToColumnarFile - set to true if the user wants to export to
+     *                             columnar binary files named after the class name
+     *                             of the targetCollection
+     */
+    public DataExport(Collection<?> targetCollection, boolean exportToDatabase, boolean exportToCSVfile,
+            boolean exportToColumnarFile) {
         this.collectionTarget = targetCollection;
         toDatabase = exportToDatabase;
         toCSV = exportToCSVfile;
+        toColumnar = exportToColumnarFile;
         if (toCSV) {
             csvExport = new ExportCSV(collectionTarget);
         }
+        if (toColumnar) {
+            columnarExport = new ExportColumnar(collectionTarget);
+        }
+        if ((toCSV || toColumnar) && asynchronous) {
+            createSnapshots(collectionTarget.iterator().next());
+        }
     }
 
     /**
@@ -57,27 +152,108 @@ public class DataExport {
      *                           targetCollection
      */
     public DataExport(Object targetSingleObject, boolean exportToDatabase, boolean exportToCSVfile) {
+        this(targetSingleObject, exportToDatabase, exportToCSVfile, false);
+    }
+
+    /**
+     * Create a DataExport object to handle the exporting of an object to an output
+     * database, .csv files and/or columnar binary files.
+     * 
+     * @param targetSingleObject   - an object whose fields (including private and
+     *                             inherited) will be exported
+     * @param exportToDatabase     - set to true if the user wants to export to an
+     *                             output database
+     * @param exportToCSVfile      - set to true if the user wants to export to .csv
+     *                             files named after the class name of the
+     *                             targetCollection
+     * @param exportToColumnarFile - set to true if the user wants to export to
+     *                             columnar binary files named after the class name
+     *                             of the target object
+     */
+    public DataExport(Object targetSingleObject, boolean exportToDatabase, boolean exportToCSVfile,
+            boolean exportToColumnarFile) {
         targetObject = targetSingleObject;
         toDatabase = exportToDatabase;
         toCSV = exportToCSVfile;
+        toColumnar = exportToColumnarFile;
 
         if (toCSV) {
             csvExport = new ExportCSV(targetObject);
         }
+        if (toColumnar) {
+            columnarExport = new ExportColumnar(targetObject);
+        }
+        if ((toCSV || toColumnar) && asynchronous) {
+            createSnapshots(targetObject);
+        }
+    }
+
+    /**
+     * Sets up the reusable snapshots of an asynchronous exporter.
+     *
+     * @param sample - an exported object.
+     */
+    private void createSnapshots(Object sample) {
+        ExportFields layout = ExportFields.of(sample.getClass());
+        int buffers = Math.max(1, snapshotBuffers);
+        freeSnapshots = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            freeSnapshots.add(new PanelSnapshot(layout));
+        }
+    }
+
+    /**
+     * Registers the exporter to be closed at the end of the simulation. This is
+     * done on its first export rather than in the constructors, so that the
+     * object is not published before it is fully constructed.
+     */
+    private void registerFileExport() {
+        registered = true;
+        fileExports.add(this);
+        SimulationEngine engine = SimulationEngine.getInstance();
+        if (!engine.getEngineListeners().contains(endListener)) {
+            engine.addEngineListener(endListener);
+        }
+    }
+
+    private static synchronized ExecutorService getWriters() {
+        if (writers == null) {
+            writers = Executors.newFixedThreadPool(Math.max(1, writerThreads), runnable -> {
+                Thread thread = new Thread(runnable, "DataExport writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writers;
     }
 
     /**
      * Export the values of the fields.
      */
     public void export() {
-        if (toCSV) {
-            csvExport.dumpToCSV();
+        if ((toCSV || toColumnar) && !registered) {
+            registerFileExport();
+        }
+        if (freeSnapshots != null) {
+            exportInBackground();
+        } else {
+            if (toCSV) {
+                csvExport.dumpToCSV();
+            }
+
+            if (toColumnar) {
+                columnarExport.dump();
+            }
         }
 
         if (toDatabase) {
             try {
                 if (collectionTarget != null) {
-                    DatabaseUtils.snap(collectionTarget);
+                    if (bulkDatabaseExport) {
+                        DatabaseUtils.bulkSnap(collectionTarget);
+                    } else {
+                        DatabaseUtils.snap(collectionTarget);
+                    }
                 } else if (targetObject != null) {
                     DatabaseUtils.snap(targetObject);
                 } else
@@ -90,4 +266,96 @@ public class DataExport {
         }
     }
 
+    private void exportInBackground() {
+        PanelSnapshot snapshot;
+        try {
+            snapshot = freeSnapshots.take(); // waits if the writers are behind
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            SimulationEngine engine = SimulationEngine.getInstance();
+            if (collectionTarget != null) {
+                snapshot.capture(collectionTarget, engine.getCurrentRunNumber(), engine.getTime());
+            } else {
+                snapshot.capture(targetObject, engine.getCurrentRunNumber(), engine.getTime());
+            }
+        } catch (RuntimeException e) {
+            snapshot.clear();
+            freeSnapshots.add(snapshot);
+            e.printStackTrace();
+            return;
+        }
+        // snapshots of the same exporter are written in order
+        pending = pending.thenRunAsync(() -> {
+            try {
+                if (toCSV) {
+                    csvExport.write(snapshot);
+                }
+                if (toColumnar) {
+                    columnarExport.dump(snapshot);
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                snapshot.clear();
+                freeSnapshots.add(snapshot);
+            }
+        }, getWriters());
+    }
+
+    /**
+     * Waits until the exported rows have been written to disk, when the files
+     * are written asynchronously (see {@link #asynchronous} and
+     * {@link ExportCSV#asynchronous}). Call it before reading the output
+     * during a simulation.
+     */
+    public void flush() {
+        pending.join();
+        if (toCSV) {
+            csvExport.flush();
+        }
+    }
+
+    /**
+     * Writes the pending rows and closes the .csv and columnar files. Called for
+     * all the DataExport objects at the end of a simulation; the files are
+     * opened again if the object exports data afterwards.
+     */
+    public void close() {
+        pending.join();
+        if (toCSV) {
+            csvExport.close();
+        }
+        if (toColumnar) {
+            try {
+                columnarExport.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Flushes all the DataExport objects writing files.
+     */
+    public static void flushAll() {
+        for (DataExport export : fileExports()) {
+            export.flush();
+        }
+    }
+
+    private static void closeAll() {
+        for (DataExport export : fileExports()) {
+            export.close();
+        }
+    }
+
+    private static List<DataExport> fileExports() {
+        synchronized (fileExports) {
+            return new ArrayList<>(fileExports);
+        }
+    }
+
 }
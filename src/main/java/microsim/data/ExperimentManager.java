@@ -154,6 +154,7 @@ public class ExperimentManager {
         final String outFolder = experiment.getOutputFolder() + File.separator + "input";
 
         ExportCSV.directory = experiment.getOutputFolder() + File.separator + "csv";
+        ExportColumnar.directory = experiment.getOutputFolder() + File.separator + "bin";
 
         log.debug("Setting up experiment " + experiment.runId);
 
@@ -4,16 +4,14 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Field;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedHashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
-
-import jakarta.persistence.Transient;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import microsim.data.db.PanelEntityKey;
 import microsim.engine.SimulationEngine;
@@ -23,6 +21,14 @@ import microsim.engine.SimulationEngine;
  * alternative to exporting to an output database, as it is faster and produces
  * separate files for each class of object. Note that only numbers, enums or
  * strings are exported to .csv files.
+ * <p>
+ * Fields are resolved once per class into precompiled accessors, and rows are
+ * formatted into a reusable buffer without boxing primitive values. When
+ * {@link #asynchronous} is set, the buffer is written to disk by a shared pool
+ * of {@link #writerThreads} background threads, so that the simulation only
+ * waits for the disk when more than {@link #queueCapacity} chunks of output are
+ * pending; {@link #flush()} waits until everything has been written. Otherwise
+ * every export is flushed to disk before it returns.
  * 
  * @author Ross Richardson
  */
@@ -35,18 +41,47 @@ public class ExportCSV {
     final static String delimiter = ",";
     public static String directory = null;
 
-    private Set<String> fieldsForExport;
-    private BufferedWriter bufferWriter;
-    // private FileWriter fileWriter;// = null;
-    private String idFieldName;
+    /**
+     * Whether .csv files created from now on are written by background threads.
+     * Asynchronous files must be flushed (see {@link #flush()}) before they are
+     * read during a simulation; {@link DataExport} flushes and closes its files
+     * when the simulation ends.
+     */
+    public static boolean asynchronous = false;
+
+    /**
+     * Number of background threads writing asynchronous .csv files, shared by
+     * all the ExportCSV objects. Read when the first asynchronous file is
+     * created.
+     */
+    public static int writerThreads = 2;
+
+    /**
+     * Maximum number of chunks of output waiting to be written by the background
+     * thread of an asynchronous export.
+     */
+    public static int queueCapacity = 32;
+
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private static ExecutorService writers;
+
+    private List<String> fieldsForExport;
+    private File file;
+    private boolean async;
+    private Writer bufferWriter; // null until opened, and after close()
+    private AsyncWriter asyncWriter; // null if the file is written synchronously
+    private final StringBuilder buffer = new StringBuilder(CHUNK_SIZE + 1024);
+
+    // Accessors of the exported fields, by class of exported object
+    private final Map<Class<?>, ExportFields> accessors = new IdentityHashMap<>();
+    private ExportFields lastAccessors;
 
     private Collection<?> targetCollection; // Use if target is a Collection (iterate across the collection). Null if a
                                             // single object is the target.
 
     private Object targetObject; // Use for a single target (no iteration across a collection). Null if the
                                  // target is a collection.
-    private Field targetObjectIdField; // Only for use with targetObject, not targetCollection (as each different
-                                       // object in a collection will have it's own id field)
 
     /**
      * Allows the exporting of all fields (including private and inherited fields)
@@ -89,24 +124,8 @@ public class ExportCSV {
                 obj = targetObject;
             }
 
-            // Find id field
-            final Field[] objFields = obj.getClass().getDeclaredFields();
-            Field idField = null;
-            for (Field fld : objFields) {
-                if (fld.getType().equals(PanelEntityKey.class)) { // Doesn't rely on the name of the field
-                    idField = fld;
-                    idFieldName = fld.getName();
-                    if (!collectionMode) {
-                        targetObjectIdField = fld; // Set id field when single object is being exported (NOT
-                                                   // collection!)
-                        targetObjectIdField.setAccessible(true);
-                    }
-                    break;
-                }
-            }
-            // final Field idField = obj.getClass().getDeclaredField("id"); //Relies on the
-            // name of the field being 'id', which is not good if the user has another
-            // naming convention.
+            // Find id field (doesn't rely on the name of the field)
+            Field idField = ExportFields.findIdField(obj.getClass());
             if (idField != null) {
                 idField.setAccessible(true);
             } else
@@ -127,75 +146,29 @@ public class ExportCSV {
             // Checks whether a file with the same filename already exists - if not, then
             // creates one. Useful for MultiRun case.
             boolean fAlreadyExists = f.exists();
-            // if(fAlreadyExists && !collectionMode) {
-            // throw new IllegalAccessException("A .csv file to export object " +
-            // obj.toString()
-            // + " already exists! Cannot create more than one ExportCSV object for the same
-            // object!");
-            // }
-            // else
             if (!fAlreadyExists) {
                 File dir = new File(directory);
                 dir.mkdirs();
                 f.createNewFile();
             }
-            bufferWriter = new BufferedWriter(new FileWriter(f, true));
-            if (!fAlreadyExists) {
-                // Create Header line for .csv file
-                bufferWriter.append("run" + delimiter + "time" + delimiter + "id_" + filename);
-            }
+            file = f;
+            async = asynchronous;
+            open();
 
             // Create alphabetically sorted (except for run, time and id key) list of fields
             // including private and inherited fields that belong to the target class.
-            List<Field> declaredFields = new ArrayList<Field>();
-
-            List<Field> allFields = ExportCSV.getAllFields(declaredFields, obj.getClass());
-
-            TreeSet<String> nonTransientFieldNames = new TreeSet<String>();
-
-            for (Field field : allFields) {
-                Transient transientAnnotation = field.getAnnotation(Transient.class);
-                if (transientAnnotation == null) { // Ignore the field if it has the 'Transient' annotation, just like
-                                                   // when exporting the data to the output database
-                    if (field.getType().isPrimitive() || Number.class.isAssignableFrom(field.getType())
-                            || field.getType().equals(String.class) || field.getType().equals(Boolean.class)
-                            || field.getType().isEnum() || field.getType().equals(Character.class)) {
-
-                        String name = field.getName();
-
-                        /*
-                         * // PB 22/11/2021: if variable has @Column annotation, it would be better to
-                         * output the name specified in the annotation, instead of the simple name of
-                         * the variable. But the variables are obtained on the basis of their name, not
-                         * the annotation, so this doesn't currently work.
-                         * Column annotation = field.getAnnotation(Column.class);
-                         * if (annotation != null) {
-                         * Column columnAnnotation = (Column) annotation;
-                         * name = columnAnnotation.name();
-                         * if (name == null) {
-                         * name = field.getName(); // If annotation name was null, revert to the simple
-                         * variable name
-                         * }
-                         * }
-                         */
-
-                        if (!name.equals("serialVersionUID")) {
-                            // nonTransientFieldNames.add(field.getName()); //Exclude references to general
-                            // Objects, including PanelEntityKeys (handle id separately). Also ignores
-                            // serialVersionUID value.
-                            nonTransientFieldNames.add(name); // PB: Add name kept in "name" variable, instead of
-                                                              // field.getName() which gets the simple name.
-                        }
-                    }
-                }
-            }
-            fieldsForExport = new LinkedHashSet<String>();
+            // Fields with the 'Transient' annotation are ignored, just like when exporting
+            // the data to the output database.
+            fieldsForExport = ExportFields.exportableFieldNames(obj.getClass());
+            lastAccessors = accessorsFor(obj.getClass());
 
-            for (String fieldNames : nonTransientFieldNames) { // Iterated in correct order
-                fieldsForExport.add(fieldNames);
-                if (!fAlreadyExists) {
-                    bufferWriter.append(delimiter + fieldNames);
+            if (!fAlreadyExists) {
+                // Create Header line for .csv file
+                buffer.append("run" + delimiter + "time" + delimiter + "id_" + filename);
+                for (String fieldName : fieldsForExport) {
+                    buffer.append(delimiter).append(fieldName);
                 }
+                write();
             }
 
         } catch (IOException e) {
@@ -219,100 +192,156 @@ public class ExportCSV {
     public void dumpToCSV() {
 
         try {
-            String run = ((Integer) SimulationEngine.getInstance().getCurrentRunNumber()).toString();
-            String time = ((Double) SimulationEngine.getInstance().getTime()).toString();
+            String run = String.valueOf(SimulationEngine.getInstance().getCurrentRunNumber());
+            String time = String.valueOf(SimulationEngine.getInstance().getTime());
 
             if (targetCollection != null) {
                 for (Object obj : targetCollection) {
-
-                    bufferWriter.append(newLine);
-                    bufferWriter.append(run + delimiter + time + delimiter);
-
-                    Field idField = obj.getClass().getDeclaredField(idFieldName);
-                    idField.setAccessible(true);
-                    bufferWriter.append(String.valueOf(((PanelEntityKey) idField.get(obj)).getId()));
-
-                    for (String fieldName : fieldsForExport) {
-                        Field thisField = findUnderlyingField(obj.getClass(), fieldName);
-                        thisField.setAccessible(true);
-                        Object value = thisField.get(obj);
-                        bufferWriter.append(delimiter);
-                        if (value == null) {
-                            bufferWriter.append("null");
-                        } else {
-                            bufferWriter.append(value.toString());
-                        }
+                    appendRow(run, time, obj);
+                    if (buffer.length() >= CHUNK_SIZE) {
+                        write();
                     }
                 }
             } else if (targetObject != null) {
-                bufferWriter.append(newLine);
-                bufferWriter.append(run + delimiter + time + delimiter);
-
-                // Field idField = targetObject.getClass().getDeclaredField(idFieldName);
-                // Field idField = targetObjectIdField;
-                bufferWriter.append(String.valueOf(((PanelEntityKey) targetObjectIdField.get(targetObject)).getId()));
-
-                for (String fieldName : fieldsForExport) {
-                    Field thisField = targetObject.getClass().getDeclaredField(fieldName);
-                    thisField.setAccessible(true);
-                    Object value = thisField.get(targetObject).toString();
-                    bufferWriter.append(delimiter);
-                    if (value == null) {
-                        bufferWriter.append("null");
-                    } else {
-                        bufferWriter.append(value.toString());
-                    }
-                }
+                appendRow(run, time, targetObject);
             } else
                 throw new NullPointerException(
                         "ExportCSV's targetCollection and targetObject fields are both null!  Cannot export to CSV");
+            write();
 
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (NoSuchFieldException e) {
-            // TODO Auto-generated catch block
+        } catch (IllegalArgumentException | IllegalStateException e) {
             e.printStackTrace();
-        } catch (SecurityException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (IllegalArgumentException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        } catch (IllegalAccessException e) {
-            // TODO Auto-generated catch block
+        } finally {
+            buffer.setLength(0);
+            if (asyncWriter == null) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Writes the rows captured in a snapshot, with the run and time of the
+     * snapshot.
+     */
+    void write(PanelSnapshot snapshot) {
+        try {
+            String run = String.valueOf(snapshot.getRun());
+            String time = String.valueOf(snapshot.getTime());
+            for (int r = 0; r < snapshot.size(); r++) {
+                buffer.append(newLine).append(run).append(delimiter).append(time).append(delimiter);
+                buffer.append(snapshot.getId(r));
+                for (int c = 0; c < fieldsForExport.size(); c++) {
+                    buffer.append(delimiter);
+                    snapshot.appendTo(buffer, r, c);
+                }
+                if (buffer.length() >= CHUNK_SIZE) {
+                    write();
+                }
+            }
+            write();
+        } catch (IOException e) {
             e.printStackTrace();
         } finally {
-            try {
-                bufferWriter.flush();
-            } catch (IOException e) {
-                e.printStackTrace();
-            } catch (Throwable e) {
-                e.printStackTrace();
-                throw e;
+            buffer.setLength(0);
+            if (asyncWriter == null) {
+                flush();
             }
         }
     }
 
-    private static Field findUnderlyingField(Class<?> clazz, String fieldName) {
-        Class<?> current = clazz;
-        do {
-            try {
-                return current.getDeclaredField(fieldName);
-            } catch (Exception e) {
+    private void appendRow(String run, String time, Object obj) {
+        ExportFields fields = accessorsFor(obj.getClass());
+        buffer.append(newLine).append(run).append(delimiter).append(time).append(delimiter);
+        buffer.append(fields.getId(obj));
+        for (int c = 0; c < fields.size(); c++) {
+            buffer.append(delimiter);
+            fields.appendTo(buffer, obj, c);
+        }
+    }
+
+    private ExportFields accessorsFor(Class<?> type) {
+        ExportFields fields = lastAccessors;
+        if (fields == null || fields.getType() != type) {
+            fields = accessors.get(type);
+            if (fields == null) {
+                fields = ExportFields.of(type, fieldsForExport);
+                accessors.put(type, fields);
             }
-        } while ((current = current.getSuperclass()) != null);
-        return null;
+            lastAccessors = fields;
+        }
+        return fields;
     }
 
-    // Recursive method to get all fields of a class, including inherited ones
-    private static List<Field> getAllFields(List<Field> fields, Class<?> type) {
-        fields.addAll(Arrays.asList(type.getDeclaredFields()));
+    private static synchronized ExecutorService getWriters() {
+        if (writers == null) {
+            writers = Executors.newFixedThreadPool(Math.max(1, writerThreads), runnable -> {
+                Thread thread = new Thread(runnable, "ExportCSV writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writers;
+    }
 
-        if (type.getSuperclass() != null) {
-            fields = getAllFields(fields, type.getSuperclass());
+    /**
+     * Opens the .csv file for appending.
+     */
+    private void open() throws IOException {
+        bufferWriter = new BufferedWriter(new FileWriter(file, true), CHUNK_SIZE);
+        if (async) {
+            asyncWriter = new AsyncWriter(bufferWriter, queueCapacity, "ExportCSV " + file.getName(), getWriters());
         }
+    }
 
-        return fields;
+    private void write() throws IOException {
+        if (buffer.length() == 0)
+            return;
+        if (bufferWriter == null)
+            open();
+        if (asyncWriter != null) {
+            asyncWriter.write(buffer);
+        } else {
+            bufferWriter.append(buffer);
+        }
+        buffer.setLength(0);
+    }
+
+    /**
+     * Waits until all the rows exported so far have been written to the .csv file.
+     */
+    public void flush() {
+        try {
+            if (bufferWriter == null) {
+                return;
+            } else if (asyncWriter != null) {
+                asyncWriter.flush();
+            } else {
+                bufferWriter.flush();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the pending rows and closes the .csv file. The file is opened again,
+     * for appending, if the object exports data afterwards.
+     */
+    public void close() {
+        try {
+            if (asyncWriter != null) {
+                asyncWriter.close();
+            } else if (bufferWriter != null) {
+                bufferWriter.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            bufferWriter = null;
+            asyncWriter = null;
+        }
     }
 
 }
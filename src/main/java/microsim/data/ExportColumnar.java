@@ -0,0 +1,722 @@
+package microsim.data;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import microsim.data.ColumnarPanelReader.ColumnType;
+import microsim.engine.SimulationEngine;
+
+/**
+ * Exports the same fields as {@link ExportCSV} to a compact, columnar binary
+ * file, named after the class of the exported objects with the extension
+ * {@value #EXTENSION}.
+ * <p>
+ * The schema (one column per exported field, plus the id) is written once at
+ * the beginning of the file; each call to {@link #dump()} then appends a row
+ * group holding the run, the time and the columns of the exported objects.
+ * Each column is encoded according to its type:
+ * <ul>
+ * <li>ids are delta-encoded as variable-length integers;</li>
+ * <li>integral fields (including {@code char}) are zigzag variable-length
+ * integers;</li>
+ * <li>{@code float} and {@code double} fields are stored raw;</li>
+ * <li>booleans are bit-packed;</li>
+ * <li>enums and strings are dictionary-encoded;</li>
+ * <li>null values of boxed fields are marked in a bitmap.</li>
+ * </ul>
+ * The run and time, constant within a row group, are stored once per row
+ * group. Columns are then deflated when {@link #compression} is
+ * {@link Compression#DEFLATE} and it makes them smaller. Files are read back
+ * with {@link ColumnarPanelReader}.
+ * <p>
+ * As with .csv files, exporting into an existing file (e.g. in multi-run
+ * experiments) appends row groups to it, provided that it has the same schema,
+ * and a closed exporter opens its file again, for appending, if it exports
+ * data afterwards.
+ * <p>
+ * In delta mode (see {@link #delta}), the exporter keeps a 64-bit hash of the
+ * exported values of each object, and each export after the first one of a
+ * run only writes the objects that are new or whose values changed, followed
+ * by the ids of the objects that are no longer exported. The first row group
+ * of a run is always complete, so full cross-sections can be rebuilt by
+ * replaying the row groups of the run in order (see
+ * {@link ColumnarPanelReader#updateCrossSection(Map)}).
+ */
+public class ExportColumnar implements Closeable {
+
+    public static final String EXTENSION = ".jcol";
+
+    static final int MAGIC = 0x4A534D43; // "JSMC"
+    static final int VERSION = 1;
+    static final int ROW_GROUP = 0x52475250; // "RGRP"
+    static final int DELTA_GROUP = 0x44475250; // "DGRP"
+
+    static final byte RAW = 0;
+    static final byte DEFLATED = 1;
+
+    /** Compression of the column blocks. */
+    public enum Compression {
+        NONE, DEFLATE
+    }
+
+    /**
+     * Directory of the exported files; defaults to the {@code bin} folder of
+     * the output folder of the current experiment.
+     */
+    public static String directory = null;
+
+    /**
+     * Compression of the files created from now on.
+     */
+    public static Compression compression = Compression.DEFLATE;
+
+    /**
+     * Whether the files created from now on are written in delta mode, i.e.
+     * only with the objects that were added, changed or removed since the
+     * previous export.
+     */
+    public static boolean delta = false;
+
+    private final Collection<?> targetCollection;
+    private final Object targetObject;
+    private final List<String> names;
+    private final ColumnType[] types;
+    private final boolean[] nullable;
+    private final Compression blockCompression;
+    private final boolean deltaMode;
+    private final String className;
+    private final File file;
+    private DataOutputStream out; // null after close(), until the next export
+
+    // Delta mode: hashes of the rows of the previous and current exports
+    private RowHashes previousHashes;
+    private RowHashes currentHashes;
+    private long lastRun = Long.MIN_VALUE;
+
+    private final Map<Class<?>, ExportFields> accessors = new IdentityHashMap<>();
+    private ExportFields lastAccessors;
+
+    // Reusable encoding buffers, one per column, the id column last
+    private final ColumnBuffer[] columns;
+    private Deflater deflater; // created and released with the output stream
+    private byte[] deflated = new byte[1 << 16];
+
+    /**
+     * Prepares the export of the fields of an object, or of the members of a
+     * collection, to a columnar file named after their class.
+     *
+     * @param target the object, or collection of objects, to export.
+     * @throws IllegalArgumentException if the objects have no
+     *                                  {@code PanelEntityKey} field, or if an
+     *                                  existing file has a different schema.
+     * @throws UncheckedIOException if the file cannot be created.
+     */
+    public ExportColumnar(Object target) {
+        if (directory == null) {
+            directory = SimulationEngine.getInstance().getCurrentExperiment().getOutputFolder() + File.separator
+                    + "bin";
+        }
+
+        Object obj;
+        if (target instanceof Collection<?> collection) {
+            targetCollection = collection;
+            targetObject = null;
+            obj = collection.iterator().next();
+        } else {
+            targetCollection = null;
+            targetObject = target;
+            obj = target;
+        }
+
+        ExportFields fields = ExportFields.of(obj.getClass());
+        lastAccessors = fields;
+        accessors.put(obj.getClass(), fields);
+        names = fields.getNames();
+        types = new ColumnType[names.size()];
+        nullable = new boolean[names.size()];
+        for (int c = 0; c < types.length; c++) {
+            types[c] = typeOf(fields.getFieldType(c));
+            nullable[c] = !fields.getFieldType(c).isPrimitive();
+        }
+        columns = new ColumnBuffer[types.length + 1];
+        for (int c = 0; c < columns.length; c++)
+            columns[c] = new ColumnBuffer();
+        blockCompression = compression;
+        deltaMode = delta;
+        if (deltaMode) {
+            previousHashes = new RowHashes();
+            currentHashes = new RowHashes();
+        }
+
+        String filename = obj.getClass().getSimpleName();
+        if (targetObject != null)
+            filename += fields.getId(targetObject);
+        className = obj.getClass().getName();
+        file = new File(directory, filename + EXTENSION);
+        try {
+            open();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create " + file, e);
+        }
+    }
+
+    /**
+     * Opens the file for appending, writing the schema if the file is new.
+     */
+    private void open() throws IOException {
+        boolean exists = file.isFile() && file.length() > 0;
+        if (exists) {
+            checkSchema(file, className);
+        } else {
+            file.getParentFile().mkdirs();
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        deflater = new Deflater(Deflater.BEST_SPEED);
+        if (!exists) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(className);
+            out.writeInt(names.size());
+            for (int c = 0; c < names.size(); c++) {
+                out.writeUTF(names.get(c));
+                out.writeByte(types[c].ordinal());
+                out.writeBoolean(nullable[c]);
+            }
+            out.flush();
+        }
+    }
+
+    static ColumnType typeOf(Class<?> type) {
+        if (type == boolean.class || type == Boolean.class)
+            return ColumnType.BOOLEAN;
+        if (type == byte.class || type == short.class || type == char.class || type == int.class || type == long.class
+                || type == Byte.class || type == Short.class || type == Character.class || type == Integer.class
+                || type == Long.class)
+            return ColumnType.LONG;
+        if (type == float.class || type == Float.class)
+            return ColumnType.FLOAT;
+        if (type == double.class || type == Double.class)
+            return ColumnType.DOUBLE;
+        return ColumnType.STRING; // enums, strings and other numbers
+    }
+
+    private void checkSchema(File file, String className) throws IOException {
+        try (var reader = new ColumnarPanelReader(file)) {
+            boolean same = reader.getClassName().equals(className) && reader.getColumnNames().equals(names);
+            for (int c = 0; same && c < types.length; c++)
+                same = reader.getColumnType(c) == types[c] && reader.isNullable(c) == nullable[c];
+            if (!same)
+                throw new IllegalArgumentException(
+                        "Cannot append to " + file + " as it was exported with a different schema");
+        }
+    }
+
+    /**
+     * Appends a row group with the current values of the exported fields, at
+     * the current run and time of the simulation.
+     */
+    public void dump() {
+        dump(SimulationEngine.getInstance().getCurrentRunNumber(), SimulationEngine.getInstance().getTime());
+    }
+
+    /**
+     * Appends a row group with the current values of the exported fields.
+     *
+     * @param run  the run number recorded with the rows.
+     * @param time the simulation time recorded with the rows.
+     */
+    public void dump(long run, double time) {
+        for (ColumnBuffer column : columns)
+            column.reset();
+        boolean full = startDelta(run);
+        int rows = 0;
+        if (targetCollection != null) {
+            for (Object obj : targetCollection) {
+                if (deltaMode && unchanged(obj))
+                    continue;
+                encodeRow(obj);
+                rows++;
+            }
+        } else if (!deltaMode || !unchanged(targetObject)) {
+            encodeRow(targetObject);
+            rows = 1;
+        }
+        writeRowGroup(rows, run, time, full);
+    }
+
+    /**
+     * @return true if the row group to write is complete.
+     */
+    private boolean startDelta(long run) {
+        if (!deltaMode)
+            return true;
+        if (run != lastRun) {
+            previousHashes.clear();
+            lastRun = run;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean unchanged(Object obj) {
+        ExportFields fields = accessorsFor(obj.getClass());
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int c = 0; c < types.length; c++) {
+            hash = mix(hash, switch (fields.getKind(c)) {
+                case BOOLEAN -> fields.getBoolean(obj, c) ? 1 : 0;
+                case BYTE, SHORT, CHAR, INT, LONG -> fields.getLong(obj, c);
+                case FLOAT, DOUBLE -> Double.doubleToLongBits(fields.getDouble(obj, c));
+                case OBJECT -> hashOf(fields.getObject(obj, c));
+            });
+        }
+        return unchanged(fields.getId(obj), hash);
+    }
+
+    private boolean unchanged(PanelSnapshot snapshot, int row) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (int c = 0; c < types.length; c++) {
+            hash = mix(hash, switch (snapshot.getKind(c)) {
+                case BOOLEAN -> snapshot.getBoolean(row, c) ? 1 : 0;
+                case BYTE, SHORT, CHAR, INT, LONG -> snapshot.getLong(row, c);
+                case FLOAT, DOUBLE -> Double.doubleToLongBits(snapshot.getDouble(row, c));
+                case OBJECT -> hashOf(snapshot.getObject(row, c));
+            });
+        }
+        return unchanged(snapshot.getId(row), hash);
+    }
+
+    private boolean unchanged(long id, long hash) {
+        currentHashes.put(id, hash);
+        return previousHashes.matches(id, hash);
+    }
+
+    /**
+     * 64-bit hash of the whole exported value, rather than its 32-bit
+     * {@code hashCode()}, which is equal for values such as 0 and -1 as
+     * {@code Long}s, or "Aa" and "BB".
+     */
+    private static long hashOf(Object value) {
+        if (value == null)
+            return 0x5BD1E995L;
+        if (value instanceof Double || value instanceof Float)
+            return Double.doubleToLongBits(((Number) value).doubleValue());
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return ((Number) value).longValue();
+        if (value instanceof Character ch)
+            return ch;
+        if (value instanceof Boolean bool)
+            return bool ? 1 : 0;
+        String string = value.toString(); // as exported, for enums, strings and other values
+        long hash = 0xCBF29CE484222325L; // FNV-1a
+        for (int i = 0; i < string.length(); i++)
+            hash = (hash ^ string.charAt(i)) * 0x100000001B3L;
+        return mix(hash, string.length());
+    }
+
+    private static long mix(long hash, long value) {
+        hash = (hash ^ value) * 0xBF58476D1CE4E5B9L;
+        return hash ^ (hash >>> 31);
+    }
+
+    /**
+     * Appends a row group with the values captured in a snapshot.
+     */
+    void dump(PanelSnapshot snapshot) {
+        for (ColumnBuffer column : columns)
+            column.reset();
+        boolean full = startDelta(snapshot.getRun());
+        int[] selected = null; // rows written in delta mode
+        int rows = snapshot.size();
+        if (deltaMode) {
+            selected = new int[rows];
+            rows = 0;
+            for (int r = 0; r < snapshot.size(); r++)
+                if (!unchanged(snapshot, r))
+                    selected[rows++] = r;
+        }
+        ColumnBuffer ids = columns[columns.length - 1];
+        for (int i = 0; i < rows; i++)
+            ids.addId(snapshot.getId(selected == null ? i : selected[i]));
+        for (int c = 0; c < types.length; c++) {
+            ColumnBuffer column = columns[c];
+            for (int i = 0; i < rows; i++) {
+                int r = selected == null ? i : selected[i];
+                switch (snapshot.getKind(c)) {
+                    case BOOLEAN -> column.addBoolean(snapshot.getBoolean(r, c));
+                    case BYTE, SHORT, CHAR, INT, LONG -> column.addLong(snapshot.getLong(r, c));
+                    case FLOAT -> column.addFloat((float) snapshot.getDouble(r, c));
+                    case DOUBLE -> column.addDouble(snapshot.getDouble(r, c));
+                    case OBJECT -> addObject(column, types[c], snapshot.getObject(r, c));
+                }
+            }
+        }
+        writeRowGroup(rows, snapshot.getRun(), snapshot.getTime(), full);
+    }
+
+    private void writeRowGroup(int rows, long run, double time, boolean full) {
+        try {
+            if (out == null)
+                open();
+            out.writeInt(full ? ROW_GROUP : DELTA_GROUP);
+            out.writeInt(rows);
+            out.writeLong(run);
+            out.writeDouble(time);
+            for (int c = 0; c < types.length; c++)
+                writeBlock(columns[c].finish(types[c], nullable[c], rows));
+            writeBlock(columns[columns.length - 1].finishIds());
+            if (!full) {
+                // ids of the objects exported last time and not this time
+                ColumnBuffer removed = columns[columns.length - 1];
+                removed.reset();
+                for (long id : previousHashes.keysNotIn(currentHashes))
+                    removed.addId(id);
+                writeBlock(removed.finishIds());
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            if (deltaMode) {
+                RowHashes hashes = previousHashes;
+                previousHashes = currentHashes;
+                currentHashes = hashes;
+                currentHashes.clear();
+            }
+        }
+    }
+
+    private void encodeRow(Object obj) {
+        ExportFields fields = accessorsFor(obj.getClass());
+        columns[columns.length - 1].addId(fields.getId(obj));
+        for (int c = 0; c < types.length; c++) {
+            ColumnBuffer column = columns[c];
+            switch (fields.getKind(c)) {
+                case BOOLEAN -> column.addBoolean(fields.getBoolean(obj, c));
+                case BYTE, SHORT, CHAR, INT, LONG -> column.addLong(fields.getLong(obj, c));
+                case FLOAT -> column.addFloat((float) fields.getDouble(obj, c));
+                case DOUBLE -> column.addDouble(fields.getDouble(obj, c));
+                case OBJECT -> addObject(column, types[c], fields.getObject(obj, c));
+            }
+        }
+    }
+
+    private static void addObject(ColumnBuffer column, ColumnType type, Object value) {
+        if (value == null)
+            column.addNull();
+        else
+            switch (type) {
+                case BOOLEAN -> column.addBoolean((Boolean) value);
+                case LONG -> column.addLong(value instanceof Character ch ? ch : ((Number) value).longValue());
+                case FLOAT -> column.addFloat((Float) value);
+                case DOUBLE -> column.addDouble((Double) value);
+                case STRING -> column.addString(value);
+            }
+    }
+
+    private ExportFields accessorsFor(Class<?> type) {
+        ExportFields fields = lastAccessors;
+        if (fields.getType() != type) {
+            fields = accessors.computeIfAbsent(type, t -> ExportFields.of(t, names));
+            lastAccessors = fields;
+        }
+        return fields;
+    }
+
+    private void writeBlock(ColumnBuffer.Block block) throws IOException {
+        if (blockCompression == Compression.DEFLATE && block.length() > 64) {
+            deflater.reset();
+            deflater.setInput(block.data(), 0, block.length());
+            deflater.finish();
+            if (deflated.length < block.length() + 64)
+                deflated = new byte[block.length() + 64];
+            int length = 0;
+            while (!deflater.finished() && length < block.length())
+                length += deflater.deflate(deflated, length, deflated.length - length);
+            if (deflater.finished() && length < block.length()) {
+                out.writeByte(DEFLATED);
+                out.writeInt(block.length());
+                out.writeInt(length);
+                out.write(deflated, 0, length);
+                return;
+            }
+        }
+        out.writeByte(RAW);
+        out.writeInt(block.length());
+        out.writeInt(block.length());
+        out.write(block.data(), 0, block.length());
+    }
+
+    /**
+     * Closes the file. The file is opened again, for appending, if the object
+     * exports data afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (out == null)
+            return;
+        try {
+            deflater.end();
+            out.close();
+        } finally {
+            deflater = null;
+            out = null;
+        }
+    }
+
+    /**
+     * Growable encoding buffer of a column.
+     */
+    private static final class ColumnBuffer {
+
+        record Block(byte[] data, int length) {
+        }
+
+        private final Bytes values = new Bytes();
+        private final Bytes presence = new Bytes(); // bitmap of non-null rows
+        private final Map<Object, Integer> dictionary = new HashMap<>();
+        private final List<String> entries = new ArrayList<>();
+        private final Bytes block = new Bytes();
+        private int row;
+        private int nulls;
+        private int bits; // bit-packed booleans
+        private int numBits;
+        private long previous;
+
+        void reset() {
+            values.size = 0;
+            presence.size = 0;
+            dictionary.clear();
+            entries.clear();
+            row = 0;
+            nulls = 0;
+            bits = 0;
+            numBits = 0;
+            previous = 0;
+        }
+
+        private void present(boolean present) {
+            if ((row & 7) == 0)
+                presence.put((byte) 0);
+            if (present)
+                presence.data[presence.size - 1] |= (byte) (1 << (row & 7));
+            else
+                nulls++;
+            row++;
+        }
+
+        void addNull() {
+            present(false);
+        }
+
+        void addId(long id) {
+            values.putVarLong(zigzag(id - previous));
+            previous = id;
+        }
+
+        void addBoolean(boolean value) {
+            present(true);
+            if (value)
+                bits |= 1 << numBits;
+            if (++numBits == 8) {
+                values.put((byte) bits);
+                bits = 0;
+                numBits = 0;
+            }
+        }
+
+        void addLong(long value) {
+            present(true);
+            values.putVarLong(zigzag(value));
+        }
+
+        void addFloat(float value) {
+            present(true);
+            values.putInt(Float.floatToRawIntBits(value));
+        }
+
+        void addDouble(double value) {
+            present(true);
+            values.putLong(Double.doubleToRawLongBits(value));
+        }
+
+        void addString(Object value) {
+            present(true);
+            Integer code = dictionary.get(value);
+            if (code == null) {
+                code = entries.size();
+                dictionary.put(value, code);
+                entries.add(value.toString());
+            }
+            values.putVarLong(code);
+        }
+
+        Block finishIds() {
+            return new Block(values.data, values.size);
+        }
+
+        Block finish(ColumnType type, boolean nullable, int rows) {
+            if (numBits > 0)
+                values.put((byte) bits);
+            block.size = 0;
+            if (nullable) {
+                if (nulls > 0) {
+                    block.put((byte) 1);
+                    block.put(presence.data, presence.size);
+                } else
+                    block.put((byte) 0);
+            }
+            if (type == ColumnType.STRING) {
+                block.putVarLong(entries.size());
+                for (String entry : entries) {
+                    byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                    block.putVarLong(bytes.length);
+                    block.put(bytes, bytes.length);
+                }
+            }
+            block.put(values.data, values.size);
+            return new Block(block.data, block.size);
+        }
+    }
+
+    /**
+     * Open-addressing map from ids to row hashes.
+     */
+    private static final class RowHashes {
+        private long[] keys = new long[1024];
+        private long[] hashes = new long[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+
+        private int slot(long id) {
+            int mask = keys.length - 1;
+            int i = (int) mix(0, id) & mask;
+            while (used[i] && keys[i] != id)
+                i = (i + 1) & mask;
+            return i;
+        }
+
+        void put(long id, long hash) {
+            if (2 * (size + 1) > keys.length)
+                rehash(2 * keys.length);
+            int i = slot(id);
+            if (!used[i]) {
+                used[i] = true;
+                keys[i] = id;
+                size++;
+            }
+            hashes[i] = hash;
+        }
+
+        boolean contains(long id) {
+            return used[slot(id)];
+        }
+
+        boolean matches(long id, long hash) {
+            int i = slot(id);
+            return used[i] && hashes[i] == hash;
+        }
+
+        /**
+         * @return the sorted ids of this map that are absent from the other.
+         */
+        long[] keysNotIn(RowHashes other) {
+            long[] missing = new long[16];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (used[i] && !other.contains(keys[i])) {
+                    if (n == missing.length)
+                        missing = Arrays.copyOf(missing, 2 * n);
+                    missing[n++] = keys[i];
+                }
+            }
+            missing = Arrays.copyOf(missing, n);
+            Arrays.sort(missing);
+            return missing;
+        }
+
+        void clear() {
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            long[] oldHashes = hashes;
+            boolean[] oldUsed = used;
+            keys = new long[capacity];
+            hashes = new long[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++)
+                if (oldUsed[i])
+                    put(oldKeys[i], oldHashes[i]);
+        }
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Minimal growable byte array.
+     */
+    private static final class Bytes {
+        byte[] data = new byte[1024];
+        int size;
+
+        private void ensure(int extra) {
+            if (size + extra > data.length)
+                data = Arrays.copyOf(data, Math.max(size + extra, 2 * data.length));
+        }
+
+        void put(byte b) {
+            ensure(1);
+            data[size++] = b;
+        }
+
+        void put(byte[] bytes, int length) {
+            ensure(length);
+            System.arraycopy(bytes, 0, data, size, length);
+            size += length;
+        }
+
+        void putVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[size++] = (byte) value;
+        }
+
+        void putInt(int value) {
+            ensure(4);
+            for (int shift = 24; shift >= 0; shift -= 8)
+                data[size++] = (byte) (value >>> shift);
+        }
+
+        void putLong(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                data[size++] = (byte) (value >>> shift);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package microsim.data;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jakarta.persistence.Transient;
+
+import microsim.data.db.PanelEntityKey;
+
+/**
+ * Field discovery and precompiled accessors shared by the exporters.
+ * <p>
+ * The fields exported for a class are its non-{@link Transient} fields
+ * (including private and inherited ones) holding a primitive, a number, a
+ * boolean, a character, an enum or a string, sorted by name; the id of an
+ * object is read from its {@link PanelEntityKey} field. Fields are resolved and
+ * made accessible once per class, and read through method handles typed on
+ * the field, so primitive values are read without boxing.
+ */
+final class ExportFields {
+
+    /** How the value of a column is read. */
+    enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE, OBJECT
+    }
+
+    private record Key(Class<?> type, List<String> names) {
+    }
+
+    private static final Map<Key, ExportFields> cache = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+    private final String[] names;
+    private final Kind[] kinds;
+    private final Class<?>[] types;
+    private final MethodHandle[] getters;
+    private final MethodHandle idGetter;
+
+    private ExportFields(Class<?> type, String[] names) {
+        this.type = type;
+        this.names = names;
+        kinds = new Kind[names.length];
+        types = new Class<?>[names.length];
+        getters = new MethodHandle[names.length];
+        var lookup = MethodHandles.lookup();
+        try {
+            Field idField = findIdField(type);
+            if (idField == null)
+                throw new IllegalArgumentException("Object of type " + type
+                        + " cannot be exported as it does not have a field of type PanelEntityKey.class!");
+            idField.setAccessible(true);
+            idGetter = getter(lookup, idField).asType(MethodType.methodType(Object.class, Object.class));
+
+            for (int c = 0; c < names.length; c++) {
+                Field field = findField(type, names[c]);
+                if (field == null)
+                    throw new IllegalArgumentException("Object of type " + type + " has no field " + names[c]);
+                field.setAccessible(true);
+                Class<?> fieldType = field.getType();
+                kinds[c] = kindOf(fieldType);
+                types[c] = fieldType;
+                Class<?> returnType = fieldType.isPrimitive() ? fieldType : Object.class;
+                getters[c] = getter(lookup, field).asType(MethodType.methodType(returnType, Object.class));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot access the fields of " + type, e);
+        }
+    }
+
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Field field) throws IllegalAccessException {
+        MethodHandle getter = lookup.unreflectGetter(field);
+        if (Modifier.isStatic(field.getModifiers()))
+            getter = MethodHandles.dropArguments(getter, 0, Object.class);
+        return getter;
+    }
+
+    /**
+     * Returns the accessors of the named fields of a class, resolving them on
+     * first use.
+     *
+     * @param type  the class of the exported objects.
+     * @param names the names of the exported fields, in column order.
+     * @throws IllegalArgumentException if the class has no {@link PanelEntityKey}
+     *                                  field or lacks one of the fields.
+     */
+    static ExportFields of(Class<?> type, List<String> names) {
+        Key key = new Key(type, List.copyOf(names));
+        ExportFields fields = cache.get(key);
+        if (fields == null) {
+            fields = new ExportFields(type, names.toArray(new String[0]));
+            cache.putIfAbsent(key, fields);
+        }
+        return fields;
+    }
+
+    /**
+     * Returns the accessors of all the exportable fields of a class.
+     */
+    static ExportFields of(Class<?> type) {
+        return of(type, exportableFieldNames(type));
+    }
+
+    /**
+     * @return the alphabetically sorted names of the exportable fields of a class.
+     */
+    static List<String> exportableFieldNames(Class<?> type) {
+        TreeSet<String> names = new TreeSet<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (field.getAnnotation(Transient.class) != null || field.getName().equals("serialVersionUID"))
+                    continue;
+                if (isExportable(field.getType()))
+                    names.add(field.getName());
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    static boolean isExportable(Class<?> fieldType) {
+        return fieldType.isPrimitive() || Number.class.isAssignableFrom(fieldType) || fieldType == String.class
+                || fieldType == Boolean.class || fieldType.isEnum() || fieldType == Character.class;
+    }
+
+    /**
+     * @return the field of type {@link PanelEntityKey} declared by the class, or
+     *         null if there is none.
+     */
+    static Field findIdField(Class<?> type) {
+        for (Field field : type.getDeclaredFields())
+            if (field.getType().equals(PanelEntityKey.class))
+                return field;
+        return null;
+    }
+
+    /**
+     * @return the field declared by the class or its closest superclass, or null.
+     */
+    static Field findField(Class<?> type, String name) {
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields())
+                if (field.getName().equals(name))
+                    return field;
+        }
+        return null;
+    }
+
+    private static Kind kindOf(Class<?> fieldType) {
+        if (fieldType == boolean.class)
+            return Kind.BOOLEAN;
+        if (fieldType == byte.class)
+            return Kind.BYTE;
+        if (fieldType == short.class)
+            return Kind.SHORT;
+        if (fieldType == char.class)
+            return Kind.CHAR;
+        if (fieldType == int.class)
+            return Kind.INT;
+        if (fieldType == long.class)
+            return Kind.LONG;
+        if (fieldType == float.class)
+            return Kind.FLOAT;
+        if (fieldType == double.class)
+            return Kind.DOUBLE;
+        return Kind.OBJECT;
+    }
+
+    Class<?> getType() {
+        return type;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String getName(int column) {
+        return names[column];
+    }
+
+    Kind getKind(int column) {
+        return kinds[column];
+    }
+
+    /**
+     * @return the declared type of the field of the column.
+     */
+    Class<?> getFieldType(int column) {
+        return types[column];
+    }
+
+    List<String> getNames() {
+        return List.of(names);
+    }
+
+    /**
+     * @return the {@link PanelEntityKey} of the object, or null.
+     */
+    PanelEntityKey getKey(Object obj) {
+        try {
+            return (PanelEntityKey) (Object) idGetter.invokeExact(obj);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * @return the id of the object.
+     */
+    long getId(Object obj) {
+        return getKey(obj).getId();
+    }
+
+    boolean getBoolean(Object obj, int column) {
+        try {
+            return (boolean) getters[column].invokeExact(obj);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads an integral primitive column ({@code byte}, {@code short},
+     * {@code char}, {@code int} or {@code long}).
+     */
+    long getLong(Object obj, int column) {
+        try {
+            MethodHandle getter = getters[column];
+            return switch (kinds[column]) {
+                case BYTE -> (byte) getter.invokeExact(obj);
+                case SHORT -> (short) getter.invokeExact(obj);
+                case CHAR -> (char) getter.invokeExact(obj);
+                case INT -> (int) getter.invokeExact(obj);
+                case LONG -> (long) getter.invokeExact(obj);
+                default -> throw new IllegalStateException("Column " + names[column] + " is not integral");
+            };
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads a floating-point primitive column ({@code float} or {@code double}).
+     */
+    double getDouble(Object obj, int column) {
+        try {
+            MethodHandle getter = getters[column];
+            return switch (kinds[column]) {
+                case FLOAT -> (float) getter.invokeExact(obj);
+                case DOUBLE -> (double) getter.invokeExact(obj);
+                default -> throw new IllegalStateException("Column " + names[column] + " is not floating-point");
+            };
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Reads an object column (boxed number, boolean or character, enum, string).
+     */
+    Object getObject(Object obj, int column) {
+        try {
+            return (Object) getters[column].invokeExact(obj);
+        } catch (Throwable e) {
+            throw rethrow(e);
+        }
+    }
+
+    /**
+     * Appends the value of a column as text, as {@code String.valueOf} would
+     * format it, without boxing primitive values.
+     */
+    void appendTo(StringBuilder out, Object obj, int column) {
+        switch (kinds[column]) {
+            case BOOLEAN -> out.append(getBoolean(obj, column));
+            case CHAR -> out.append((char) getLong(obj, column));
+            case BYTE, SHORT, INT, LONG -> out.append(getLong(obj, column));
+            case FLOAT -> out.append((float) getDouble(obj, column));
+            case DOUBLE -> out.append(getDouble(obj, column));
+            case OBJECT -> out.append(getObject(obj, column));
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable e) {
+        if (e instanceof RuntimeException runtime)
+            return runtime;
+        if (e instanceof Error error)
+            throw error;
+        return new IllegalStateException(e);
+    }
+}
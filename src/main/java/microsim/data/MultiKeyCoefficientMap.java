@@ -1,5 +1,7 @@
 package microsim.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -10,6 +12,18 @@ import org.apache.commons.collections4.map.MultiKeyMap;
 
 /**
  * Multi key coefficient map.
+ * <p>
+ * Keys are matched exactly, except for range-keyed dimensions (age bands,
+ * income brackets, ...). The values of a range key column are the inclusive
+ * lower bounds of consecutive bands, each band extending up to the next bound
+ * (the last band is open-ended). A numeric key supplied to
+ * {@link #getValue(Object...)} for a range column is mapped to its band by
+ * binary search over the sorted bounds, so that a table with one row per band
+ * replaces one with a row per value. Range columns are declared by appending
+ * {@link #RANGE_KEY_SUFFIX} to the name of the key column (e.g. in the header
+ * of an Excel worksheet: {@code age[range]}), through the {@code rangeKeys}
+ * element of {@link microsim.annotation.CoefficientMapping}, or with
+ * {@link #setRangeKeys(String...)}.
  *
  * @author Ross Richardson
  */
@@ -18,8 +32,30 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
 
     private static final long serialVersionUID = 5049597007431364596L;
 
+    /**
+     * Suffix of the name of a key column that declares it as range-keyed.
+     */
+    public static final String RANGE_KEY_SUFFIX = "[range]";
+
     protected String[] keys;
     protected Map<String, Integer> valuesMap;
+    protected boolean[] rangeKeys;
+
+    private transient volatile RangeBounds[] rangeBounds;
+
+    /**
+     * Sorted lower bounds of the bands of a range key column, with the key
+     * objects that represent them in the map.
+     */
+    private static final class RangeBounds {
+        final double[] lower;
+        final Object[] keys;
+
+        RangeBounds(double[] lower, Object[] keys) {
+            this.lower = lower;
+            this.keys = keys;
+        }
+    }
 
     /**
      * Creates an empty new MultiKeyCoefficientMap with the names of the keys and
@@ -30,7 +66,7 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
      */
     public MultiKeyCoefficientMap(String[] keys, String[] values) {
         super();
-        this.keys = keys;
+        this.keys = parseRangeKeys(keys);
         if (values != null) {
             valuesMap = new HashMap<String, Integer>();
             for (int i = 0; i < values.length; i++) {
@@ -53,7 +89,7 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
      */
     public MultiKeyCoefficientMap(AbstractHashedMap<MultiKey<?>, Object> map, String[] keys, String[] values) {
         super(map);
-        this.keys = keys;
+        this.keys = parseRangeKeys(keys);
         if (values != null) {
             valuesMap = new HashMap<String, Integer>();
             for (int i = 0; i < values.length; i++) {
@@ -65,6 +101,130 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
             throw new IllegalArgumentException("Keys array cannot be null");
     }
 
+    private String[] parseRangeKeys(String[] keys) {
+        if (keys == null)
+            return null;
+        String[] names = keys.clone();
+        for (int i = 0; i < names.length; i++) {
+            if (names[i] != null && names[i].endsWith(RANGE_KEY_SUFFIX)) {
+                names[i] = names[i].substring(0, names[i].length() - RANGE_KEY_SUFFIX.length()).trim();
+                if (rangeKeys == null)
+                    rangeKeys = new boolean[names.length];
+                rangeKeys[i] = true;
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Declares key columns as range-keyed, in addition to any declared through
+     * their names.
+     * 
+     * @param rangeKeyNames the names of the key columns whose values are the
+     *                      lower bounds of bands
+     */
+    public void setRangeKeys(String... rangeKeyNames) {
+        for (String name : rangeKeyNames) {
+            int i = Arrays.asList(keys).indexOf(name);
+            if (i < 0)
+                throw new IllegalArgumentException("Unknown key column " + name);
+            if (rangeKeys == null)
+                rangeKeys = new boolean[keys.length];
+            rangeKeys[i] = true;
+        }
+        rangeBounds = null;
+    }
+
+    /**
+     * @param keyColumn the index of a key column
+     * @return true if the values of the key column are the lower bounds of bands
+     */
+    public boolean isRangeKey(int keyColumn) {
+        return rangeKeys != null && rangeKeys[keyColumn];
+    }
+
+    /**
+     * @return true if at least one key column is range-keyed
+     */
+    public boolean hasRangeKeys() {
+        return rangeKeys != null;
+    }
+
+    /**
+     * Maps a value to the key of the band that contains it, for a range key
+     * column. Values of exact-match columns, and non-numeric values, are returned
+     * unchanged.
+     * 
+     * @param keyColumn the index of the key column
+     * @param value     the value to look up, e.g. the age of an agent
+     * @return the key stored in the map for the band that contains the value, or
+     *         null if the value is below the lowest bound
+     */
+    public Object toRangeKey(int keyColumn, Object value) {
+        if (!isRangeKey(keyColumn) || !(value instanceof Number))
+            return value;
+        RangeBounds bounds = getRangeBounds()[keyColumn];
+        double x = ((Number) value).doubleValue();
+        int i = Arrays.binarySearch(bounds.lower, x);
+        if (i < 0)
+            i = -i - 2; // greatest bound below x
+        return i < 0 ? null : bounds.keys[i];
+    }
+
+    /**
+     * @param keyColumn the index of a range key column
+     * @return a copy of the sorted lower bounds of its bands
+     */
+    public double[] getRangeBounds(int keyColumn) {
+        if (!isRangeKey(keyColumn))
+            throw new IllegalArgumentException("Key column " + keys[keyColumn] + " is not a range key");
+        return getRangeBounds()[keyColumn].lower.clone();
+    }
+
+    private RangeBounds[] getRangeBounds() {
+        RangeBounds[] bounds = rangeBounds;
+        if (bounds == null) {
+            bounds = new RangeBounds[keys.length];
+            for (int k = 0; k < keys.length; k++) {
+                if (!rangeKeys[k])
+                    continue;
+                var distinct = new HashMap<Double, Object>();
+                for (MultiKey<?> multiKey : keySet()) {
+                    Object key = multiKey.getKey(k);
+                    if (!(key instanceof Number))
+                        throw new IllegalArgumentException(
+                                "Range key column " + keys[k] + " contains the non-numeric value " + key);
+                    distinct.putIfAbsent(((Number) key).doubleValue(), key);
+                }
+                var lower = new ArrayList<>(distinct.keySet());
+                lower.sort(null);
+                double[] values = new double[lower.size()];
+                Object[] objects = new Object[lower.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = lower.get(i);
+                    objects[i] = distinct.get(lower.get(i));
+                }
+                bounds[k] = new RangeBounds(values, objects);
+            }
+            rangeBounds = bounds;
+        }
+        return bounds;
+    }
+
+    private Object[] resolveRangeKeys(Object[] key) {
+        if (rangeKeys == null || key.length == 0 || key[0] instanceof MultiKey)
+            return key;
+        Object[] resolved = key;
+        for (int k = 0; k < keys.length && k < key.length; k++) {
+            if (rangeKeys[k]) {
+                if (resolved == key)
+                    resolved = key.clone();
+                resolved[k] = toRangeKey(k, key[k]);
+            }
+        }
+        return resolved;
+    }
+
     public static String toStringKey(Object value) {
         if (value instanceof String) {
             return (String) value;
@@ -102,6 +262,7 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
     }
 
     public Object getValue(Object... key) {
+        key = resolveRangeKeys(key);
         if (key.length == keys.length) {
             switch (key.length) {
                 case 1:
@@ -175,7 +336,118 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
         return null;
     }
 
+    // The bands of range key columns are derived from the keys of the map, so
+    // every method that adds or removes keys discards them, to be rebuilt on the
+    // next lookup. Keys removed through iterators of the map or its views are not
+    // seen: call clearRangeBounds() after doing so.
+
+    @Override
+    public Object put(MultiKey<? extends Object> key, Object value) {
+        rangeBounds = null;
+        return super.put(key, value);
+    }
+
+    @Override
+    public Object put(Object key1, Object key2, Object value) {
+        rangeBounds = null;
+        return super.put(key1, key2, value);
+    }
+
+    @Override
+    public Object put(Object key1, Object key2, Object key3, Object value) {
+        rangeBounds = null;
+        return super.put(key1, key2, key3, value);
+    }
+
+    @Override
+    public Object put(Object key1, Object key2, Object key3, Object key4, Object value) {
+        rangeBounds = null;
+        return super.put(key1, key2, key3, key4, value);
+    }
+
+    @Override
+    public Object put(Object key1, Object key2, Object key3, Object key4, Object key5, Object value) {
+        rangeBounds = null;
+        return super.put(key1, key2, key3, key4, key5, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends MultiKey<? extends Object>, ? extends Object> mapToCopy) {
+        rangeBounds = null;
+        super.putAll(mapToCopy);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        rangeBounds = null;
+        return super.remove(key);
+    }
+
+    @Override
+    public Object removeMultiKey(Object key1, Object key2) {
+        rangeBounds = null;
+        return super.removeMultiKey(key1, key2);
+    }
+
+    @Override
+    public Object removeMultiKey(Object key1, Object key2, Object key3) {
+        rangeBounds = null;
+        return super.removeMultiKey(key1, key2, key3);
+    }
+
+    @Override
+    public Object removeMultiKey(Object key1, Object key2, Object key3, Object key4) {
+        rangeBounds = null;
+        return super.removeMultiKey(key1, key2, key3, key4);
+    }
+
+    @Override
+    public Object removeMultiKey(Object key1, Object key2, Object key3, Object key4, Object key5) {
+        rangeBounds = null;
+        return super.removeMultiKey(key1, key2, key3, key4, key5);
+    }
+
+    @Override
+    public boolean removeAll(Object key1) {
+        rangeBounds = null;
+        return super.removeAll(key1);
+    }
+
+    @Override
+    public boolean removeAll(Object key1, Object key2) {
+        rangeBounds = null;
+        return super.removeAll(key1, key2);
+    }
+
+    @Override
+    public boolean removeAll(Object key1, Object key2, Object key3) {
+        rangeBounds = null;
+        return super.removeAll(key1, key2, key3);
+    }
+
+    @Override
+    public boolean removeAll(Object key1, Object key2, Object key3, Object key4) {
+        rangeBounds = null;
+        return super.removeAll(key1, key2, key3, key4);
+    }
+
+    @Override
+    public void clear() {
+        rangeBounds = null;
+        super.clear();
+    }
+
+    /**
+     * Discards the bands of the range key columns, so that they are rebuilt from
+     * the keys of the map on the next lookup. Only needed after removing keys
+     * through an iterator of the map or of one of its views.
+     */
+    public void clearRangeBounds() {
+        rangeBounds = null;
+    }
+
     public void putValue(Object... keyValues) {
+        rangeBounds = null;
         if (keyValues.length == keys.length + 1) {
             switch (keyValues.length) {
                 case 1:
@@ -321,12 +593,26 @@ public class MultiKeyCoefficientMap extends MultiKeyMap<Object, Object> {
         return valuesClone;
     }
 
+    /**
+     * Converts the map into a read-only {@link CoefficientTable}, whose lookups
+     * by integer key codes do not allocate. The table is a snapshot: later
+     * changes to this map are not reflected in it.
+     * 
+     * @return a new CoefficientTable holding the content of this map
+     */
+    public CoefficientTable toCoefficientTable() {
+        return new CoefficientTable(this);
+    }
+
     /**
      * Returns a deep clone copy of the MultiKeyCoefficientMap object
      */
     @Override
     public MultiKeyCoefficientMap clone() {
         var mapClone = new HashedMap<>(this.decorated());
-        return new MultiKeyCoefficientMap(mapClone, this.getKeysNames(), this.getValuesNames());
+        var clone = new MultiKeyCoefficientMap(mapClone, this.getKeysNames(), this.getValuesNames());
+        if (rangeKeys != null)
+            clone.rangeKeys = rangeKeys.clone();
+        return clone;
     }
 }
@@ -23,6 +23,8 @@ public class MultiKeyCoefficientMapFactory {
         String[] values = anno.values();
 
         MultiKeyCoefficientMap map = new MultiKeyCoefficientMap(keys, values);
+        if (anno.rangeKeys().length > 0)
+            map.setRangeKeys(anno.rangeKeys());
 
         for (Field field : clazz.getDeclaredFields()) {
             field.setAccessible(true);
@@ -0,0 +1,182 @@
+package microsim.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reusable columnar copy of the exported fields of a collection of objects at
+ * one point of the simulation.
+ * <p>
+ * Primitive fields are copied into primitive arrays ({@code long[]} for
+ * integral fields and characters, {@code double[]} for floating-point fields,
+ * {@code boolean[]} for booleans); enums, strings and boxed values, which are
+ * immutable, are copied by reference. The arrays grow to the largest
+ * population captured and are then reused, so that capturing allocates nothing
+ * in the steady state and the copy can be written out by another thread while
+ * the simulation goes on.
+ */
+final class PanelSnapshot {
+
+    private final List<String> names;
+    private final ExportFields.Kind[] kinds;
+    private final Object[] columns;
+    private final Map<Class<?>, ExportFields> accessors = new IdentityHashMap<>();
+    private ExportFields lastAccessors;
+
+    private long run;
+    private double time;
+    private int size;
+    private long[] ids = new long[0];
+
+    /**
+     * @param layout the accessors of the exported class, which define the
+     *               columns of the snapshot.
+     */
+    PanelSnapshot(ExportFields layout) {
+        names = layout.getNames();
+        kinds = new ExportFields.Kind[layout.size()];
+        columns = new Object[layout.size()];
+        for (int c = 0; c < kinds.length; c++)
+            kinds[c] = layout.getKind(c);
+        lastAccessors = layout;
+        accessors.put(layout.getType(), layout);
+        allocate(0);
+    }
+
+    private void allocate(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        for (int c = 0; c < kinds.length; c++) {
+            Object column = columns[c];
+            columns[c] = switch (kinds[c]) {
+                case BOOLEAN -> column == null ? new boolean[capacity] : Arrays.copyOf((boolean[]) column, capacity);
+                case BYTE, SHORT, CHAR, INT, LONG -> column == null ? new long[capacity]
+                        : Arrays.copyOf((long[]) column, capacity);
+                case FLOAT, DOUBLE -> column == null ? new double[capacity]
+                        : Arrays.copyOf((double[]) column, capacity);
+                case OBJECT -> column == null ? new Object[capacity] : Arrays.copyOf((Object[]) column, capacity);
+            };
+        }
+    }
+
+    /**
+     * Copies the exported fields of a collection of objects.
+     */
+    void capture(Collection<?> targets, long run, double time) {
+        if (targets.size() > ids.length)
+            allocate(Math.max(targets.size(), ids.length + (ids.length >> 2)));
+        this.run = run;
+        this.time = time;
+        size = 0;
+        for (Object target : targets) {
+            if (size == ids.length) // the collection grew while being iterated
+                allocate(size + (size >> 2) + 16);
+            captureRow(target);
+        }
+    }
+
+    /**
+     * Copies the exported fields of a single object.
+     */
+    void capture(Object target, long run, double time) {
+        if (ids.length == 0)
+            allocate(1);
+        this.run = run;
+        this.time = time;
+        size = 0;
+        captureRow(target);
+    }
+
+    private void captureRow(Object obj) {
+        ExportFields fields = accessorsFor(obj.getClass());
+        int row = size++;
+        ids[row] = fields.getId(obj);
+        for (int c = 0; c < kinds.length; c++) {
+            switch (kinds[c]) {
+                case BOOLEAN -> ((boolean[]) columns[c])[row] = fields.getBoolean(obj, c);
+                case BYTE, SHORT, CHAR, INT, LONG -> ((long[]) columns[c])[row] = fields.getLong(obj, c);
+                case FLOAT, DOUBLE -> ((double[]) columns[c])[row] = fields.getDouble(obj, c);
+                case OBJECT -> ((Object[]) columns[c])[row] = fields.getObject(obj, c);
+            }
+        }
+    }
+
+    private ExportFields accessorsFor(Class<?> type) {
+        ExportFields fields = lastAccessors;
+        if (fields.getType() != type) {
+            fields = accessors.computeIfAbsent(type, t -> ExportFields.of(t, names));
+            lastAccessors = fields;
+        }
+        return fields;
+    }
+
+    /**
+     * Drops the references to the object values of the last capture.
+     */
+    void clear() {
+        for (int c = 0; c < kinds.length; c++)
+            if (kinds[c] == ExportFields.Kind.OBJECT)
+                Arrays.fill((Object[]) columns[c], 0, size, null);
+        size = 0;
+    }
+
+    long getRun() {
+        return run;
+    }
+
+    double getTime() {
+        return time;
+    }
+
+    /**
+     * @return the number of captured rows.
+     */
+    int size() {
+        return size;
+    }
+
+    List<String> getNames() {
+        return names;
+    }
+
+    ExportFields.Kind getKind(int column) {
+        return kinds[column];
+    }
+
+    long getId(int row) {
+        return ids[row];
+    }
+
+    boolean getBoolean(int row, int column) {
+        return ((boolean[]) columns[column])[row];
+    }
+
+    long getLong(int row, int column) {
+        return ((long[]) columns[column])[row];
+    }
+
+    double getDouble(int row, int column) {
+        return ((double[]) columns[column])[row];
+    }
+
+    Object getObject(int row, int column) {
+        return ((Object[]) columns[column])[row];
+    }
+
+    /**
+     * Appends the value of a cell as text, as {@link ExportFields#appendTo} does
+     * for the field it was copied from.
+     */
+    void appendTo(StringBuilder out, int row, int column) {
+        switch (kinds[column]) {
+            case BOOLEAN -> out.append(getBoolean(row, column));
+            case CHAR -> out.append((char) getLong(row, column));
+            case BYTE, SHORT, INT, LONG -> out.append(getLong(row, column));
+            case FLOAT -> out.append((float) getDouble(row, column));
+            case DOUBLE -> out.append(getDouble(row, column));
+            case OBJECT -> out.append(getObject(row, column));
+        }
+    }
+}
@@ -5,13 +5,23 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
 
 import jakarta.persistence.*;
 
 import microsim.annotation.GUIparameter;
+import microsim.data.CoefficientTable;
 import microsim.data.MultiKeyCoefficientMap;
 import microsim.data.MultiKeyCoefficientMapFactory;
 import microsim.engine.SimulationEngine;
@@ -29,6 +39,12 @@ public class DatabaseUtils {
 
     public static Long autoincrementSeed = 1000000L;
 
+    /**
+     * Number of rows sent to the database in each JDBC batch by
+     * {@link #bulkSnap(EntityManager, Long, Double, Collection)}.
+     */
+    public static int snapBatchSize = 1000;
+
     public static Experiment createExperiment(EntityManager entityManager, Experiment experiment, Object... models)
             throws IllegalArgumentException,
             IllegalAccessException {
@@ -200,6 +216,86 @@ public class DatabaseUtils {
         }
     }
 
+    public static void bulkSnap(Collection<?> targetCollection) throws Exception {
+        if (SimulationEngine.getInstance().isTurnOffDatabaseConnection())
+            return;
+
+        EntityManager em = DatabaseUtils.getOutEntityManger();
+        try {
+            bulkSnap(em,
+                    Long.valueOf(SimulationEngine.getInstance().getCurrentRunNumber()),
+                    SimulationEngine.getInstance().getTime(),
+                    targetCollection);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Snapshots a collection of entities as
+     * {@link #snap(EntityManager, Long, Double, Collection)} does, but inserts
+     * the rows through a Hibernate {@link StatelessSession} in JDBC batches of
+     * {@link #snapBatchSize} rows. No entity is attached to a persistence
+     * context, and rows are inserted without first being looked up, so the
+     * snapshot must not already be in the database (i.e. an entity is
+     * snapshotted at most once per simulation time and run).
+     */
+    public static void bulkSnap(EntityManager em, Long run, Double time,
+            Collection<?> targetCollection) throws Exception {
+
+        if (SimulationEngine.getInstance().isTurnOffDatabaseConnection())
+            return;
+
+        if (targetCollection == null || targetCollection.isEmpty())
+            return;
+
+        Field idField = null;
+        for (Field fld : targetCollection.iterator().next().getClass().getDeclaredFields()) {
+            if (fld.getType().equals(PanelEntityKey.class)) { // Doesn't rely on the name of the field
+                idField = fld;
+                break;
+            }
+        }
+        if (idField != null)
+            idField.setAccessible(true);
+        else
+            throw new IllegalArgumentException("Object of type "
+                    + targetCollection.iterator().next().getClass()
+                    + " cannot be exported to database as it does not have a field of type PanelEntityKey.class or it is null!");
+
+        final double simulationTime = SimulationEngine.getInstance().getTime();
+        final Long simulationRun = SimulationEngine.getInstance().getCurrentExperiment().id;
+
+        SessionFactory sessionFactory = em.getEntityManagerFactory().unwrap(SessionFactory.class);
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            session.setJdbcBatchSize(snapBatchSize);
+            Transaction tx = session.beginTransaction();
+            try {
+                for (Object panelTarget : targetCollection) {
+                    final PanelEntityKey key = (PanelEntityKey) idField.get(panelTarget);
+                    PanelEntityKey newId = new PanelEntityKey();
+                    if (key != null)
+                        newId.setId(key.getId());
+                    else
+                        newId.setId(autoincrementSeed++);
+                    newId.setSimulationTime(simulationTime);
+                    newId.setSimulationRun(simulationRun);
+                    idField.set(panelTarget, newId);
+                    try {
+                        session.insert(panelTarget);
+                    } finally {
+                        idField.set(panelTarget, key);
+                    }
+                }
+                tx.commit();
+            } catch (Exception e) {
+                if (tx.isActive())
+                    tx.rollback();
+                throw e;
+            }
+        }
+    }
+
     public static void copy(EntityManager em, Long run, Double time, Object target)
             throws Exception {
         EntityTransaction tx = em.getTransaction();
@@ -333,6 +429,104 @@ public class DatabaseUtils {
         return query.getResultList();
     }
 
+    /**
+     * Streams the rows of an input table to a consumer in chunks, without
+     * materialising the whole table.
+     *
+     * @see #streamTable(EntityManager, Class, int, Function, boolean, Consumer)
+     */
+    public static <T> long streamTable(Class<T> clazz, int chunkSize, Consumer<? super List<T>> consumer) {
+        EntityManager entityManager = getEntityManger();
+        try {
+            return streamTable(entityManager, clazz, chunkSize, Function.identity(), false, consumer);
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Streams the rows of an input table to a consumer in chunks, without
+     * materialising the whole table.
+     *
+     * @see #streamTable(EntityManager, Class, int, Function, boolean, Consumer)
+     */
+    public static <T> long streamTable(EntityManager entityManager, Class<T> clazz, int chunkSize,
+            Consumer<? super List<T>> consumer) {
+        return streamTable(entityManager, clazz, chunkSize, Function.identity(), false, consumer);
+    }
+
+    /**
+     * Streams the rows of an input table, converting them (e.g. into agents) and
+     * handing them to a consumer in chunks.
+     * <p>
+     * Unlike {@link #loadTable(EntityManager, Class)}, the rows are read through
+     * a forward-only cursor fetching {@code chunkSize} rows at a time, as
+     * read-only entities that bypass the second-level cache, and each chunk is
+     * evicted from the persistence context once consumed. Memory use is
+     * therefore bounded by the size of a chunk, plus whatever the consumer
+     * keeps.
+     *
+     * @param entityManager the entity manager of the input database.
+     * @param clazz         the entity class of the table.
+     * @param chunkSize     the number of rows per chunk, also used as JDBC
+     *                      fetch size.
+     * @param converter     converts each row, or {@link Function#identity()}.
+     * @param parallel      whether the rows of a chunk are converted in
+     *                      parallel; the converter must then neither use the
+     *                      entity manager nor navigate lazy associations.
+     * @param consumer      receives the converted rows of each chunk, in table
+     *                      order; the list is not reused.
+     * @return the number of rows read.
+     */
+    public static <T, A> long streamTable(EntityManager entityManager, Class<T> clazz, int chunkSize,
+            Function<? super T, ? extends A> converter, boolean parallel, Consumer<? super List<A>> consumer) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive, found " + chunkSize);
+
+        Session session = entityManager.unwrap(Session.class);
+        EntityTransaction tx = entityManager.getTransaction();
+        boolean ownTransaction = !tx.isActive();
+        if (ownTransaction)
+            tx.begin();
+
+        long count = 0;
+        try (ScrollableResults<T> results = session
+                .createQuery("from " + clazz.getSimpleName() + " rec", clazz)
+                .setFetchSize(chunkSize)
+                .setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            List<T> chunk = new ArrayList<>(chunkSize);
+            boolean more = results.next();
+            while (more) {
+                chunk.add(results.get());
+                more = results.next();
+                if (chunk.size() == chunkSize || !more) {
+                    List<A> converted;
+                    if (parallel)
+                        converted = chunk.parallelStream().<A>map(converter).toList();
+                    else {
+                        converted = new ArrayList<>(chunk.size());
+                        for (T row : chunk)
+                            converted.add(converter.apply(row));
+                    }
+                    consumer.accept(converted);
+                    count += chunk.size();
+                    for (T row : chunk)
+                        session.evict(row);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (ownTransaction)
+                tx.commit();
+        } catch (RuntimeException e) {
+            if (ownTransaction)
+                safeRollback(tx);
+            throw e;
+        }
+        return count;
+    }
+
     public static MultiKeyCoefficientMap loadCoefficientMap(Class<?> clazz)
             throws IllegalArgumentException, SecurityException,
             IllegalAccessException, NoSuchFieldException {
@@ -358,4 +552,10 @@ public class DatabaseUtils {
         return MultiKeyCoefficientMapFactory.createMapFromAnnotatedList(res);
     }
 
+    public static CoefficientTable loadCoefficientTable(EntityManager entityManager, Class<?> clazz)
+            throws IllegalArgumentException, SecurityException,
+            IllegalAccessException, NoSuchFieldException {
+        return loadCoefficientMap(entityManager, clazz).toCoefficientTable();
+    }
+
 }
@@ -1,16 +1,54 @@
 package microsim.data.db.space;
 
 import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.EntityTransaction;
 
+import org.hibernate.Session;
+
 import microsim.engine.SimulationEngine;
+import microsim.space.DoubleSpace;
 import microsim.space.IntSpace;
 import microsim.space.ObjectSpace;
 
+/**
+ * Persists grids to the output database.
+ * <p>
+ * {@link #persistIntSpace(EntityManager, IntSpace, Class)} and
+ * {@link #persistObjectSpace(EntityManager, ObjectSpace, Class, String)} write
+ * one entity per cell, which can be queried cell by cell but is slow for large
+ * grids. The snapshot methods (e.g.
+ * {@link #persistIntSpaceSnapshot(EntityManager, IntSpace, String)}) write a
+ * whole grid as a single row of the {@value #SNAPSHOT_TABLE} table, keyed by
+ * run, time and layer name, whose binary value holds the matrix of the grid,
+ * deflated if {@link #compressSnapshots} is set; they are read back with
+ * {@link #loadIntSpace(EntityManager, long, double, String)} and
+ * {@link #loadDoubleSpace(EntityManager, long, double, String)}. The table is
+ * created through JDBC when the first snapshot is persisted, so it needs no
+ * entity mapping; loading never modifies the schema.
+ */
 public class SpaceEntityPersister {
 
+    public static final String SNAPSHOT_TABLE = "jasmine_space_snapshot";
+
+    /** Whether grid snapshots persisted from now on are compressed. */
+    public static boolean compressSnapshots = true;
+
+    private static final byte INT_VALUES = 0;
+    private static final byte DOUBLE_VALUES = 1;
+
     public static void persistIntSpace(EntityManager entityManager, IntSpace space,
             Class<? extends IIntSpaceEntity> entityClass) throws Exception {
         EntityTransaction tx = null;
@@ -68,4 +106,209 @@ public class SpaceEntityPersister {
 
         tx.commit();
     }
+
+    /**
+     * Persists an int grid as a single snapshot row, at the current run and time
+     * of the simulation.
+     *
+     * @param layer the name under which the grid is persisted.
+     */
+    public static void persistIntSpaceSnapshot(EntityManager entityManager, IntSpace space, String layer) {
+        byte[] data = new byte[byteSize(INT_VALUES, space.getXSize(), space.getYSize())];
+        ByteBuffer.wrap(data).asIntBuffer().put(space.getMatrix(), 0, space.getXSize() * space.getYSize());
+        persistSnapshot(entityManager, SimulationEngine.getInstance().getCurrentRunNumber(),
+                SimulationEngine.getInstance().getTime(), layer, space.getXSize(), space.getYSize(), INT_VALUES, data);
+    }
+
+    /**
+     * Persists a double grid as a single snapshot row, at the current run and
+     * time of the simulation.
+     *
+     * @param layer the name under which the grid is persisted.
+     */
+    public static void persistDoubleSpaceSnapshot(EntityManager entityManager, DoubleSpace space, String layer) {
+        byte[] data = new byte[byteSize(DOUBLE_VALUES, space.getXSize(), space.getYSize())];
+        ByteBuffer.wrap(data).asDoubleBuffer().put(space.getMatrix(), 0, space.getXSize() * space.getYSize());
+        persistSnapshot(entityManager, SimulationEngine.getInstance().getCurrentRunNumber(),
+                SimulationEngine.getInstance().getTime(), layer, space.getXSize(), space.getYSize(), DOUBLE_VALUES,
+                data);
+    }
+
+    /**
+     * Loads an int grid persisted by
+     * {@link #persistIntSpaceSnapshot(EntityManager, IntSpace, String)}.
+     *
+     * @return the grid, or null if there is no such snapshot.
+     * @throws IllegalArgumentException if the snapshot holds a double grid.
+     */
+    public static IntSpace loadIntSpace(EntityManager entityManager, long run, double time, String layer) {
+        Snapshot snapshot = loadSnapshot(entityManager, run, time, layer);
+        if (snapshot == null)
+            return null;
+        if (snapshot.valueType != INT_VALUES)
+            throw new IllegalArgumentException("Grid snapshot " + layer + " does not hold int values");
+        IntSpace space = new IntSpace(snapshot.xSize, snapshot.ySize);
+        ByteBuffer.wrap(snapshot.data).asIntBuffer().get(space.getMatrix(), 0, snapshot.xSize * snapshot.ySize);
+        return space;
+    }
+
+    /**
+     * Loads a double grid persisted by
+     * {@link #persistDoubleSpaceSnapshot(EntityManager, DoubleSpace, String)}.
+     *
+     * @return the grid, or null if there is no such snapshot.
+     * @throws IllegalArgumentException if the snapshot holds an int grid.
+     */
+    public static DoubleSpace loadDoubleSpace(EntityManager entityManager, long run, double time, String layer) {
+        Snapshot snapshot = loadSnapshot(entityManager, run, time, layer);
+        if (snapshot == null)
+            return null;
+        if (snapshot.valueType != DOUBLE_VALUES)
+            throw new IllegalArgumentException("Grid snapshot " + layer + " does not hold double values");
+        DoubleSpace space = new DoubleSpace(snapshot.xSize, snapshot.ySize);
+        ByteBuffer.wrap(snapshot.data).asDoubleBuffer().get(space.getMatrix(), 0, snapshot.xSize * snapshot.ySize);
+        return space;
+    }
+
+    private record Snapshot(int xSize, int ySize, byte valueType, byte[] data) {
+    }
+
+    private static void persistSnapshot(EntityManager entityManager, long run, double time, String layer, int xSize,
+            int ySize, byte valueType, byte[] data) {
+        boolean compressed = compressSnapshots;
+        byte[] stored = compressed ? deflate(data) : data;
+
+        EntityTransaction tx = entityManager.getTransaction();
+        tx.begin();
+        try {
+            entityManager.unwrap(Session.class).doWork(connection -> {
+                createSnapshotTable(connection);
+                try (PreparedStatement insert = connection.prepareStatement("insert into " + SNAPSHOT_TABLE
+                        + " (simulation_run, simulation_time, layer, x_size, y_size, value_type, compressed, data)"
+                        + " values (?, ?, ?, ?, ?, ?, ?, ?)")) {
+                    insert.setLong(1, run);
+                    insert.setDouble(2, time);
+                    insert.setString(3, layer);
+                    insert.setInt(4, xSize);
+                    insert.setInt(5, ySize);
+                    insert.setByte(6, valueType);
+                    insert.setBoolean(7, compressed);
+                    insert.setBytes(8, stored);
+                    insert.executeUpdate();
+                }
+            });
+        } catch (RuntimeException e) {
+            if (tx.isActive())
+                tx.rollback();
+            throw e;
+        }
+        tx.commit();
+    }
+
+    private static Snapshot loadSnapshot(EntityManager entityManager, long run, double time, String layer) {
+        return entityManager.unwrap(Session.class).doReturningWork(connection -> {
+            if (!snapshotTableExists(connection))
+                return null;
+            try (PreparedStatement select = connection.prepareStatement("select x_size, y_size, value_type,"
+                    + " compressed, data from " + SNAPSHOT_TABLE
+                    + " where simulation_run = ? and simulation_time = ? and layer = ?")) {
+                select.setLong(1, run);
+                select.setDouble(2, time);
+                select.setString(3, layer);
+                try (ResultSet rs = select.executeQuery()) {
+                    if (!rs.next())
+                        return null;
+                    int xSize = rs.getInt(1);
+                    int ySize = rs.getInt(2);
+                    byte valueType = rs.getByte(3);
+                    byte[] data = rs.getBytes(5);
+                    int length;
+                    try {
+                        length = byteSize(valueType, xSize, ySize);
+                    } catch (IllegalArgumentException e) {
+                        throw new SQLException("Invalid grid snapshot " + layer + ": " + e.getMessage(), e);
+                    }
+                    if (rs.getBoolean(4))
+                        data = inflate(data, length);
+                    else if (data.length != length)
+                        throw new SQLException("Truncated grid snapshot " + layer);
+                    return new Snapshot(xSize, ySize, valueType, data);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of bytes of the values of a grid.
+     * @throws IllegalArgumentException if the grid is too large to be held in a
+     *                                  byte array.
+     */
+    private static int byteSize(byte valueType, int xSize, int ySize) {
+        long size = (long) (valueType == INT_VALUES ? 4 : 8) * xSize * ySize;
+        if (xSize < 0 || ySize < 0 || size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException(
+                    "Grid of " + xSize + " x " + ySize + " cells is too large for a snapshot");
+        return (int) size;
+    }
+
+    private static boolean snapshotTableExists(Connection connection) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        for (String name : new String[] { SNAPSHOT_TABLE, SNAPSHOT_TABLE.toUpperCase() }) {
+            try (ResultSet tables = metaData.getTables(null, null, name, null)) {
+                if (tables.next())
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static void createSnapshotTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists " + SNAPSHOT_TABLE + " ("
+                    + "simulation_run bigint not null, simulation_time double precision not null,"
+                    + " layer varchar(255) not null, x_size integer not null, y_size integer not null,"
+                    + " value_type tinyint not null, compressed boolean not null, data blob not null,"
+                    + " primary key (simulation_run, simulation_time, layer))");
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, data.length / 4)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length)
+                    buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] data, int length) throws SQLException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            byte[] values = new byte[length];
+            int n = 0;
+            while (n < length && !inflater.finished()) {
+                int inflated = inflater.inflate(values, n, length - n);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += inflated;
+            }
+            if (n < length)
+                throw new SQLException("Truncated grid snapshot");
+            return values;
+        } catch (DataFormatException e) {
+            throw new SQLException("Corrupted grid snapshot", e);
+        } finally {
+            inflater.end();
+        }
+    }
 }
@@ -1,9 +1,15 @@
 package microsim.data.excel;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
+import microsim.data.CoefficientTable;
 import microsim.data.MultiKeyCoefficientMap;
 
 import org.apache.poi.EncryptedDocumentException;
@@ -11,6 +17,131 @@ import org.apache.poi.ss.usermodel.*;
 
 public class ExcelAssistant {
 
+    private static volatile boolean streaming = true;
+    private static volatile File cacheDirectory = null;
+
+    /**
+     * Enables or disables streaming of .xlsx workbooks. When enabled (the
+     * default), .xlsx worksheets are read with an event-based parser, and
+     * through the binary worksheet cache if one is set, instead of building the
+     * POI DOM of the whole workbook. Other formats are always read through the POI user model.
+     * 
+     * @param enabled true to stream .xlsx workbooks
+     */
+    public static void setStreaming(boolean enabled) {
+        streaming = enabled;
+    }
+
+    public static boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Sets the directory of the binary cache of parsed worksheets, which is
+     * disabled by default. Cached worksheets are keyed by the hash of the
+     * workbook content, so an unchanged workbook is not parsed again on later
+     * starts.
+     * <p>
+     * Cached files are read back without further checks, so the directory must
+     * only be writable by the user running the simulation; do not point it at a
+     * shared location such as the system temporary directory. A directory that
+     * does not exist is created with owner-only permissions where the file
+     * system supports them.
+     * 
+     * @param directory the cache directory, or null to disable the cache
+     */
+    public static void setCacheDirectory(File directory) {
+        cacheDirectory = directory;
+    }
+
+    public static File getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Reads a worksheet through the streaming reader and the worksheet cache.
+     */
+    static ExcelSheet loadSheet(String excelFileName, String sheetName) throws IOException {
+        ExcelSheet sheet = ExcelSheetCache.load(new File(excelFileName), List.of(sheetName), cacheDirectory)
+                .get(sheetName);
+        if (sheet == null)
+            throw new IllegalArgumentException("Worksheet " + sheetName + " not found in " + excelFileName);
+        return sheet;
+    }
+
+    /**
+     * Reads worksheets through the POI user model, opening the workbook once.
+     */
+    static Map<String, ExcelSheet> readWorkbook(File file, Collection<String> sheetNames) throws IOException {
+        var sheets = new HashMap<String, ExcelSheet>();
+        try (FileInputStream fileInputStream = new FileInputStream(file);
+                Workbook workbook = WorkbookFactory.create(fileInputStream)) {
+            for (String sheetName : sheetNames) {
+                long start = System.nanoTime();
+                Sheet worksheet = workbook.getSheet(sheetName);
+                if (worksheet == null)
+                    continue;
+                var builder = new ExcelSheet.Builder();
+                for (Row row : worksheet) {
+                    builder.addRow(row.getRowNum());
+                    for (Cell cell : row)
+                        builder.addCell(row.getRowNum(), cell.getColumnIndex(), getCellValue(cell));
+                }
+                ExcelSheet sheet = builder.build();
+                sheet.setReadNanos(System.nanoTime() - start);
+                sheets.put(sheetName, sheet);
+            }
+        }
+        return sheets;
+    }
+
+    static boolean isStreamable(String excelFileName) {
+        return streaming && XlsxStreamingReader.canRead(excelFileName);
+    }
+
+    private static String getHeaderValue(ExcelSheet sheet, int row, int column) {
+        Object val = sheet.getCellValue(row, column);
+        if (val == null)
+            throw new IllegalArgumentException("Missing header in column " + column + " of row " + (row + 1));
+        return MultiKeyCoefficientMap.toStringKey(val.toString());
+    }
+
+    /**
+     * Builds a MultiKeyCoefficientMap from worksheet data, with the conventions of
+     * {@link #loadCoefficientMap(String, String, int, int, int, int)}.
+     */
+    static MultiKeyCoefficientMap toCoefficientMap(ExcelSheet worksheet, int keyColumns, int valueColumns,
+            int startLine, int endLine) {
+        String[] keyVector = new String[keyColumns];
+        for (int j = 0; j < keyColumns; j++)
+            keyVector[j] = getHeaderValue(worksheet, startLine - 1, j);
+        String[] valueVector = new String[valueColumns];
+        for (int j = keyColumns; j < valueColumns + keyColumns; j++)
+            valueVector[j - keyColumns] = getHeaderValue(worksheet, startLine - 1, j);
+
+        MultiKeyCoefficientMap map = new MultiKeyCoefficientMap(keyVector, valueVector);
+        for (int i = startLine; i <= Math.min(worksheet.getLastRowNum(), endLine - 1); i++) {
+            if (worksheet.getRow(i) == null)
+                continue;
+            Object[] keyValueVector;
+            if (valueColumns == 1) {
+                keyValueVector = new Object[keyColumns + valueColumns];
+                for (int j = 0; j < keyColumns + valueColumns; j++)
+                    keyValueVector[j] = worksheet.getCellValue(i, j);
+            } else {
+                keyValueVector = new Object[keyColumns + 1];
+                for (int j = 0; j < keyColumns; j++)
+                    keyValueVector[j] = worksheet.getCellValue(i, j);
+                Object[] values = new Object[valueColumns];
+                for (int j = 0; j < valueColumns; j++)
+                    values[j] = worksheet.getCellValue(i, j + keyColumns);
+                keyValueVector[keyValueVector.length - 1] = values;
+            }
+            map.putValue(keyValueVector);
+        }
+        return map;
+    }
+
     private static Object getCellValue(Cell cell) {
         Object val = null;
         if (cell.getCellType() == CellType.STRING) {
@@ -62,6 +193,11 @@ public class ExcelAssistant {
         MultiKeyCoefficientMap map = null;
 
         try {
+            if (isStreamable(excelFileName)) {
+                ExcelSheet worksheet = loadSheet(excelFileName, sheetName);
+                int noOfColumns = worksheet.getPhysicalNumberOfCells(0);
+                return toCoefficientMap(worksheet, keyColumns, noOfColumns - keyColumns, 1, Integer.MAX_VALUE);
+            }
             FileInputStream fileInputStream = new FileInputStream(excelFileName);
             Workbook workbook = WorkbookFactory.create(fileInputStream);
             Sheet worksheet = workbook.getSheet(sheetName);
@@ -87,6 +223,22 @@ public class ExcelAssistant {
         return map;
     }
 
+    /**
+     * Load a read-only CoefficientTable from Excel spreadsheet data, with the same
+     * layout conventions as
+     * {@link #loadCoefficientMap(String, String, int)}.
+     * 
+     * @param excelFileName: the Excel workbook (.xls or .xlsx) that stores the data
+     * @param sheetName:     the Excel worksheet name that stores the data
+     * @param keyColumns:    the number of columns (stored to the left of the
+     *                       worksheet) that represent keys
+     * @return the table, or null if the worksheet could not be read
+     */
+    public static CoefficientTable loadCoefficientTable(String excelFileName, String sheetName, int keyColumns) {
+        MultiKeyCoefficientMap map = loadCoefficientMap(excelFileName, sheetName, keyColumns);
+        return map == null ? null : map.toCoefficientTable();
+    }
+
     public static int loadCoefficientMapTest(String excelFileName, String sheetName, int keyColumns, int valueColumns) {
 
         int noOfColumns = 0;
@@ -176,6 +328,9 @@ public class ExcelAssistant {
         MultiKeyCoefficientMap map = null;
 
         try {
+            if (isStreamable(excelFileName))
+                return toCoefficientMap(loadSheet(excelFileName, sheetName), keyColumns, valueColumns, startLine,
+                        endLine);
             FileInputStream fileInputStream = new FileInputStream(excelFileName);
             Workbook workbook = WorkbookFactory.create(fileInputStream);
             Sheet worksheet = workbook.getSheet(sheetName);
@@ -0,0 +1,100 @@
+package microsim.data.excel;
+
+import java.util.Arrays;
+
+/**
+ * Cell values of a worksheet, detached from POI.
+ * <p>
+ * Values follow the conversions of {@link ExcelAssistant}: strings are
+ * {@link String}s, booleans {@link Boolean}s, integral numbers
+ * {@link Integer}s and other numbers {@link Double}s; blank cells, errors and
+ * formulas are null.
+ */
+final class ExcelSheet {
+
+    private final Object[][] rows; // indexed by physical row number, null when the row is absent
+    private final int[] physicalCells;
+    private long readNanos;
+
+    ExcelSheet(Object[][] rows, int[] physicalCells) {
+        this.rows = rows;
+        this.physicalCells = physicalCells;
+    }
+
+    /**
+     * @return the time taken to parse the worksheet, or to load it from the
+     *         worksheet cache, in nanoseconds.
+     */
+    long getReadNanos() {
+        return readNanos;
+    }
+
+    void setReadNanos(long readNanos) {
+        this.readNanos = readNanos;
+    }
+
+    /**
+     * @return the (0-based) index of the last row, or -1 if the sheet is empty.
+     */
+    int getLastRowNum() {
+        return rows.length - 1;
+    }
+
+    /**
+     * @return the cell values of the row, or null if the row is absent.
+     */
+    Object[] getRow(int row) {
+        return row < rows.length ? rows[row] : null;
+    }
+
+    /**
+     * @return the number of cells of the row defined in the workbook.
+     */
+    int getPhysicalNumberOfCells(int row) {
+        return row < physicalCells.length ? physicalCells[row] : 0;
+    }
+
+    Object getCellValue(int row, int column) {
+        Object[] values = getRow(row);
+        return values == null || column >= values.length ? null : values[column];
+    }
+
+    /**
+     * Builder used by the readers, accepting cells in any order.
+     */
+    static final class Builder {
+        private Object[][] rows = new Object[64][];
+        private int[] physicalCells = new int[64];
+        private int lastRow = -1;
+
+        void addCell(int row, int column, Object value) {
+            ensureRow(row);
+            Object[] values = rows[row];
+            if (values == null)
+                values = rows[row] = new Object[Math.max(8, column + 1)];
+            else if (column >= values.length)
+                values = rows[row] = Arrays.copyOf(values, Math.max(column + 1, 2 * values.length));
+            values[column] = value;
+            physicalCells[row]++;
+        }
+
+        void addRow(int row) {
+            ensureRow(row);
+            if (rows[row] == null)
+                rows[row] = new Object[0];
+        }
+
+        private void ensureRow(int row) {
+            if (row >= rows.length) {
+                int size = Math.max(row + 1, 2 * rows.length);
+                rows = Arrays.copyOf(rows, size);
+                physicalCells = Arrays.copyOf(physicalCells, size);
+            }
+            lastRow = Math.max(lastRow, row);
+        }
+
+        ExcelSheet build() {
+            return new ExcelSheet(Arrays.copyOf(rows, lastRow + 1), Arrays.copyOf(physicalCells, lastRow + 1));
+        }
+    }
+}
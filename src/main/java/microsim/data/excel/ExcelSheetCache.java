@@ -0,0 +1,252 @@
+package microsim.data.excel;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Binary cache of parsed worksheets.
+ * <p>
+ * Each worksheet read from an .xlsx workbook is written to a compact binary
+ * file named after the SHA-256 hash of the workbook content and the name of the
+ * sheet. Later loads of the same, unchanged workbook memory-map that file
+ * instead of opening the workbook with POI. A modified workbook has a different
+ * hash, so stale entries are never read; they can be removed by deleting the
+ * cache directory.
+ * <p>
+ * The cache is disabled unless a directory is set through
+ * {@link ExcelAssistant#setCacheDirectory(File)}; the files in it are trusted,
+ * so it must be private to the user.
+ */
+final class ExcelSheetCache {
+
+    private static final Logger log = LogManager.getLogger(ExcelSheetCache.class);
+
+    private static final int MAGIC = 0x4A534D58; // "JSMX"
+    private static final int VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte INTEGER = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+
+    /** Workbook hashes, keyed by path, size and modification time. */
+    private static final Map<String, String> hashes = new ConcurrentHashMap<>();
+
+    private ExcelSheetCache() {
+    }
+
+    /**
+     * Returns the worksheets of a workbook, from the cache when possible and by
+     * streaming the workbook otherwise (updating the cache).
+     *
+     * @param file       an .xlsx workbook.
+     * @param sheetNames the worksheets to load.
+     * @param directory  the cache directory, or null to bypass the cache.
+     * @return the worksheets found, by name.
+     */
+    static Map<String, ExcelSheet> load(File file, List<String> sheetNames, File directory) throws IOException {
+        return load(file, sheetNames, directory, null);
+    }
+
+    /**
+     * As {@link #load(File, List, File)}, parsing the worksheets missing from the
+     * cache concurrently on {@code executor} (null to parse them in the calling
+     * thread).
+     */
+    static Map<String, ExcelSheet> load(File file, List<String> sheetNames, File directory, Executor executor)
+            throws IOException {
+        var sheets = new HashMap<String, ExcelSheet>();
+        var missing = new ArrayList<String>();
+        String hash = directory == null ? null : hash(file);
+        for (String sheetName : sheetNames) {
+            ExcelSheet sheet = null;
+            if (hash != null) {
+                Path path = cacheFile(directory, hash, sheetName);
+                if (Files.isRegularFile(path)) {
+                    try {
+                        long start = System.nanoTime();
+                        sheet = read(path);
+                        sheet.setReadNanos(System.nanoTime() - start);
+                    } catch (IOException | RuntimeException e) {
+                        log.warn("Ignoring unreadable worksheet cache " + path + ": " + e);
+                    }
+                }
+            }
+            if (sheet != null)
+                sheets.put(sheetName, sheet);
+            else
+                missing.add(sheetName);
+        }
+
+        if (!missing.isEmpty()) {
+            var parsed = XlsxStreamingReader.read(file, missing, executor);
+            sheets.putAll(parsed);
+            if (hash != null) {
+                for (var entry : parsed.entrySet()) {
+                    try {
+                        write(cacheFile(directory, hash, entry.getKey()), entry.getValue());
+                    } catch (IOException e) {
+                        log.warn("Could not write worksheet cache for " + file + " / " + entry.getKey() + ": " + e);
+                    }
+                }
+            }
+        }
+        return sheets;
+    }
+
+    private static Path cacheFile(File directory, String hash, String sheetName) {
+        byte[] name = sheetName.getBytes(StandardCharsets.UTF_8);
+        return directory.toPath().resolve(hash + "-" + HexFormat.of().formatHex(sha256(name), 0, 8) + ".bin");
+    }
+
+    static String hash(File file) throws IOException {
+        String key = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified();
+        String hash = hashes.get(key);
+        if (hash == null) {
+            MessageDigest digest = newDigest();
+            byte[] buffer = new byte[1 << 16];
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                int n;
+                while ((n = in.read(buffer)) > 0)
+                    digest.update(buffer, 0, n);
+            }
+            hash = HexFormat.of().formatHex(digest.digest());
+            hashes.put(key, hash);
+        }
+        return hash;
+    }
+
+    private static byte[] sha256(byte[] bytes) {
+        return newDigest().digest(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void write(Path path, ExcelSheet sheet) throws IOException {
+        createDirectory(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), "sheet", ".tmp");
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int numRows = sheet.getLastRowNum() + 1;
+            out.writeInt(numRows);
+            for (int r = 0; r < numRows; r++) {
+                Object[] row = sheet.getRow(r);
+                if (row == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(row.length);
+                out.writeInt(sheet.getPhysicalNumberOfCells(r));
+                for (Object value : row) {
+                    if (value == null) {
+                        out.writeByte(NULL);
+                    } else if (value instanceof Integer i) {
+                        out.writeByte(INTEGER);
+                        out.writeInt(i);
+                    } else if (value instanceof Double d) {
+                        out.writeByte(DOUBLE);
+                        out.writeDouble(d);
+                    } else if (value instanceof Boolean b) {
+                        out.writeByte(b ? TRUE : FALSE);
+                    } else {
+                        byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+                        out.writeByte(STRING);
+                        out.writeInt(bytes.length);
+                        out.write(bytes);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void createDirectory(Path directory) throws IOException {
+        if (Files.isDirectory(directory))
+            return;
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix"))
+            Files.createDirectories(directory,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        else
+            Files.createDirectories(directory);
+    }
+
+    static ExcelSheet read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+                throw new IOException("Not a worksheet cache file");
+            int numRows = buffer.getInt();
+            Object[][] rows = new Object[numRows][];
+            int[] physicalCells = new int[numRows];
+            for (int r = 0; r < numRows; r++) {
+                int length = buffer.getInt();
+                if (length < 0)
+                    continue;
+                physicalCells[r] = buffer.getInt();
+                Object[] row = new Object[length];
+                for (int c = 0; c < length; c++)
+                    row[c] = readValue(buffer);
+                rows[r] = row;
+            }
+            return new ExcelSheet(rows, physicalCells);
+        }
+    }
+
+    private static Object readValue(ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case NULL:
+                return null;
+            case INTEGER:
+                return buffer.getInt();
+            case DOUBLE:
+                return buffer.getDouble();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case STRING:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            default:
+                throw new IOException("Corrupted worksheet cache file");
+        }
+    }
+}
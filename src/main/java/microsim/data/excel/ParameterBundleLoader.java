@@ -0,0 +1,226 @@
+package microsim.data.excel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+import microsim.data.MultiKeyCoefficientMap;
+
+/**
+ * Loads many coefficient maps from Excel workbooks in one go, typically in the
+ * {@code buildObjects()} method of a model.
+ * <p>
+ * Worksheets are declared first, then loaded together: each workbook is opened
+ * once whatever the number of its worksheets that are requested, workbooks are
+ * read concurrently, the worksheets of a workbook are parsed concurrently, and
+ * .xlsx worksheets go through the binary worksheet cache (see
+ * {@link ExcelAssistant#setCacheDirectory(File)}). Maps are built with the same
+ * conventions as
+ * {@link ExcelAssistant#loadCoefficientMap(String, String, int, int)}.
+ *
+ * <pre>{@code
+ * var parameters = new ParameterBundleLoader()
+ *         .add("fertility", "input/parameters.xlsx", "Fertility", 2)
+ *         .add("mortality", "input/parameters.xlsx", "Mortality", 2, 1)
+ *         .add("wages", "input/wages.xlsx", "Wages", 1)
+ *         .load();
+ * MultiKeyCoefficientMap fertility = parameters.get("fertility");
+ * }</pre>
+ */
+public class ParameterBundleLoader {
+
+    /**
+     * Declaration of a worksheet to load.
+     *
+     * @param name          the name under which the map is returned.
+     * @param excelFileName the workbook.
+     * @param sheetName     the worksheet.
+     * @param keyColumns    the number of key columns.
+     * @param valueColumns  the number of value columns, or -1 to use all the
+     *                      columns of the header to the right of the keys.
+     */
+    public record SheetSpec(String name, String excelFileName, String sheetName, int keyColumns, int valueColumns) {
+    }
+
+    /**
+     * Time spent on a worksheet.
+     *
+     * @param readNanos  time to parse the worksheet, or to read it from the
+     *                   worksheet cache.
+     * @param buildNanos time to build the coefficient map.
+     */
+    public record Timing(long readNanos, long buildNanos) {
+        public double getMillis() {
+            return (readNanos + buildNanos) / 1e6;
+        }
+    }
+
+    /**
+     * The maps loaded by {@link ParameterBundleLoader#load()}, in declaration
+     * order.
+     */
+    public static final class Bundle {
+        private final Map<String, MultiKeyCoefficientMap> maps;
+        private final Map<String, Timing> timings;
+        private final long elapsedNanos;
+
+        private Bundle(Map<String, MultiKeyCoefficientMap> maps, Map<String, Timing> timings, long elapsedNanos) {
+            this.maps = Collections.unmodifiableMap(maps);
+            this.timings = Collections.unmodifiableMap(timings);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public MultiKeyCoefficientMap get(String name) {
+            MultiKeyCoefficientMap map = maps.get(name);
+            if (map == null)
+                throw new IllegalArgumentException("No parameter sheet named " + name + " in bundle");
+            return map;
+        }
+
+        public Map<String, MultiKeyCoefficientMap> getMaps() {
+            return maps;
+        }
+
+        public Map<String, Timing> getTimings() {
+            return timings;
+        }
+
+        /**
+         * @return the wall-clock time of the whole load, in nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+    }
+
+    private final List<SheetSpec> sheets = new ArrayList<>();
+
+    public ParameterBundleLoader add(String name, String excelFileName, String sheetName, int keyColumns) {
+        return add(new SheetSpec(name, excelFileName, sheetName, keyColumns, -1));
+    }
+
+    public ParameterBundleLoader add(String name, String excelFileName, String sheetName, int keyColumns,
+            int valueColumns) {
+        return add(new SheetSpec(name, excelFileName, sheetName, keyColumns, valueColumns));
+    }
+
+    public ParameterBundleLoader add(SheetSpec sheet) {
+        for (SheetSpec other : sheets)
+            if (other.name().equals(sheet.name()))
+                throw new IllegalArgumentException("Duplicate parameter sheet name " + sheet.name());
+        sheets.add(sheet);
+        return this;
+    }
+
+    public List<SheetSpec> getSheets() {
+        return Collections.unmodifiableList(sheets);
+    }
+
+    /**
+     * Loads all the declared worksheets, using as many threads as there are
+     * available processors.
+     */
+    public Bundle load() {
+        return load(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Loads all the declared worksheets.
+     *
+     * @param parallelism the number of threads parsing worksheets and building
+     *                    maps; workbooks are opened on up to as many other
+     *                    threads.
+     * @return the maps and timings.
+     * @throws IllegalArgumentException if a workbook or a worksheet cannot be
+     *                                  found.
+     * @throws UncheckedIOException     if a workbook cannot be read.
+     */
+    public Bundle load(int parallelism) {
+        long start = System.nanoTime();
+
+        // group the worksheets by workbook
+        var workbooks = new LinkedHashMap<File, List<SheetSpec>>();
+        for (SheetSpec sheet : sheets) {
+            File file = new File(sheet.excelFileName());
+            if (!file.isFile())
+                throw new IllegalArgumentException("Workbook " + sheet.excelFileName() + " not found");
+            try {
+                file = file.getCanonicalFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            workbooks.computeIfAbsent(file, f -> new ArrayList<>()).add(sheet);
+        }
+
+        // Workbooks are read on their own pool, as reading a workbook waits for its
+        // worksheets to be parsed on the other one: tasks of the same bounded pool
+        // never wait on each other, so neither pool can run out of threads.
+        int threads = Math.max(1, parallelism);
+        var workbookPool = new ForkJoinPool(Math.min(threads, Math.max(1, workbooks.size())));
+        var pool = new ForkJoinPool(threads);
+        try {
+            var futures = new LinkedHashMap<SheetSpec, CompletableFuture<Loaded>>();
+            for (var workbook : workbooks.entrySet()) {
+                File file = workbook.getKey();
+                List<SheetSpec> specs = workbook.getValue();
+                var contents = CompletableFuture.supplyAsync(() -> readWorkbook(file, specs, pool), workbookPool);
+                for (SheetSpec spec : specs)
+                    futures.put(spec, contents.thenApplyAsync(read -> build(spec, read.get(spec.sheetName())), pool));
+            }
+
+            var maps = new LinkedHashMap<String, MultiKeyCoefficientMap>();
+            var timings = new LinkedHashMap<String, Timing>();
+            for (SheetSpec spec : sheets) {
+                Loaded loaded;
+                try {
+                    loaded = futures.get(spec).join();
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof RuntimeException cause)
+                        throw cause;
+                    throw e;
+                }
+                maps.put(spec.name(), loaded.map);
+                timings.put(spec.name(), loaded.timing);
+            }
+            return new Bundle(maps, timings, System.nanoTime() - start);
+        } finally {
+            workbookPool.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    private record Loaded(MultiKeyCoefficientMap map, Timing timing) {
+    }
+
+    private static Map<String, ExcelSheet> readWorkbook(File file, List<SheetSpec> specs, ForkJoinPool pool) {
+        var names = specs.stream().map(SheetSpec::sheetName).distinct().toList();
+        try {
+            if (ExcelAssistant.isStreamable(file.getName()))
+                return ExcelSheetCache.load(file, names, ExcelAssistant.getCacheDirectory(), pool);
+            else
+                return ExcelAssistant.readWorkbook(file, names);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read workbook " + file, e);
+        }
+    }
+
+    private static Loaded build(SheetSpec spec, ExcelSheet sheet) {
+        if (sheet == null)
+            throw new IllegalArgumentException(
+                    "Worksheet " + spec.sheetName() + " not found in " + spec.excelFileName());
+        long start = System.nanoTime();
+        int valueColumns = spec.valueColumns() >= 0 ? spec.valueColumns()
+                : sheet.getPhysicalNumberOfCells(0) - spec.keyColumns();
+        MultiKeyCoefficientMap map = ExcelAssistant.toCoefficientMap(sheet, spec.keyColumns(), valueColumns, 1,
+                Integer.MAX_VALUE);
+        return new Loaded(map, new Timing(sheet.getReadNanos(), System.nanoTime() - start));
+    }
+}
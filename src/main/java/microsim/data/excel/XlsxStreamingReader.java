@@ -0,0 +1,230 @@
+package microsim.data.excel;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Event-based (SAX) reader of .xlsx worksheets.
+ * <p>
+ * Unlike {@code WorkbookFactory.create}, which builds the DOM of the whole
+ * workbook, the reader streams the XML of the requested worksheets only and
+ * keeps nothing but their cell values, so memory use is proportional to the
+ * data of the sheets that are loaded. Cell values are converted as by
+ * {@link ExcelAssistant}; in particular formula cells read as null, as they do
+ * when a workbook is loaded through the POI user model.
+ */
+final class XlsxStreamingReader {
+
+    private XlsxStreamingReader() {
+    }
+
+    /**
+     * @return true if the file is an OOXML workbook that this reader can stream.
+     */
+    static boolean canRead(String fileName) {
+        String name = fileName.toLowerCase();
+        return name.endsWith(".xlsx") || name.endsWith(".xlsm");
+    }
+
+    /**
+     * Reads the requested worksheets of a workbook, opening it once.
+     *
+     * @param file       the workbook.
+     * @param sheetNames the names of the worksheets to read.
+     * @return the worksheets found, by name; missing worksheets are absent from
+     *         the result.
+     */
+    static Map<String, ExcelSheet> read(File file, Collection<String> sheetNames) throws IOException {
+        return read(file, sheetNames, null);
+    }
+
+    /**
+     * Reads the requested worksheets of a workbook, opening it once. Without an
+     * executor, or when a single worksheet is requested, each worksheet is
+     * parsed straight from the workbook. Otherwise the XML of each worksheet is
+     * extracted from the workbook, sequentially, and handed to
+     * {@code executor} to be parsed while the next one is extracted.
+     *
+     * @param file       the workbook.
+     * @param sheetNames the names of the worksheets to read.
+     * @param executor   the executor parsing the worksheets, or null to parse
+     *                   them in the calling thread. Its tasks do not wait on each
+     *                   other, so it may be bounded, but it must not be the
+     *                   executor running the caller.
+     * @return the worksheets found, by name; missing worksheets are absent from
+     *         the result.
+     */
+    static Map<String, ExcelSheet> read(File file, Collection<String> sheetNames, Executor executor)
+            throws IOException {
+        var sheets = new HashMap<String, ExcelSheet>();
+        boolean parallel = executor != null && sheetNames.size() > 1;
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            var reader = new XSSFReader(pkg);
+            var strings = new ReadOnlySharedStringsTable(pkg);
+            var iterator = (XSSFReader.SheetIterator) reader.getSheetsData();
+            var futures = new LinkedHashMap<String, CompletableFuture<ExcelSheet>>();
+            while (iterator.hasNext()) {
+                try (InputStream in = iterator.next()) {
+                    String name = iterator.getSheetName();
+                    if (!sheetNames.contains(name))
+                        continue;
+                    if (!parallel) {
+                        sheets.put(name, parse(in, strings));
+                        continue;
+                    }
+                    byte[] content = in.readAllBytes();
+                    futures.put(name, CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return parse(new ByteArrayInputStream(content), strings);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, executor));
+                }
+            }
+
+            for (var entry : futures.entrySet()) {
+                try {
+                    sheets.put(entry.getKey(), entry.getValue().join());
+                } catch (CompletionException e) {
+                    if (e.getCause() instanceof UncheckedIOException io)
+                        throw io.getCause();
+                    throw e;
+                }
+            }
+        } catch (OpenXML4JException | SAXException e) {
+            throw new IOException("Could not stream workbook " + file + ": " + e.getMessage(), e);
+        }
+        return sheets;
+    }
+
+    private static ExcelSheet parse(InputStream content, ReadOnlySharedStringsTable strings) throws IOException {
+        long start = System.nanoTime();
+        var handler = new SheetHandler(strings);
+        try {
+            XMLReader parser = XMLHelper.newXMLReader();
+            parser.setContentHandler(handler);
+            parser.parse(new InputSource(content));
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Could not parse worksheet: " + e.getMessage(), e);
+        }
+        ExcelSheet sheet = handler.sheet.build();
+        sheet.setReadNanos(System.nanoTime() - start);
+        return sheet;
+    }
+
+    private static final class SheetHandler extends DefaultHandler {
+        private final ReadOnlySharedStringsTable strings;
+        private final ExcelSheet.Builder sheet = new ExcelSheet.Builder();
+        private final StringBuilder text = new StringBuilder();
+
+        private int row = -1;
+        private int column;
+        private String type;
+        private boolean formula;
+        private boolean collecting;
+
+        SheetHandler(ReadOnlySharedStringsTable strings) {
+            this.strings = strings;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (name(localName, qName)) {
+                case "row" -> {
+                    String r = attributes.getValue("r");
+                    row = r != null ? Integer.parseInt(r) - 1 : row + 1;
+                    column = 0;
+                    sheet.addRow(row);
+                }
+                case "c" -> {
+                    String r = attributes.getValue("r");
+                    if (r != null)
+                        column = columnIndex(r);
+                    type = attributes.getValue("t");
+                    formula = false;
+                    text.setLength(0);
+                }
+                case "f" -> formula = true;
+                case "v", "t" -> collecting = true;
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (name(localName, qName)) {
+                case "v", "t" -> collecting = false;
+                case "c" -> {
+                    sheet.addCell(row, column, formula ? null : value());
+                    column++;
+                }
+                default -> {
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting)
+                text.append(ch, start, length);
+        }
+
+        private Object value() {
+            if (type == null || type.equals("n")) {
+                if (text.length() == 0)
+                    return null;
+                double d = Double.parseDouble(text.toString());
+                if (d - (int) d == 0.0)
+                    return (int) d;
+                return d;
+            }
+            return switch (type) {
+                case "s" -> strings.getItemAt(Integer.parseInt(text.toString().trim())).getString();
+                case "inlineStr" -> text.toString();
+                case "b" -> "1".equals(text.toString().trim());
+                default -> null; // errors, formula strings, dates
+            };
+        }
+
+        private static String name(String localName, String qName) {
+            return localName == null || localName.isEmpty() ? qName : localName;
+        }
+
+        private static int columnIndex(String reference) {
+            int index = 0;
+            for (int i = 0; i < reference.length(); i++) {
+                char c = reference.charAt(i);
+                if (c < 'A' || c > 'Z')
+                    break;
+                index = index * 26 + (c - 'A' + 1);
+            }
+            return index - 1;
+        }
+    }
+}
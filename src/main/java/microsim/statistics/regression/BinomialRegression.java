@@ -35,6 +35,14 @@ public class BinomialRegression<E1 extends Enum<E1> & IntegerValuedEnum> impleme
         calculator = new ProbabilityCalculator(type);
     }
 
+    /**
+     * @param compiled true to compute scores through runtime-generated classes.
+     * @see ProbabilityCalculator#setCompiledScoring(boolean)
+     */
+    public void setCompiledScoring(boolean compiled) {
+        calculator.setCompiledScoring(compiled);
+    }
+
     public List<E1> getEventList() {
         return eventList;
     }
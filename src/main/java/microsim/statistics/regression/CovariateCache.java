@@ -0,0 +1,139 @@
+package microsim.statistics.regression;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import microsim.statistics.IDoubleSource;
+import microsim.statistics.IUpdatableSource;
+import microsim.statistics.TimeChecker;
+
+/**
+ * Opt-in, per-agent cache of regression covariates.
+ * <p>
+ * Agents usually implement {@link IDoubleSource#getDoubleValue(Enum)} as a
+ * large {@code switch} that often derives values (splines, interactions, ...)
+ * on every call, and several regressions evaluated in the same tick ask for
+ * the same covariates again. A {@code CovariateCache} wraps the agent and
+ * stores each covariate in a primitive array, one array per regressor enum
+ * class, the first time it is requested at the current simulation time. The
+ * cache is itself an {@link IDoubleSource}, so it can be passed to any
+ * regression scorer in place of the agent:
+ *
+ * <pre>{@code
+ * private final CovariateCache covariates = new CovariateCache(this);
+ * ...
+ * double p = regression.getProbability(covariates, Regressors.class);
+ * }</pre>
+ * <p>
+ * Values are invalidated through a {@link TimeChecker}: a request made at a
+ * later simulation time than the cached values recomputes them. Covariates are
+ * filled lazily, so enum constants that the agent does not support are never
+ * requested. When the state of the agent changes within a tick and the
+ * regressions evaluated afterwards must see the change, call
+ * {@link #invalidate()} (or {@link #updateSource()}). Disabling the time
+ * checker with {@link #setEnabled(boolean)} turns caching off altogether.
+ * <p>
+ * Instances are not thread-safe; each agent should own its own cache.
+ */
+public class CovariateCache implements IDoubleSource, IUpdatableSource {
+
+    private final IDoubleSource source;
+    private final TimeChecker timeChecker = new TimeChecker();
+    private final Map<Class<?>, Entry> entries = new IdentityHashMap<>(4);
+    private Entry lastEntry;
+    private int generation = 1;
+
+    private static final class Entry {
+        final Class<?> enumType;
+        final double[] values;
+        final int[] stamps;
+
+        Entry(Class<?> enumType, int size) {
+            this.enumType = enumType;
+            values = new double[size];
+            stamps = new int[size];
+        }
+    }
+
+    /**
+     * @param source the agent whose covariates are cached.
+     */
+    public CovariateCache(IDoubleSource source) {
+        if (source == null)
+            throw new IllegalArgumentException("Covariate source cannot be null");
+        this.source = source;
+    }
+
+    /**
+     * @return the underlying agent, e.g. to read the conditioning keys of
+     *         multi-key coefficient maps by reflection.
+     */
+    public IDoubleSource getSource() {
+        return source;
+    }
+
+    @Override
+    public double getDoubleValue(Enum<?> variableID) {
+        if (!timeChecker.isUpToDate())
+            invalidate();
+        Entry entry = getEntry(variableID.getDeclaringClass());
+        int i = variableID.ordinal();
+        if (entry.stamps[i] != generation) {
+            entry.values[i] = source.getDoubleValue(variableID);
+            entry.stamps[i] = generation;
+        }
+        return entry.values[i];
+    }
+
+    /**
+     * Discards every cached covariate, so that the next request calls back into
+     * the agent.
+     */
+    public void invalidate() {
+        generation++;
+        if (generation == 0) { // stamps start at 0, so never reuse it after overflow
+            for (Entry entry : entries.values())
+                Arrays.fill(entry.stamps, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Equivalent to {@link #invalidate()}.
+     */
+    @Override
+    public void updateSource() {
+        invalidate();
+    }
+
+    /**
+     * @return true if values are cached within a simulation time.
+     */
+    public boolean isEnabled() {
+        return timeChecker.isEnabled();
+    }
+
+    /**
+     * Enables or disables caching. When disabled every request calls back into
+     * the agent.
+     *
+     * @param enabled true to cache covariates within a simulation time.
+     */
+    public void setEnabled(boolean enabled) {
+        timeChecker.setEnabled(enabled);
+    }
+
+    private Entry getEntry(Class<?> enumType) {
+        Entry entry = lastEntry;
+        if (entry != null && entry.enumType == enumType)
+            return entry;
+        entry = entries.get(enumType);
+        if (entry == null) {
+            entry = new Entry(enumType, enumType.getEnumConstants().length);
+            entries.put(enumType, entry);
+        }
+        lastEntry = entry;
+        return entry;
+    }
+}
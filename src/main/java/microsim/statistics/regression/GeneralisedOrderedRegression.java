@@ -38,6 +38,14 @@ public class GeneralisedOrderedRegression<E1 extends Enum<E1> & IntegerValuedEnu
         calculator = new ProbabilityCalculator(type);
     }
 
+    /**
+     * @param compiled true to compute scores through runtime-generated classes.
+     * @see ProbabilityCalculator#setCompiledScoring(boolean)
+     */
+    public void setCompiledScoring(boolean compiled) {
+        calculator.setCompiledScoring(compiled);
+    }
+
     public List<E1> getEventList() {
         return eventList;
     }
@@ -52,15 +60,22 @@ public class GeneralisedOrderedRegression<E1 extends Enum<E1> & IntegerValuedEnu
         // P(y_j) = P(yhat_j-1|X) - P(yhat_j|X)
 
         var probs = new LinkedHashMap<E1, Double>();
-        double probHere, probPreceding = 1.0;
-        for (int ii = 0; ii < eventList.size() - 1; ii++) {
+        double[] eventProbs = new double[eventList.size() - 1];
+        for (int ii = 0; ii < eventProbs.length; ii++) {
 
             var event = eventList.get(ii);
             if (maps.get(event) == null)
                 throw new RuntimeException(
                         "generalised ordered logit expected but failed to find regression estimates for event "
                                 + event);
-            probHere = calculator.getProbability(maps.get(event), iDblSrc, Regressors);
+            eventProbs[ii] = calculator.getScore(maps.get(event), iDblSrc, Regressors);
+        }
+        calculator.getProbabilities(eventProbs, eventProbs);
+        double probHere, probPreceding = 1.0;
+        for (int ii = 0; ii < eventProbs.length; ii++) {
+
+            var event = eventList.get(ii);
+            probHere = eventProbs[ii];
             if (probHere > probPreceding) {
                 probs.put(event, -1.0);
             } else {
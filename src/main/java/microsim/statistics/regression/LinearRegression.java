@@ -22,6 +22,7 @@ import org.apache.commons.beanutils.PropertyUtils;
 public class LinearRegression implements ILinearRegression {
 
     private MultiKeyCoefficientMap map = null;
+    private volatile RegressionScorers.Cache scorers;
 
     /**
      * Construct a linear regression object.
@@ -180,7 +181,22 @@ public class LinearRegression implements ILinearRegression {
     // IDoubleSource methods
     // ------------------------------------------------------------------
 
+    /**
+     * Enables or disables scoring through runtime-generated classes, see
+     * {@link RegressionScorers}. The coefficient map must not be modified while
+     * compiled scoring is enabled.
+     * 
+     * @param compiled true to compute {@link #getScore(IDoubleSource, Class)}
+     *                 with generated classes.
+     */
+    public void setCompiledScoring(boolean compiled) {
+        scorers = compiled ? new RegressionScorers.Cache() : null;
+    }
+
     public <T extends Enum<T>> double getScore(IDoubleSource iDblSrc, Class<T> enumType) {
+        var compiled = scorers;
+        if (compiled != null)
+            return compiled.getScorer(map, enumType, iDblSrc).getScore(iDblSrc);
         if (map.getKeysNames().length == 1) {
             return computeScore(map, iDblSrc, enumType, true); // No additional conditioning regression keys used, so no
                                                                // need to check for them
@@ -327,7 +343,9 @@ public class LinearRegression implements ILinearRegression {
         // System.out.println("Reflection method");
         String[] coeffMultiMapKeysNames = coeffMultiMap.getKeysNames();
         try {
-            Map<?, ?> describedData = PropertyUtils.describe(iDblSrc);
+            // conditioning keys are properties of the agent, not of a cache wrapping it
+            Object agent = iDblSrc instanceof CovariateCache cache ? cache.getSource() : iDblSrc;
+            Map<?, ?> describedData = PropertyUtils.describe(agent);
             Map<String, String> propertyMap = new HashMap<String, String>();
 
             for (String key : coeffMultiMapKeysNames) {
@@ -370,6 +388,15 @@ public class LinearRegression implements ILinearRegression {
 
             }
 
+            if (coeffMultiMap.hasRangeKeys()) { // compare the band containing the agent's value
+                for (int k = 0; k < coeffMultiMapKeysNames.length; k++) {
+                    if (coeffMultiMap.isRangeKey(k)) {
+                        Object band = coeffMultiMap.toRangeKey(k, describedData.get(coeffMultiMapKeysNames[k]));
+                        propertyMap.put(coeffMultiMapKeysNames[k], band == null ? null : band.toString());
+                    }
+                }
+            }
+
             double sum = 0.;
             int regressorColumnIndex = -1;
             for (var iterator = coeffMultiMap.mapIterator(); iterator.hasNext();) {
@@ -487,7 +514,10 @@ public class LinearRegression implements ILinearRegression {
                     regressorColumnIndex = i;
                     attributes[i] = ""; // So we don't get null pointer exceptions later
                 } else {
-                    if (propertyMap.containsKey(key)) {
+                    if (coeffMultiMap.isRangeKey(i) && valueMap.containsKey(key)) {
+                        Object band = coeffMultiMap.toRangeKey(i, valueMap.get(key));
+                        attributes[i] = band == null ? null : band.toString();
+                    } else if (propertyMap.containsKey(key)) {
                         attributes[i] = propertyMap.get(key);
                     } else {
                         throw new IllegalArgumentException("The " + agent.getClass().getCanonicalName()
@@ -704,8 +734,10 @@ public class LinearRegression implements ILinearRegression {
                     regressorColumnIndex = i;
                     // System.out.println("regressor column index is " + regressorColumnIndex);
                 } else {
-                    if (!coeffMK.getKey(i).toString().equals(iObjSrc
-                            .getObjectValue(Enum.valueOf(enumTypeObject, coeffMultiMapKeysNames[i])).toString())) {
+                    Object value = iObjSrc.getObjectValue(Enum.valueOf(enumTypeObject, coeffMultiMapKeysNames[i]));
+                    if (coeffMultiMap.isRangeKey(i))
+                        value = coeffMultiMap.toRangeKey(i, value);
+                    if (value == null || !coeffMK.getKey(i).toString().equals(value.toString())) {
                         coeffMKapplicableForIDblSrc = false;
                         break;
                     }
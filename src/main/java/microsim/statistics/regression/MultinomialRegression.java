@@ -22,12 +22,35 @@ import static microsim.statistics.regression.RegressionUtils.populateMultinomial
  *         Define P(y_i=1|X) = exp(Xb_i) / sum(exp(Xb_1),...exp(Xb_n)) for all i
  *         Identification is permitted by normalising one category, k, such that
  *         exp(Xb_k) = 1.0
+ *
+ *         When every per-outcome coefficient map is keyed by regressor only,
+ *         the maps are compiled on first use into a single K x P coefficient
+ *         matrix over the union of the regressors, so that covariates are read
+ *         once per agent and all the scores come from one matrix-vector
+ *         product, followed by a log-sum-exp softmax.
  *****************************************************************/
 public class MultinomialRegression<E1 extends Enum<E1> & IntegerValuedEnum> implements IDiscreteChoiceModel<E1> {
 
     Map<E1, MultiKeyCoefficientMap> maps;
     private List<E1> eventList;
     ProbabilityCalculator calculator;
+    private volatile CoefficientMatrix matrix;
+
+    /**
+     * Dense coefficients of all the outcomes, row-major by outcome in the order of
+     * the event list; rows of the normalised outcome are zero.
+     */
+    private static final class CoefficientMatrix {
+        final Class<?> regressors;
+        final Enum<?>[] covariates; // null when the maps cannot be compiled
+        final double[] coefficients;
+
+        CoefficientMatrix(Class<?> regressors, Enum<?>[] covariates, double[] coefficients) {
+            this.regressors = regressors;
+            this.covariates = covariates;
+            this.coefficients = coefficients;
+        }
+    }
 
     public MultinomialRegression(RegressionType type, Class<E1> enumType,
             MultiKeyCoefficientMap multinomialCoefficients) {
@@ -52,6 +75,14 @@ public class MultinomialRegression<E1 extends Enum<E1> & IntegerValuedEnum> impl
         calculator = new ProbabilityCalculator(type);
     }
 
+    /**
+     * @param compiled true to compute scores through runtime-generated classes.
+     * @see ProbabilityCalculator#setCompiledScoring(boolean)
+     */
+    public void setCompiledScoring(boolean compiled) {
+        calculator.setCompiledScoring(compiled);
+    }
+
     public List<E1> getEventList() {
         return eventList;
     }
@@ -63,8 +94,16 @@ public class MultinomialRegression<E1 extends Enum<E1> & IntegerValuedEnum> impl
     public <E2 extends Enum<E2>> Map<E1, Double> getProbabilities(IDoubleSource iDblSrc, Class<E2> Regressors) {
         // P(y_i=1|X) = exp(Xb_i) / sum(exp(Xb_1),...exp(Xb_n))
 
-        var expScores = new HashMap<E1, Double>();
         var probs = new LinkedHashMap<E1, Double>();
+        if (getMatrix(Regressors).covariates != null) {
+            double[] values = new double[eventList.size()];
+            getProbabilities(iDblSrc, Regressors, values);
+            for (int k = 0; k < values.length; k++)
+                probs.put(eventList.get(k), values[k]);
+            return probs;
+        }
+
+        var expScores = new HashMap<E1, Double>();
         double denominator = 1.0;
         int countEventProbs = 0;
         for (var event : maps.keySet()) {
@@ -84,4 +123,106 @@ public class MultinomialRegression<E1 extends Enum<E1> & IntegerValuedEnum> impl
 
         return probs;
     }
+
+    /**
+     * Writes the probabilities of all the outcomes into {@code probs}, in the
+     * order of {@link #getEventList()}, without allocating a result map. Each
+     * covariate is read from {@code iDblSrc} once.
+     *
+     * @param iDblSrc    the agent.
+     * @param Regressors the regressor enum.
+     * @param probs      the array receiving the probabilities, of length at least
+     *                   the number of events.
+     */
+    public <E2 extends Enum<E2>> void getProbabilities(IDoubleSource iDblSrc, Class<E2> Regressors, double[] probs) {
+        int numEvents = eventList.size();
+        if (probs.length < numEvents)
+            throw new IllegalArgumentException("Probability array is shorter than the number of events");
+
+        CoefficientMatrix compiled = getMatrix(Regressors);
+        if (compiled.covariates == null) {
+            Map<E1, Double> values = getProbabilities(iDblSrc, Regressors);
+            for (int k = 0; k < numEvents; k++)
+                probs[k] = values.get(eventList.get(k));
+            return;
+        }
+
+        Enum<?>[] covariates = compiled.covariates;
+        double[] coefficients = compiled.coefficients;
+        int numCovariates = covariates.length;
+
+        // scores, accumulated in probs covariate by covariate so that no scratch
+        // array is needed, then log-sum-exp softmax (the normalised outcome has a
+        // zero row)
+        Arrays.fill(probs, 0, numEvents, 0.0);
+        for (int j = 0; j < numCovariates; j++) {
+            double x = iDblSrc.getDoubleValue(covariates[j]);
+            for (int k = 0; k < numEvents; k++)
+                probs[k] += coefficients[k * numCovariates + j] * x;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = 0; k < numEvents; k++)
+            if (probs[k] > max)
+                max = probs[k];
+        double denominator = 0.0;
+        for (int k = 0; k < numEvents; k++) {
+            probs[k] = Math.exp(probs[k] - max);
+            denominator += probs[k];
+        }
+        for (int k = 0; k < numEvents; k++)
+            probs[k] /= denominator;
+    }
+
+    private CoefficientMatrix getMatrix(Class<?> Regressors) {
+        CoefficientMatrix compiled = matrix;
+        if (compiled == null || compiled.regressors != Regressors) {
+            compiled = compileMatrix(Regressors);
+            matrix = compiled;
+        }
+        return compiled;
+    }
+
+    private CoefficientMatrix compileMatrix(Class<?> Regressors) {
+        if (maps.size() != eventList.size() - 1)
+            throw new RuntimeException(
+                    "Multinomial regression has been supplied with the wrong number of scores to construct probability");
+
+        var index = new LinkedHashMap<Enum<?>, Integer>();
+        var rows = new ArrayList<Map<Enum<?>, Double>>();
+        for (var event : eventList) {
+            var map = maps.get(event);
+            var row = new HashMap<Enum<?>, Double>();
+            rows.add(row);
+            if (map == null)
+                continue;
+            if (map.getKeysNames().length != 1)
+                return new CoefficientMatrix(Regressors, null, null);
+            boolean singleValue = map.getValuesNames().length == 1;
+            String columnName = RegressionColumnNames.COEFFICIENT.toString();
+            for (var iterator = map.mapIterator(); iterator.hasNext();) {
+                iterator.next();
+                String regressor = iterator.getKey().getKey(0).toString();
+                Object value = singleValue ? map.getValue(regressor) : map.getValue(regressor, columnName);
+                Enum<?> covariate = toEnumConstant(Regressors, regressor);
+                if (!(value instanceof Number) || covariate == null)
+                    return new CoefficientMatrix(Regressors, null, null);
+                index.putIfAbsent(covariate, index.size());
+                row.merge(covariate, ((Number) value).doubleValue(), Double::sum);
+            }
+        }
+
+        int numCovariates = index.size();
+        double[] coefficients = new double[eventList.size() * numCovariates];
+        for (int k = 0; k < rows.size(); k++)
+            for (var entry : rows.get(k).entrySet())
+                coefficients[k * numCovariates + index.get(entry.getKey())] = entry.getValue();
+        return new CoefficientMatrix(Regressors, index.keySet().toArray(new Enum<?>[0]), coefficients);
+    }
+
+    private static Enum<?> toEnumConstant(Class<?> Regressors, String name) {
+        for (Object constant : Regressors.getEnumConstants())
+            if (((Enum<?>) constant).name().equals(name))
+                return (Enum<?>) constant;
+        return null;
+    }
 }
@@ -33,6 +33,7 @@ public class OrderedRegression<E1 extends Enum<E1> & IntegerValuedEnum> implemen
     MultiKeyCoefficientMap map;
     private List<E1> eventList;
     ProbabilityCalculator calculator;
+    private double[] cuts;
 
     public OrderedRegression(RegressionType type, Class<E1> enumType, MultiKeyCoefficientMap map) {
         this.map = map;
@@ -59,6 +60,24 @@ public class OrderedRegression<E1 extends Enum<E1> & IntegerValuedEnum> implemen
         }
     }
 
+    private double[] getCuts() {
+        if (cuts == null) {
+            double[] values = new double[eventList.size() - 1];
+            for (int ii = 0; ii < values.length; ii++)
+                values[ii] = getCoefficient(Strings.concat("Cut", Integer.toString(ii + 1)));
+            cuts = values;
+        }
+        return cuts;
+    }
+
+    /**
+     * @param compiled true to compute scores through runtime-generated classes.
+     * @see ProbabilityCalculator#setCompiledScoring(boolean)
+     */
+    public void setCompiledScoring(boolean compiled) {
+        calculator.setCompiledScoring(compiled);
+    }
+
     public List<E1> getEventList() {
         return eventList;
     }
@@ -74,13 +93,15 @@ public class OrderedRegression<E1 extends Enum<E1> & IntegerValuedEnum> implemen
 
         var probs = new LinkedHashMap<E1, Double>();
         double score = calculator.getScore(map, iDblSrc, Regressors);
+        double[] cutProbs = getCuts().clone();
+        for (int ii = 0; ii < cutProbs.length; ii++)
+            cutProbs[ii] -= score;
+        calculator.getProbabilities(cutProbs, cutProbs);
         double probHere, probPreceding = 0.0;
-        for (int ii = 0; ii < eventList.size() - 1; ii++) {
+        for (int ii = 0; ii < cutProbs.length; ii++) {
 
             var event = eventList.get(ii);
-            String key = Strings.concat("Cut", Integer.toString(ii + 1));
-            double cutVal = getCoefficient(key);
-            probHere = calculator.getProbability(cutVal - score);
+            probHere = cutProbs[ii];
             if (probHere < probPreceding) {
                 throw new RuntimeException("estimated cuts for ordered regression must be increasing in categories");
             } else {
@@ -1,7 +1,6 @@
 package microsim.statistics.regression;
 
-import cern.jet.random.Normal;
-import cern.jet.random.engine.MersenneTwister;
+import cern.jet.stat.Probability;
 import microsim.data.MultiKeyCoefficientMap;
 import microsim.statistics.IDoubleSource;
 
@@ -24,16 +23,34 @@ import microsim.statistics.IDoubleSource;
 public class ProbabilityCalculator {
 
     RegressionType type;
-    // NormalDistribution normalDistribution = new NormalDistribution();
-    private Normal normalDistribution = new Normal(0.0, 1.0, new MersenneTwister(0));
+    private volatile RegressionScorers.Cache scorers;
 
     public ProbabilityCalculator(RegressionType type) {
         this.type = type;
     }
 
+    /**
+     * Enables or disables scoring through runtime-generated classes, see
+     * {@link RegressionScorers}. Coefficient maps must not be modified while
+     * compiled scoring is enabled; disabling it discards the generated scorers.
+     *
+     * @param compiled true to score with generated classes.
+     */
+    public void setCompiledScoring(boolean compiled) {
+        scorers = compiled ? new RegressionScorers.Cache() : null;
+    }
+
+    public boolean isCompiledScoring() {
+        return scorers != null;
+    }
+
     public <E extends Enum<E>> double getScore(MultiKeyCoefficientMap map, IDoubleSource iDblSrc, Class<E> Regressors) {
         // Xb
 
+        var compiled = scorers;
+        if (compiled != null)
+            return compiled.getScorer(map, Regressors, iDblSrc).getScore(iDblSrc);
+
         double score;
         if (map.getKeysNames().length == 1)
             score = LinearRegression.computeScore(map, iDblSrc, Regressors, true); // No additional conditioning
@@ -62,14 +79,67 @@ public class ProbabilityCalculator {
         if (type.getValue() == 0)
             probability = 1.0 / (1.0 + Math.exp(-score));
         else if (type.getValue() == 1)
-            // probability = normalDistribution.cumulativeProbability(score);
-            probability = normalDistribution.cdf(score);
+            // same evaluation as cern.jet.random.Normal(0,1).cdf(score), without
+            // the generator that the distribution object carries around
+            probability = Probability.normal(0.0, 1.0, score);
         else
             throw new IllegalArgumentException(
                     "Unsupported regression type for generating probability: " + type.name());
         return probability;
     }
 
+    /**
+     * Evaluates the link function of this calculator for a whole array of scores.
+     *
+     * @param scores the scores (Xb) to transform.
+     * @param out    the array receiving the probabilities; may be {@code scores}
+     *               itself, in which case the transformation is done in place.
+     * @see #toProbabilities(double[], double[], RegressionType)
+     */
+    public void getProbabilities(double[] scores, double[] out) {
+        toProbabilities(scores, out, type);
+    }
+
+    /**
+     * Evaluates the cumulative distribution function associated with a regression
+     * type for every element of {@code scores}, writing the results into
+     * {@code out}. The results are identical to those of
+     * {@link #getProbability(double)} called element by element, but the
+     * regression type is resolved once and the link function is applied in a
+     * single tight loop, which suits population-wide scoring and models that
+     * evaluate several CDFs per agent (ordered and generalised ordered models).
+     * <p>
+     * Logit types use {@code 1 / (1 + exp(-x))}; probit types use the rational
+     * (Cephes) approximation of the error function in
+     * {@link cern.jet.stat.Probability#normal(double, double, double)}.
+     *
+     * @param scores the scores (Xb) to transform.
+     * @param out    the array receiving the probabilities, at least as long as
+     *               {@code scores}; may be {@code scores} itself.
+     * @param type   the regression type, which determines the link function.
+     * @throws IllegalArgumentException if {@code out} is shorter than
+     *                                  {@code scores} or the regression type has
+     *                                  no probability link.
+     */
+    public static void toProbabilities(double[] scores, double[] out, RegressionType type) {
+        int n = scores.length;
+        if (out.length < n)
+            throw new IllegalArgumentException("Output array is shorter than the array of scores");
+        switch (type.getValue()) {
+            case 0:
+                for (int i = 0; i < n; i++)
+                    out[i] = 1.0 / (1.0 + Math.exp(-scores[i]));
+                break;
+            case 1:
+                for (int i = 0; i < n; i++)
+                    out[i] = Probability.normal(0.0, 1.0, scores[i]);
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported regression type for generating probability: " + type.name());
+        }
+    }
+
     public <E extends Enum<E>> double getProbability(MultiKeyCoefficientMap map, IDoubleSource iDblSrc,
             Class<E> Regressors) {
 
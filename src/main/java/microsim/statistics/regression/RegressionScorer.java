@@ -0,0 +1,14 @@
+package microsim.statistics.regression;
+
+import microsim.statistics.IDoubleSource;
+
+/**
+ * Computes the score (Xb) of a regression for an agent. Scorers are bound to a
+ * single coefficient map and regressor enum, see
+ * {@link RegressionScorers#compile(microsim.data.MultiKeyCoefficientMap, Class, Class)}.
+ */
+@FunctionalInterface
+public interface RegressionScorer {
+
+    double getScore(IDoubleSource iDblSrc);
+}
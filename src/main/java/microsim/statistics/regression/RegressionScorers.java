@@ -0,0 +1,232 @@
+package microsim.statistics.regression;
+
+import static java.lang.constant.ConstantDescs.CD_Enum;
+import static java.lang.constant.ConstantDescs.CD_Object;
+import static java.lang.constant.ConstantDescs.CD_double;
+import static java.lang.constant.ConstantDescs.CD_void;
+import static java.lang.constant.ConstantDescs.INIT_NAME;
+import static java.lang.constant.ConstantDescs.MTD_void;
+
+import java.lang.classfile.ClassFile;
+import java.lang.constant.ClassDesc;
+import java.lang.constant.MethodTypeDesc;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import microsim.data.MultiKeyCoefficientMap;
+import microsim.statistics.IDoubleSource;
+
+/**
+ * Factory of {@link RegressionScorer}s.
+ * <p>
+ * For coefficient maps whose only key is the regressor name, {@link #compile}
+ * generates a hidden class (see
+ * {@link java.lang.invoke.MethodHandles.Lookup#defineHiddenClass}) whose
+ * {@code getScore} method is the dot product over the non-zero coefficients of
+ * the map, unrolled, with the coefficients embedded as constants. When the
+ * agent class is accessible from this library the covariates are read through
+ * a direct, monomorphic call to its {@code getDoubleValue} method. The
+ * coefficients are those of the map at the time the scorer is compiled:
+ * changes made to the map afterwards are not seen by the scorer.
+ * <p>
+ * Maps with conditioning keys (gender, region, ...), regressors that are not
+ * constants of the regressor enum, non-numeric coefficients, or any failure to
+ * generate the class fall back to the interpreted computation of
+ * {@link LinearRegression#computeScore}, so a scorer can always be obtained. A
+ * failure only affects the map it occurred for: the {@link Cache} keeps the
+ * interpreted scorer for that map, and other maps are still compiled.
+ */
+public final class RegressionScorers {
+
+    private static final Logger log = LogManager.getLogger(RegressionScorers.class);
+
+    private static final ClassDesc CD_IDoubleSource = ClassDesc.of(IDoubleSource.class.getName());
+    private static final ClassDesc CD_RegressionScorer = ClassDesc.of(RegressionScorer.class.getName());
+    private static final ClassDesc CD_Compiled = ClassDesc.of(RegressionScorers.class.getPackageName(),
+            "RegressionScorers$Compiled");
+    private static final MethodTypeDesc MTD_getDoubleValue = MethodTypeDesc.of(CD_double, CD_Enum);
+
+    private RegressionScorers() {
+    }
+
+    /**
+     * Returns a scorer that computes the same score as
+     * {@link ProbabilityCalculator#getScore(MultiKeyCoefficientMap, IDoubleSource, Class)},
+     * generating bytecode where possible.
+     *
+     * @param map        the regression coefficients.
+     * @param regressors the regressor enum used by the agents.
+     * @param agentClass the class of the agents that will be scored, or null if
+     *                   it is not known; the scorer accepts any
+     *                   {@link IDoubleSource} when null.
+     * @param <E>        the regressor enum type.
+     * @return the compiled scorer, or an interpreted one when compilation is
+     *         not possible.
+     */
+    public static <E extends Enum<E>> RegressionScorer compile(MultiKeyCoefficientMap map, Class<E> regressors,
+            Class<?> agentClass) {
+        if (map.getKeysNames().length == 1) {
+            try {
+                RegressionScorer scorer = generate(map, regressors, agentClass);
+                if (scorer != null)
+                    return scorer;
+            } catch (Throwable e) {
+                log.warn("Could not generate a regression scorer for " + regressors.getSimpleName()
+                        + ", using interpreted scoring instead: " + e);
+            }
+        }
+        return interpreted(map, regressors);
+    }
+
+    /**
+     * @return a scorer that delegates to the interpreted computation of
+     *         {@link LinearRegression#computeScore}.
+     */
+    public static <E extends Enum<E>> RegressionScorer interpreted(MultiKeyCoefficientMap map, Class<E> regressors) {
+        if (map.getKeysNames().length == 1)
+            return iDblSrc -> LinearRegression.computeScore(map, iDblSrc, regressors, true);
+        else
+            return iDblSrc -> LinearRegression.computeScore(map, iDblSrc, regressors);
+    }
+
+    private static <E extends Enum<E>> RegressionScorer generate(MultiKeyCoefficientMap map, Class<E> regressors,
+            Class<?> agentClass) throws Throwable {
+
+        // collect the terms in the iteration order of the interpreter, so that sums are identical
+        var keys = new ArrayList<Enum<?>>();
+        var coefficients = new ArrayList<Double>();
+        boolean singleValue = map.getValuesNames().length == 1;
+        String columnName = RegressionColumnNames.COEFFICIENT.toString();
+        for (var iterator = map.mapIterator(); iterator.hasNext();) {
+            iterator.next();
+            String regressor = iterator.getKey().getKey(0).toString();
+            Object value = singleValue ? map.getValue(regressor) : map.getValue(regressor, columnName);
+            if (!(value instanceof Number))
+                return null;
+            double coefficient = ((Number) value).doubleValue();
+            if (coefficient == 0.0)
+                continue;
+            E key;
+            try {
+                key = Enum.valueOf(regressors, regressor);
+            } catch (IllegalArgumentException e) {
+                return null; // let the interpreter report the missing regressor when scoring
+            }
+            keys.add(key);
+            coefficients.add(coefficient);
+        }
+
+        ClassDesc sourceDesc = isLinkable(agentClass) ? ClassDesc.of(agentClass.getName()) : null;
+        ClassDesc keysDesc = CD_Enum.arrayType();
+        byte[] bytes = ClassFile.of().build(CD_Compiled, clb -> {
+            clb.withFlags(ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL | ClassFile.ACC_SUPER);
+            clb.withInterfaceSymbols(CD_RegressionScorer);
+            clb.withField("keys", keysDesc, ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL);
+            clb.withMethodBody(INIT_NAME, MethodTypeDesc.of(CD_void, keysDesc), ClassFile.ACC_PUBLIC, cob -> cob
+                    .aload(0)
+                    .invokespecial(CD_Object, INIT_NAME, MTD_void)
+                    .aload(0)
+                    .aload(1)
+                    .putfield(CD_Compiled, "keys", keysDesc)
+                    .return_());
+            clb.withMethodBody("getScore", MethodTypeDesc.of(CD_double, CD_IDoubleSource),
+                    ClassFile.ACC_PUBLIC | ClassFile.ACC_FINAL, cob -> {
+                        cob.aload(0).getfield(CD_Compiled, "keys", keysDesc).astore(2);
+                        if (sourceDesc != null)
+                            cob.aload(1).checkcast(sourceDesc).astore(1);
+                        cob.dconst_0();
+                        for (int i = 0; i < keys.size(); i++) {
+                            cob.aload(1).aload(2).loadConstant(i).aaload();
+                            if (sourceDesc != null)
+                                cob.invokevirtual(sourceDesc, "getDoubleValue", MTD_getDoubleValue);
+                            else
+                                cob.invokeinterface(CD_IDoubleSource, "getDoubleValue", MTD_getDoubleValue);
+                            cob.loadConstant(coefficients.get(i)).dmul().dadd();
+                        }
+                        cob.dreturn();
+                    });
+        });
+
+        var lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        var constructor = lookup.findConstructor(lookup.lookupClass(),
+                MethodType.methodType(void.class, Enum[].class));
+        return (RegressionScorer) constructor.invoke(keys.toArray(new Enum<?>[0]));
+    }
+
+    /**
+     * Whether generated code can refer to the agent class directly, i.e. it is a
+     * public, non-hidden class resolved identically from this library's class
+     * loader.
+     */
+    private static boolean isLinkable(Class<?> agentClass) {
+        if (agentClass == null || agentClass.isHidden() || agentClass.isArray() || agentClass.isInterface()
+                || !IDoubleSource.class.isAssignableFrom(agentClass) || !Modifier.isPublic(agentClass.getModifiers()))
+            return false;
+        try {
+            return Class.forName(agentClass.getName(), false, RegressionScorers.class.getClassLoader()) == agentClass;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Thread-safe cache of scorers, one per (coefficient map, agent class) pair.
+     * Maps are compared by identity. A cache is typically owned by the regression
+     * object that owns the maps, so that the generated classes can be unloaded
+     * together with it.
+     * <p>
+     * A regression object only ever scores a few pairs, so the scorers are kept
+     * in a small copy-on-write array that is scanned by identity: a lookup on
+     * the scoring path allocates nothing and takes no lock.
+     */
+    public static final class Cache {
+
+        private record Entry(MultiKeyCoefficientMap map, Class<?> regressors, Class<?> agentClass,
+                RegressionScorer scorer) {
+        }
+
+        private volatile Entry[] entries = new Entry[0];
+
+        /**
+         * @return the scorer for the map and the class of {@code iDblSrc},
+         *         compiling it on first use.
+         */
+        public <E extends Enum<E>> RegressionScorer getScorer(MultiKeyCoefficientMap map, Class<E> regressors,
+                IDoubleSource iDblSrc) {
+            Class<?> agentClass = iDblSrc.getClass();
+            for (Entry entry : entries) {
+                if (entry.map == map && entry.agentClass == agentClass && entry.regressors == regressors)
+                    return entry.scorer;
+            }
+            return add(map, regressors, agentClass);
+        }
+
+        private synchronized <E extends Enum<E>> RegressionScorer add(MultiKeyCoefficientMap map,
+                Class<E> regressors, Class<?> agentClass) {
+            Entry[] current = entries;
+            for (Entry entry : current) {
+                if (entry.map == map && entry.agentClass == agentClass && entry.regressors == regressors)
+                    return entry.scorer;
+            }
+            RegressionScorer scorer = compile(map, regressors, agentClass);
+            Entry[] updated = Arrays.copyOf(current, current.length + 1);
+            updated[current.length] = new Entry(map, regressors, agentClass, scorer);
+            entries = updated;
+            return scorer;
+        }
+
+        /**
+         * Discards every cached scorer, e.g. after the coefficient maps have been
+         * modified.
+         */
+        public synchronized void clear() {
+            entries = new Entry[0];
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package microsim.alignment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.alignment.probability.AlignmentProbabilityClosure;
+import microsim.alignment.probability.LogitScalingBinaryAlignment;
+import microsim.alignment.probability.MultiplicativeScalingAlignment;
+
+class AlignmentCollectorTests {
+
+    static class Agent {
+        final double prob;
+        double aligned;
+
+        Agent(double prob) {
+            this.prob = prob;
+        }
+    }
+
+    private static final AlignmentProbabilityClosure<Agent> closure = new AlignmentProbabilityClosure<Agent>() {
+        @Override
+        public double getProbability(Agent agent) {
+            return agent.prob;
+        }
+
+        @Override
+        public void align(Agent agent, double alignedProbability) {
+            agent.aligned = alignedProbability;
+        }
+    };
+
+    @Test
+    void collectsResultsPerTime() {
+        List<Agent> agents = new ArrayList<>();
+        for (int i = 0; i < 1000; i++)
+            agents.add(new Agent((i % 10 + 1) / 20.));
+
+        double[] time = { 0. };
+        var collector = new AlignmentCollector(() -> time[0]);
+        AlignmentDiagnostics.addListener(collector);
+        try {
+            var logit = new LogitScalingBinaryAlignment<Agent>();
+            logit.align(agents, null, closure, 0.4, 1000, 1.e-10, false);
+            new MultiplicativeScalingAlignment<Agent>().align(agents, null, closure, 0.2);
+            time[0] = 1.;
+            logit.align(agents, null, closure, 0.1, 1000, 1.e-10, false);
+            logit.align(agents, agent -> agent.prob > 0.25, closure, 0.5, 1000, 1.e-10, false);
+        } finally {
+            AlignmentDiagnostics.removeListener(collector);
+        }
+
+        List<AlignmentCollector.Entry> entries = collector.getEntries();
+        assertEquals(4, entries.size());
+        AlignmentResult first = entries.get(0).result();
+        assertEquals("LogitScalingBinaryAlignment", first.method());
+        assertEquals(1000, first.size());
+        assertEquals(400., first.targets()[0], 0.);
+        assertEquals(400., first.achieved()[0], 1.e-6);
+        assertTrue(first.iterations() > 0);
+        assertTrue(first.closureNanos() > 0);
+        assertTrue(first.isConverged(1.e-9));
+
+        List<AlignmentCollector.Summary> summaries = collector.summarize();
+        assertEquals(3, summaries.size());
+        AlignmentCollector.Summary last = summaries.get(2);
+        assertEquals(1., last.time(), 0.);
+        assertEquals(2, last.alignments());
+        assertEquals(1500, last.agents());
+    }
+}
@@ -0,0 +1,84 @@
+package microsim.alignment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.alignment.probability.AlignmentProbabilityClosure;
+import microsim.alignment.probability.MultiplicativeScalingAlignment;
+
+class IndexViewTests {
+
+    static class Agent {
+        final int id;
+        double aligned = -1.;
+
+        Agent(int id) {
+            this.id = id;
+        }
+    }
+
+    private static List<Agent> population(int n) {
+        var agents = new ArrayList<Agent>();
+        for (int i = 0; i < n; i++)
+            agents.add(new Agent(i));
+        return agents;
+    }
+
+    @Test
+    void shuffledMatchesCollectionsShuffle() {
+        List<Agent> agents = population(1000);
+        var expected = new ArrayList<>(agents);
+        Collections.shuffle(expected, new Random(7));
+        IndexView<Agent> shuffled = IndexView.shuffled(agents, new Random(7));
+        assertEquals(expected, shuffled);
+        assertEquals(0, agents.get(0).id); // the list itself is not modified
+    }
+
+    @Test
+    void selectReusesIndexArray() {
+        List<Agent> agents = population(100);
+        var view = new IndexView<Agent>();
+        view.select(agents, agent -> agent.id % 3 == 0);
+        assertEquals(34, view.size());
+        assertEquals(99, view.get(33).id);
+        assertEquals(33, view.index(11));
+        view.select(agents, agent -> agent.id >= 90);
+        assertEquals(10, view.size());
+        assertSame(view, IndexView.filtered(view, null));
+    }
+
+    @Test
+    void indexOverloadMatchesFilter() {
+        List<Agent> agents = population(500);
+        AlignmentProbabilityClosure<Agent> closure = new AlignmentProbabilityClosure<Agent>() {
+            @Override
+            public double getProbability(Agent agent) {
+                return (agent.id % 7 + 1) / 10.;
+            }
+
+            @Override
+            public void align(Agent agent, double alignedProbability) {
+                agent.aligned = alignedProbability;
+            }
+        };
+        var alignment = new MultiplicativeScalingAlignment<Agent>();
+        alignment.align(agents, agent -> agent.id % 2 == 1, closure, 0.2);
+        double[] filtered = agents.stream().mapToDouble(a -> a.aligned).toArray();
+
+        agents.forEach(agent -> agent.aligned = -1.);
+        int[] indices = new int[agents.size()];
+        int size = 0;
+        for (int i = 1; i < agents.size(); i += 2)
+            indices[size++] = i;
+        alignment.align(agents, indices, size, closure, 0.2);
+        for (int i = 0; i < agents.size(); i++)
+            assertEquals(filtered[i], agents.get(i).aligned, 0.);
+    }
+}
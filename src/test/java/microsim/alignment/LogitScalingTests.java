@@ -0,0 +1,220 @@
+package microsim.alignment;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.agent.Weight;
+import microsim.alignment.multiple.AlignmentMultiProbabilityClosure;
+import microsim.alignment.multiple.LogitScalingAlignment;
+import microsim.alignment.multiple.LogitScalingWeightedAlignment;
+import microsim.alignment.probability.AlignmentProbabilityClosure;
+import microsim.alignment.probability.LogitScalingBinaryAlignment;
+
+class LogitScalingTests {
+
+    static class Agent implements Weight {
+        final double[] prob;
+        double weight = 1.;
+        int cell;
+        double[] aligned;
+
+        Agent(double[] prob) {
+            this.prob = prob;
+        }
+
+        @Override
+        public double getWeight() {
+            return weight;
+        }
+    }
+
+    private static List<Agent> population(int n, int numOptions, long seed) {
+        var random = new Random(seed);
+        var agents = new ArrayList<Agent>();
+        for (int i = 0; i < n; i++) {
+            double[] prob = new double[numOptions];
+            double sum = 0.;
+            for (int c = 0; c < numOptions; c++) {
+                prob[c] = random.nextDouble() * (c + 1);
+                sum += prob[c];
+            }
+            for (int c = 0; c < numOptions; c++)
+                prob[c] /= sum;
+            agents.add(new Agent(prob));
+        }
+        return agents;
+    }
+
+    private static double[] alignBinary(List<Agent> agents, LogitScaling.Method method, double targetShare) {
+        return alignBinary(agents, method, targetShare, false);
+    }
+
+    private static double[] alignBinary(List<Agent> agents, LogitScaling.Method method, double targetShare,
+            boolean parallelProbabilities) {
+        var alignment = new LogitScalingBinaryAlignment<Agent>();
+        alignment.setMethod(method);
+        alignment.setParallelProbabilities(parallelProbabilities);
+        alignment.align(agents, null, new AlignmentProbabilityClosure<Agent>() {
+            @Override
+            public double getProbability(Agent agent) {
+                return agent.prob[0];
+            }
+
+            @Override
+            public void align(Agent agent, double alignedProbability) {
+                agent.aligned = new double[] { alignedProbability };
+            }
+        }, targetShare, 1000, 1.e-10, false);
+        return agents.stream().mapToDouble(a -> a.aligned[0]).toArray();
+    }
+
+    private static final AlignmentMultiProbabilityClosure<Agent> multiClosure = new AlignmentMultiProbabilityClosure<Agent>() {
+        @Override
+        public double[] getProbability(Agent agent) {
+            return agent.prob;
+        }
+
+        @Override
+        public void align(Agent agent, double[] alignedProbabilities) {
+            agent.aligned = alignedProbabilities.clone();
+        }
+    };
+
+    private static double[][] alignMultiple(List<Agent> agents, LogitScaling.Method method, double[] targetShare) {
+        var alignment = new LogitScalingAlignment<Agent>();
+        alignment.setMethod(method);
+        alignment.align(agents, null, multiClosure, targetShare, 1000, 1.e-10, false);
+        return agents.stream().map(a -> a.aligned).toArray(double[][]::new);
+    }
+
+    private static double[][] alignMultipleWeighted(List<Agent> agents, LogitScaling.Method method,
+            double[] targetShare) {
+        var alignment = new LogitScalingWeightedAlignment<Agent>();
+        alignment.setMethod(method);
+        alignment.align(agents, null, multiClosure, targetShare, 1000, 1.e-10, false);
+        return agents.stream().map(a -> a.aligned).toArray(double[][]::new);
+    }
+
+    @Test
+    void newtonMatchesIterativeBinary() {
+        var agents = population(2000, 2, 1);
+        double[] iterative = alignBinary(agents, LogitScaling.Method.ITERATIVE, 0.3);
+        double[] newton = alignBinary(agents, LogitScaling.Method.NEWTON, 0.3);
+        double sum = 0.;
+        for (int i = 0; i < newton.length; i++) {
+            assertEquals(iterative[i], newton[i], 1.e-6);
+            sum += newton[i];
+        }
+        assertEquals(0.3, sum / newton.length, 1.e-9);
+    }
+
+    @Test
+    void parallelProbabilitiesDoNotChangeResults() {
+        var agents = population(20_000, 2, 6);
+        double[] serial = alignBinary(agents, LogitScaling.Method.ITERATIVE, 0.45);
+        double[] parallel = alignBinary(agents, LogitScaling.Method.ITERATIVE, 0.45, true);
+        for (int i = 0; i < serial.length; i++)
+            assertEquals(serial[i], parallel[i], 0.);
+    }
+
+    @Test
+    void newtonMatchesIterativeMultiple() {
+        var agents = population(10_000, 4, 2); // several chunks of rows
+        double[] targetShare = { 0.4, 0.1, 0.3, 0.2 };
+        double[][] iterative = alignMultiple(agents, LogitScaling.Method.ITERATIVE, targetShare);
+        double[][] newton = alignMultiple(agents, LogitScaling.Method.NEWTON, targetShare);
+        double[] sums = new double[targetShare.length];
+        for (int i = 0; i < newton.length; i++) {
+            for (int c = 0; c < targetShare.length; c++) {
+                assertEquals(iterative[i][c], newton[i][c], 1.e-6);
+                sums[c] += newton[i][c];
+            }
+        }
+        for (int c = 0; c < targetShare.length; c++)
+            assertEquals(targetShare[c], sums[c] / newton.length, 1.e-9);
+    }
+
+    @Test
+    void weightsCountAsReplicatedAgents() {
+        double[] targetShare = { 0.25, 0.5, 0.25 };
+        var weighted = population(3000, 3, 4);
+        var replicated = new ArrayList<Agent>();
+        for (int i = 0; i < weighted.size(); i++) {
+            Agent agent = weighted.get(i);
+            agent.weight = 1 + i % 3;
+            for (int copy = 0; copy < agent.weight; copy++)
+                replicated.add(new Agent(agent.prob));
+        }
+        for (LogitScaling.Method method : LogitScaling.Method.values()) {
+            double[][] expected = alignMultiple(replicated, method, targetShare);
+            double[][] aligned = alignMultipleWeighted(weighted, method, targetShare);
+            int row = 0;
+            for (int i = 0; i < aligned.length; i++) {
+                for (int c = 0; c < targetShare.length; c++)
+                    assertEquals(expected[row][c], aligned[i][c], 1.e-6);
+                row += (int) weighted.get(i).weight;
+            }
+        }
+    }
+
+    @Test
+    void groupedAlignmentMatchesFilteredCells() {
+        var agents = population(9000, 3, 5);
+        double[][] targetShares = { { 0.2, 0.3, 0.5 }, { 0.6, 0.2, 0.2 }, { 0.1, 0.1, 0.8 } };
+        for (int i = 0; i < agents.size(); i++)
+            agents.get(i).cell = i % 4 - 1; // cell -1 is left unaligned
+        var alignment = new LogitScalingAlignment<Agent>();
+        alignment.alignGrouped(agents, agent -> agent.cell, multiClosure, targetShares, true);
+        double[][] grouped = agents.stream().map(a -> a.aligned).toArray(double[][]::new);
+
+        for (int cell = 0; cell < targetShares.length; cell++) {
+            int c = cell;
+            alignment.align(agents, agent -> agent.cell == c, multiClosure, targetShares[cell]);
+        }
+        for (int i = 0; i < agents.size(); i++) {
+            if (i % 4 == 0)
+                assertTrue(grouped[i] == null);
+            else
+                for (int choice = 0; choice < 3; choice++)
+                    assertEquals(agents.get(i).aligned[choice], grouped[i][choice], 0.);
+        }
+    }
+
+    @Test
+    void newtonConvergesInFewSteps() {
+        double[] prob = new double[10_000];
+        var random = new Random(3);
+        for (int i = 0; i < prob.length; i++)
+            prob[i] = random.nextDouble() * 0.2;
+        LogitScaling.Solution solution = LogitScaling.solveBinary(prob, null, 0.8 * prob.length, 1.e-6, 100);
+        assertTrue(solution.iterations() < 10);
+        assertTrue(solution.error() < 1.e-6);
+    }
+
+    @Test
+    void multinomialConvergesWhenTheReferenceAbsorbsTheDifference() {
+        int n = 5_000, numOptions = 3;
+        double[] prob = new double[n * numOptions];
+        var agents = population(n, numOptions, 4);
+        for (int i = 0; i < n; i++)
+            System.arraycopy(agents.get(i).prob, 0, prob, i * numOptions, numOptions);
+        double[] target = { 0.2 * n, 0.3 * n, 0.4 * n }; // 10% short of the population
+        LogitScaling.Solution solution = LogitScaling.solveMultinomial(prob, numOptions, null, target, 1.e-6, 100);
+        assertTrue(solution.iterations() < 20, "iterations " + solution.iterations());
+        assertTrue(solution.error() < 1.e-6);
+
+        double[] sums = new double[numOptions];
+        for (int i = 0; i < n; i++)
+            for (int c = 0; c < numOptions; c++)
+                sums[c] += prob[i * numOptions + c];
+        assertEquals(target[0], sums[0], 1.e-4);
+        assertEquals(target[1], sums[1], 1.e-4);
+        assertEquals(0.5 * n, sums[2], 1.e-4); // the reference, with the largest target
+    }
+}
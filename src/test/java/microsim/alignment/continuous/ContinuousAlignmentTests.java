@@ -0,0 +1,184 @@
+package microsim.alignment.continuous;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.alignment.AlignmentDiagnostics;
+import microsim.alignment.AlignmentResult;
+
+class ContinuousAlignmentTests {
+
+    static class Agent {
+        final double value;
+        final double weight;
+        final int cell;
+        double aligned = Double.NaN;
+
+        Agent(double value, double weight, int cell) {
+            this.value = value;
+            this.weight = weight;
+            this.cell = cell;
+        }
+    }
+
+    private static final AlignmentContinuousClosure<Agent> closure = new AlignmentContinuousClosure<Agent>() {
+        @Override
+        public double getValue(Agent agent) {
+            return agent.value;
+        }
+
+        @Override
+        public void align(Agent agent, double alignedValue) {
+            agent.aligned = alignedValue;
+        }
+    };
+
+    private static List<Agent> population(int n, double max, long seed) {
+        var random = new Random(seed);
+        var agents = new ArrayList<Agent>();
+        for (int i = 0; i < n; i++)
+            agents.add(new Agent(random.nextDouble() * max, 1 + random.nextInt(5), i % 3));
+        return agents;
+    }
+
+    private static double weightedMean(List<Agent> agents) {
+        double sum = 0., total = 0.;
+        for (Agent agent : agents) {
+            sum += agent.weight * agent.aligned;
+            total += agent.weight;
+        }
+        return sum / total;
+    }
+
+    private static void assertRanksPreserved(List<Agent> agents) {
+        for (int i = 1; i < agents.size(); i++) {
+            Agent a = agents.get(i - 1), b = agents.get(i);
+            assertEquals(Double.compare(a.value, b.value), Double.compare(a.aligned, b.aligned));
+        }
+    }
+
+    @Test
+    void weightedMeanIsReached() {
+        var agents = population(20_000, 1000., 1); // several chunks of agents
+        List<AbstractContinuousAlignment<Agent>> alignments = List.of(new AdditiveContinuousAlignment<>(),
+                new MultiplicativeContinuousAlignment<>(),
+                new RankPreservingContinuousAlignment<>(0., Double.POSITIVE_INFINITY));
+        for (AbstractContinuousAlignment<Agent> alignment : alignments) {
+            alignment.setWeight(agent -> agent.weight);
+            alignment.align(agents, null, closure, 620.);
+            assertEquals(620., weightedMean(agents), 1.e-9);
+            assertRanksPreserved(agents);
+        }
+    }
+
+    @Test
+    void boundedValuesStayWithinBounds() {
+        var agents = population(5000, 60., 2);
+        var alignment = new RankPreservingContinuousAlignment<Agent>(0., 60.);
+        alignment.alignTotal(agents, null, closure, 50. * agents.size());
+        double sum = 0.;
+        for (Agent agent : agents) {
+            assertTrue(agent.aligned > 0. && agent.aligned < 60.);
+            sum += agent.aligned;
+        }
+        assertEquals(50., sum / agents.size(), 1.e-8);
+        assertRanksPreserved(agents);
+
+        assertThrows(IllegalArgumentException.class, () -> alignment.align(agents, null, closure, 61.));
+    }
+
+    @Test
+    void groupedAlignmentMatchesFilteredCells() {
+        var agents = population(3000, 100., 3);
+        double[] targetMeans = { 10., 50., 90. };
+        var alignment = new AdditiveContinuousAlignment<Agent>();
+        alignment.alignGrouped(agents, agent -> agent.cell, closure, targetMeans, true);
+        double[] grouped = agents.stream().mapToDouble(agent -> agent.aligned).toArray();
+        for (int cell = 0; cell < targetMeans.length; cell++) {
+            int c = cell;
+            alignment.align(agents, agent -> agent.cell == c, closure, targetMeans[cell]);
+        }
+        for (int i = 0; i < agents.size(); i++)
+            assertEquals(agents.get(i).aligned, grouped[i], 0.);
+    }
+
+    @Test
+    void totalAlignmentsMatchFilteredCells() {
+        var agents = population(3000, 100., 4);
+        double[] targetTotals = { 20_000., 50_000., 120_000. };
+        var alignment = new MultiplicativeContinuousAlignment<Agent>();
+        alignment.setWeight(agent -> agent.weight);
+        alignment.alignTotalGrouped(agents, agent -> agent.cell, closure, targetTotals, true);
+        double[] grouped = agents.stream().mapToDouble(agent -> agent.aligned).toArray();
+
+        int[] indices = new int[agents.size()];
+        for (int cell = 0; cell < targetTotals.length; cell++) {
+            int c = cell;
+            alignment.alignTotal(agents, agent -> agent.cell == c, closure, targetTotals[cell]);
+            double total = 0.;
+            int size = 0;
+            for (int i = 0; i < agents.size(); i++) {
+                Agent agent = agents.get(i);
+                if (agent.cell == c) {
+                    assertEquals(agent.aligned, grouped[i], 0.);
+                    total += agent.weight * agent.aligned;
+                    indices[size++] = i;
+                }
+            }
+            assertEquals(targetTotals[cell], total, 1.e-6);
+
+            alignment.alignTotal(agents, indices, size, closure, targetTotals[cell]);
+            for (int j = 0; j < size; j++)
+                assertEquals(grouped[indices[j]], agents.get(indices[j]).aligned, 0.);
+        }
+    }
+
+    @Test
+    void emptySubPopulationIsNotReported() {
+        var results = new ArrayList<AlignmentResult>();
+        Consumer<AlignmentResult> listener = results::add;
+        AlignmentDiagnostics.addListener(listener);
+        try {
+            var agents = population(100, 10., 5);
+            new AdditiveContinuousAlignment<Agent>().align(agents, agent -> agent.cell > 2, closure, 5.);
+            assertTrue(results.isEmpty());
+            new AdditiveContinuousAlignment<Agent>().align(agents, null, closure, 5.);
+            assertEquals(1, results.size());
+        } finally {
+            AlignmentDiagnostics.removeListener(listener);
+        }
+    }
+
+    @Test
+    void unconvergedBoundedAlignmentIsReportedToListeners() {
+        var results = new ArrayList<AlignmentResult>();
+        Consumer<AlignmentResult> listener = results::add;
+        PrintStream out = System.out;
+        var printed = new ByteArrayOutputStream();
+        AlignmentDiagnostics.addListener(listener);
+        System.setOut(new PrintStream(printed));
+        try {
+            var agents = population(1000, 60., 6);
+            var alignment = new RankPreservingContinuousAlignment<Agent>(0., 60.);
+            alignment.setMaxNumberIterations(1);
+            alignment.alignTotal(agents, null, closure, 55. * agents.size());
+        } finally {
+            System.setOut(out);
+            AlignmentDiagnostics.removeListener(listener);
+        }
+        assertEquals(0, printed.size());
+        assertEquals(1, results.size());
+        assertFalse(results.get(0).isConverged(1.e-10));
+    }
+}
@@ -0,0 +1,138 @@
+package microsim.alignment.outcome;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class BatchResamplerTests {
+
+    static class Agent {
+        final double probability;
+        boolean outcome;
+
+        Agent(double probability, boolean outcome) {
+            this.probability = probability;
+            this.outcome = outcome;
+        }
+    }
+
+    static final AlignmentOutcomeClosure<Agent> closure = new AlignmentOutcomeClosure<Agent>() {
+        @Override
+        public boolean getOutcome(Agent agent) {
+            return agent.outcome;
+        }
+
+        @Override
+        public void resample(Agent agent) {
+            throw new UnsupportedOperationException("batch resampling passes a generator");
+        }
+
+        @Override
+        public void resample(Agent agent, Random random) {
+            agent.outcome = random.nextDouble() < agent.probability;
+        }
+
+        @Override
+        public boolean isConcurrentResampling() {
+            return true;
+        }
+    };
+
+    private static List<Agent> population(int n, long seed) {
+        var random = new Random(seed);
+        var agents = new ArrayList<Agent>();
+        for (int i = 0; i < n; i++) {
+            double probability = 0.1 + 0.3 * random.nextDouble();
+            agents.add(new Agent(probability, random.nextDouble() < probability));
+        }
+        return agents;
+    }
+
+    private static int positives(List<Agent> agents) {
+        int sum = 0;
+        for (Agent agent : agents)
+            sum += agent.outcome ? 1 : 0;
+        return sum;
+    }
+
+    @Test
+    void reachesTargetNumber() {
+        var agents = population(50_000, 1);
+        for (int target : new int[] { 20_000, 5_000 }) {
+            double delta = positives(agents) - target;
+            BatchResampler.Result result = BatchResampler.resample(agents, null, closure, new Random(2), delta, 0.,
+                    1_000_000, 0);
+            assertEquals(0., result.delta());
+            assertEquals(target, positives(agents));
+        }
+    }
+
+    @Test
+    void isReproducible() {
+        boolean[][] outcomes = new boolean[2][];
+        for (int run = 0; run < 2; run++) {
+            var agents = population(20_000, 3);
+            BatchResampler.resample(agents, null, closure, new Random(4), positives(agents) - 9_000., 1.,
+                    1_000_000, 0);
+            outcomes[run] = new boolean[agents.size()];
+            for (int i = 0; i < agents.size(); i++)
+                outcomes[run][i] = agents.get(i).outcome;
+        }
+        assertTrue(Arrays.equals(outcomes[0], outcomes[1]));
+    }
+
+    @Test
+    void doesNotOvershootWeightedTarget() {
+        var agents = population(10_000, 5);
+        double[] weights = new double[agents.size()];
+        double sum = 0.;
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = 1 + i % 5;
+            sum += agents.get(i).outcome ? weights[i] : 0.;
+        }
+        double target = 12_345.5;
+        BatchResampler.Result result = BatchResampler.resample(agents, weights, closure, new Random(6), sum - target,
+                0., 1_000_000, 20);
+        double achieved = 0.;
+        for (int i = 0; i < weights.length; i++)
+            achieved += agents.get(i).outcome ? weights[i] : 0.;
+        assertEquals(achieved - target, result.delta(), 1.e-9);
+        assertTrue(result.delta() <= 0. && result.delta() > -1., "delta " + result.delta());
+    }
+
+    @Test
+    void closureWithoutGeneratorIsResampledOnTheCallingThread() {
+        boolean[][] outcomes = new boolean[2][];
+        for (int run = 0; run < 2; run++) {
+            var shared = new Random(8);
+            var caller = Thread.currentThread();
+            var serial = new AlignmentOutcomeClosure<Agent>() {
+                @Override
+                public boolean getOutcome(Agent agent) {
+                    return agent.outcome;
+                }
+
+                @Override
+                public void resample(Agent agent) {
+                    assertSame(caller, Thread.currentThread());
+                    agent.outcome = shared.nextDouble() < agent.probability;
+                }
+            };
+            var agents = population(20_000, 9);
+            BatchResampler.Result result = BatchResampler.resample(agents, null, serial, new Random(10),
+                    positives(agents) - 3_000., 0., 1_000_000, 0);
+            assertEquals(0., result.delta());
+            outcomes[run] = new boolean[agents.size()];
+            for (int i = 0; i < agents.size(); i++)
+                outcomes[run][i] = agents.get(i).outcome;
+        }
+        assertTrue(Arrays.equals(outcomes[0], outcomes[1]));
+    }
+}
@@ -0,0 +1,104 @@
+package microsim.alignment.probability;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.engine.SimulationEngine;
+
+class ProbabilityOrderTests {
+
+    static final class Agent {
+        final int id;
+        boolean selected;
+
+        Agent(int id) {
+            this.id = id;
+        }
+    }
+
+    private static List<Agent> population(int n) {
+        var agents = new ArrayList<Agent>(n);
+        for (int i = 0; i < n; i++)
+            agents.add(new Agent(i));
+        return agents;
+    }
+
+    /** A closure whose probabilities are drawn from the engine's generator. */
+    private static final AlignmentProbabilityClosure<Agent> RANDOM_PROBABILITY = new AlignmentProbabilityClosure<>() {
+        @Override
+        public double getProbability(Agent agent) {
+            return SimulationEngine.getRnd().nextDouble();
+        }
+
+        @Override
+        public void align(Agent agent, double alignedProbability) {
+            agent.selected = alignedProbability > 0.5;
+        }
+    };
+
+    @Test
+    void serialSbdInterleavesProbabilitiesAndDraws() {
+        int n = 500;
+        double share = 0.3;
+        int k = RankSelection.selectedCount(share, n);
+        SimulationEngine engine = SimulationEngine.getInstance();
+
+        engine.setRandomSeed(11);
+        double[] keys = new double[n];
+        for (int i = 0; i < n; i++) {
+            double p = SimulationEngine.getRnd().nextDouble();
+            keys[i] = p - SimulationEngine.getRnd().nextDouble();
+        }
+        Integer[] positions = new Integer[n];
+        for (int i = 0; i < n; i++)
+            positions[i] = i;
+        Arrays.sort(positions, Comparator.<Integer>comparingDouble(i -> keys[i]).reversed());
+        boolean[] expected = new boolean[n];
+        for (int j = 0; j < k; j++)
+            expected[positions[j]] = true;
+
+        engine.setRandomSeed(11);
+        var agents = population(n);
+        new SBDAlignment<Agent>().align(agents, null, RANDOM_PROBABILITY, share);
+        boolean[] actual = new boolean[n];
+        for (Agent agent : agents)
+            actual[agent.id] = agent.selected;
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void serialSidewalkEvaluatesEachAgentBeforeAligningIt() {
+        var calls = new StringBuilder();
+        var closure = new AlignmentProbabilityClosure<Agent>() {
+            @Override
+            public double getProbability(Agent agent) {
+                calls.append('p').append(agent.id);
+                return 0.4;
+            }
+
+            @Override
+            public void align(Agent agent, double alignedProbability) {
+                calls.append('a').append(agent.id);
+            }
+        };
+        var agents = population(20);
+        new SidewalkAlignment<Agent>().align(agents, null, closure, 0.4);
+
+        String log = calls.toString();
+        String[] ids = log.split("[pa]");
+        assertEquals(41, ids.length);
+        String[] kinds = log.replaceAll("[0-9]", "").split("");
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i % 2 == 0 ? "p" : "a", kinds[i]);
+            if (i % 2 == 1)
+                assertEquals(ids[i], ids[i + 1]);
+        }
+    }
+}
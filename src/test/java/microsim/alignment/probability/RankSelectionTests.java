@@ -0,0 +1,122 @@
+package microsim.alignment.probability;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class RankSelectionTests {
+
+    private static int[] expectedTop(double[] keys, int k) {
+        Integer[] positions = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++)
+            positions[i] = i;
+        Arrays.sort(positions, Comparator.<Integer>comparingDouble(i -> keys[i]).reversed());
+        int[] top = new int[k];
+        for (int j = 0; j < k; j++)
+            top[j] = positions[j];
+        Arrays.sort(top);
+        return top;
+    }
+
+    @Test
+    void selectsLargestKeys() {
+        var random = new Random(42);
+        for (int n : new int[] { 1, 2, 7, 100, 10_000 }) {
+            double[] keys = new double[n];
+            for (int i = 0; i < n; i++)
+                keys[i] = random.nextDouble() - random.nextDouble();
+            for (int k : new int[] { 0, 1, n / 3, n - 1, n }) {
+                int[] order = RankSelection.identity(n);
+                RankSelection.selectLargest(keys, order, n, k);
+                int[] top = Arrays.copyOf(order, k);
+                Arrays.sort(top);
+                assertArrayEquals(expectedTop(keys, k), top);
+            }
+        }
+    }
+
+    @Test
+    void breaksTiesByPosition() {
+        // few distinct keys, so that the boundary falls among equal keys
+        double[] keys = new double[1000];
+        var random = new Random(7);
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = random.nextInt(3);
+        int[] order = RankSelection.identity(keys.length);
+        RankSelection.selectLargest(keys, order, keys.length, 500);
+        // the stable sort of expectedTop ranks equal keys by position
+        int[] top = Arrays.copyOf(order, 500);
+        Arrays.sort(top);
+        assertArrayEquals(expectedTop(keys, 500), top);
+    }
+
+    @Test
+    void selectsClosestWeight() {
+        var random = new Random(11);
+        for (int n : new int[] { 1, 5, 100, 5000 }) {
+            double[] keys = new double[n];
+            double[] weights = new double[n];
+            double total = 0.;
+            for (int i = 0; i < n; i++) {
+                keys[i] = random.nextDouble() - random.nextDouble();
+                weights[i] = 1. + random.nextInt(50);
+                total += weights[i];
+            }
+            for (double share : new double[] { 0., 0.01, 0.37, 0.999, 1. }) {
+                double target = share * total;
+                // expected: all positions in rank order, up to the one closest to the target
+                Integer[] byRank = new Integer[n];
+                Arrays.setAll(byRank, i -> i);
+                Arrays.sort(byRank, Comparator.<Integer>comparingDouble(i -> keys[i]).reversed());
+                int k = 0;
+                double sum = 0.;
+                while (k < n && sum + weights[byRank[k]] <= target)
+                    sum += weights[byRank[k++]];
+                if (k < n && sum + 0.5 * weights[byRank[k]] < target)
+                    k++;
+
+                int[] order = RankSelection.identity(n);
+                assertEquals(k, RankSelection.selectLargestWeighted(keys, weights, order, n, target));
+                int[] top = Arrays.copyOf(order, k);
+                Arrays.sort(top);
+                assertArrayEquals(expectedTop(keys, k), top);
+            }
+        }
+    }
+
+    @Test
+    void unitWeightsRoundTheTargetNumber() {
+        double[] keys = { 0.5, 0.1, 0.9, 0.3, 0.7 };
+        double[] weights = { 1., 1., 1., 1., 1. };
+        assertEquals(2, RankSelection.selectLargestWeighted(keys, weights, RankSelection.identity(5), 5, 2.4));
+        assertEquals(3, RankSelection.selectLargestWeighted(keys, weights, RankSelection.identity(5), 5, 2.6));
+        assertEquals(5, RankSelection.selectLargestWeighted(keys, weights, RankSelection.identity(5), 5, 5.));
+    }
+
+    @Test
+    void alignsInListOrder() {
+        List<String> agents = List.of("a", "b", "c", "d", "e");
+        double[] keys = { 0.1, 0.9, -0.5, 0.9, 0.3 };
+        var calls = new ArrayList<String>();
+        RankSelection.alignLargest(agents, keys, RankSelection.selectedCount(0.4, agents.size()),
+                new AlignmentProbabilityClosure<String>() {
+                    @Override
+                    public double getProbability(String agent) {
+                        return 0;
+                    }
+
+                    @Override
+                    public void align(String agent, double alignedProbability) {
+                        calls.add(agent + alignedProbability);
+                    }
+                });
+        assertEquals(List.of("a0.0", "b1.0", "c0.0", "d1.0", "e1.0"), calls);
+    }
+}
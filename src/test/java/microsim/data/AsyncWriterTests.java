@@ -0,0 +1,123 @@
+package microsim.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncWriterTests {
+
+    /** Records the text that has been flushed, and whether the writer is closed. */
+    static final class RecordingWriter extends StringWriter {
+        volatile String flushed = "";
+        volatile boolean closed;
+
+        @Override
+        public void flush() {
+            flushed = toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            closed = true;
+        }
+    }
+
+    static final class FailingWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AsyncWriterTests");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void flushWritesEverythingInOrder() throws Exception {
+        var out = new RecordingWriter();
+        var writer = new AsyncWriter(out, 2, "test", executor);
+        var expected = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String chunk = "row" + i + "\n";
+            writer.write(chunk);
+            expected.append(chunk);
+        }
+        writer.flush();
+        assertEquals(expected.toString(), out.flushed);
+        assertFalse(out.closed);
+        writer.close();
+    }
+
+    @Test
+    void closeWritesAndClosesOnce() throws Exception {
+        int before = AsyncWriter.openCount();
+        var out = new RecordingWriter();
+        var writer = new AsyncWriter(out, 4, "test", executor);
+        assertEquals(before + 1, AsyncWriter.openCount());
+        writer.write("a");
+        writer.write("b");
+        writer.close();
+        assertTrue(out.closed);
+        assertEquals("ab", out.flushed);
+        assertEquals(before, AsyncWriter.openCount());
+
+        writer.close(); // no-op
+        writer.flush(); // no-op
+        assertThrows(IOException.class, () -> writer.write("c"));
+    }
+
+    @Test
+    void writersShareOneThread() throws Exception {
+        var outs = new RecordingWriter[5];
+        var writers = new AsyncWriter[outs.length];
+        for (int w = 0; w < outs.length; w++) {
+            outs[w] = new RecordingWriter();
+            writers[w] = new AsyncWriter(outs[w], 1, "test" + w, executor);
+        }
+        for (int i = 0; i < 100; i++)
+            for (int w = 0; w < outs.length; w++)
+                writers[w].write(w + ":" + i + ",");
+        for (int w = 0; w < outs.length; w++) {
+            writers[w].close();
+            assertTrue(outs[w].closed);
+            assertTrue(outs[w].flushed.endsWith(w + ":99,"));
+        }
+    }
+
+    @Test
+    void writeFailureIsReported() throws Exception {
+        var writer = new AsyncWriter(new FailingWriter(), 1, "failing", executor);
+        writer.write("lost");
+        IOException e = assertThrows(IOException.class, writer::flush);
+        assertTrue(e.getMessage().contains("disk full"));
+        assertThrows(IOException.class, () -> writer.write("more"));
+        assertThrows(IOException.class, writer::close);
+    }
+}
@@ -0,0 +1,91 @@
+package microsim.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class CoefficientTableTests {
+    @Test
+    void lookupsMatchMap() {
+        var map = new MultiKeyCoefficientMap(new String[] { "age", "gender" }, new String[] { "mean", "sd" });
+        map.putValue(30, "Female", "mean", 1.5);
+        map.putValue(30, "Female", "sd", 0.5);
+        map.putValue(20, "Male", "mean", 2.5);
+        map.putValue(20, "Male", "sd", 0.25);
+
+        var table = map.toCoefficientTable();
+        assertEquals(0, table.code(0, 20)); // codes follow the natural order of the keys
+        assertEquals(1, table.code(0, 30));
+        assertEquals(-1, table.code(0, 40));
+
+        int mean = table.column("mean");
+        int sd = table.column("sd");
+        int female = table.code(1, "Female");
+        int male = table.code(1, "Male");
+        assertEquals(1.5, table.get(table.code(0, 30), female, mean));
+        assertEquals(0.25, table.get(table.code(0, 20), male, sd));
+        assertEquals(map.getValue(30, "Female", "sd"), table.get(new int[] { 1, female }, sd));
+        assertTrue(Double.isNaN(table.get(table.code(0, 30), male, mean)));
+    }
+
+    @Test
+    void invalidLookupsAreRejected() {
+        var map = new MultiKeyCoefficientMap(new String[] { "age", "gender" }, new String[] { "mean" });
+        map.putValue(20, "Male", 2.5);
+        map.putValue(30, "Female", 1.5);
+        var table = map.toCoefficientTable();
+
+        int female = table.code(1, "Female");
+        assertTrue(Double.isNaN(table.get(table.code(0, 40), female, 0))); // absent key
+        assertTrue(Double.isNaN(table.get(new int[] { -1, female }, 0)));
+        assertThrows(IllegalArgumentException.class, () -> table.get(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.get(0, 1, 0, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.get(new int[] { 1 }, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.get(2, female, 0));
+        assertThrows(IllegalArgumentException.class, () -> table.get(1, female, 1));
+    }
+
+    @Test
+    void rangeKeysResolveToBands() {
+        var map = new MultiKeyCoefficientMap(new String[] { "age" + MultiKeyCoefficientMap.RANGE_KEY_SUFFIX, "gender" },
+                new String[] { "rate" });
+        map.putValue(0, "Male", 0.1);
+        map.putValue(18, "Male", 0.2);
+        map.putValue(65, "Male", 0.3);
+
+        assertEquals("age", map.getKeysNames()[0]);
+        assertEquals(0.1, map.getValue(17, "Male"));
+        assertEquals(0.2, map.getValue(18.0, "Male"));
+        assertEquals(0.3, map.getValue(90, "Male"));
+        assertEquals(null, map.getValue(-1, "Male"));
+
+        var table = map.toCoefficientTable();
+        int male = table.code(1, "Male");
+        assertEquals(0.2, table.get(table.code(0, 40.5), male, 0));
+        assertEquals(-1, table.code(0, -3.0));
+    }
+
+    @Test
+    void rangeBandsFollowInheritedModifications() {
+        var map = new MultiKeyCoefficientMap(new String[] { "age" + MultiKeyCoefficientMap.RANGE_KEY_SUFFIX, "gender" },
+                new String[] { "rate" });
+        map.putValue(0, "Male", 0.1);
+        map.putValue(18, "Male", 0.2);
+        assertEquals(0.2, map.getValue(40, "Male"));
+
+        map.put(30, "Male", 0.25);
+        assertEquals(0.25, map.getValue(40, "Male"));
+        map.removeMultiKey(30, "Male");
+        assertEquals(0.2, map.getValue(40, "Male"));
+
+        map.clear();
+        map.put(50, "Male", 0.5);
+        assertArrayEquals(new double[] { 50. }, map.getRangeBounds(0));
+        assertEquals(0.5, map.getValue(60, "Male"));
+        assertNull(map.getValue(40, "Male"));
+    }
+}
@@ -0,0 +1,72 @@
+package microsim.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import microsim.data.db.PanelEntityKey;
+import microsim.engine.SimulationEngine;
+
+class ExportCSVTests {
+
+    static class Household {
+        PanelEntityKey key;
+        int size;
+
+        Household(long id, int size) {
+            key = new PanelEntityKey(id);
+            this.size = size;
+        }
+    }
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    void reset() {
+        ExportCSV.directory = null;
+        ExportCSV.asynchronous = false;
+    }
+
+    private static String prefix() {
+        var engine = SimulationEngine.getInstance();
+        return engine.getCurrentRunNumber() + "," + engine.getTime() + ",";
+    }
+
+    private List<String> lines() throws Exception {
+        return Files.readAllLines(directory.resolve("Household.csv"));
+    }
+
+    @Test
+    void synchronousRowsAreOnDiskAfterEachExport() throws Exception {
+        ExportCSV.directory = directory.toString();
+        var households = List.of(new Household(1, 3), new Household(2, 1));
+        var export = new ExportCSV(households);
+        export.dumpToCSV();
+        assertEquals(List.of("run,time,id_Household,size", prefix() + "1,3", prefix() + "2,1"), lines());
+
+        export.close();
+        export.dumpToCSV(); // reopens the file for appending
+        assertEquals(5, lines().size());
+        export.close();
+    }
+
+    @Test
+    void asynchronousRowsAreOnDiskAfterFlush() throws Exception {
+        ExportCSV.directory = directory.toString();
+        ExportCSV.asynchronous = true;
+        var export = new ExportCSV(List.of(new Household(7, 2)));
+        for (int i = 0; i < 10; i++)
+            export.dumpToCSV();
+        export.flush();
+        assertEquals(11, lines().size());
+        assertEquals(prefix() + "7,2", lines().get(10));
+        export.close();
+    }
+}
@@ -0,0 +1,264 @@
+package microsim.data;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import microsim.data.ColumnarPanelReader.ColumnType;
+import microsim.data.db.PanelEntityKey;
+import microsim.engine.SimulationEngine;
+
+class ExportColumnarTests {
+
+    private String directory;
+
+    @BeforeEach
+    void saveDirectory() {
+        directory = ExportColumnar.directory;
+    }
+
+    @AfterEach
+    void restoreDirectory() {
+        ExportColumnar.directory = directory;
+    }
+
+    enum Gender {
+        Female, Male
+    }
+
+    static class Agent {
+        PanelEntityKey key;
+        int age;
+        double income;
+        boolean employed;
+        Gender gender;
+        Integer children;
+        String region;
+
+        Agent(long id, int age, double income, boolean employed, Gender gender, Integer children, String region) {
+            key = new PanelEntityKey(id);
+            this.age = age;
+            this.income = income;
+            this.employed = employed;
+            this.gender = gender;
+            this.children = children;
+            this.region = region;
+        }
+    }
+
+    @Test
+    void roundTrip(@TempDir Path directory) throws Exception {
+        List<Agent> agents = new ArrayList<>();
+        for (int i = 0; i < 200; i++)
+            agents.add(new Agent(1000 + 3 * i, 20 + i % 50, 1000.5 * i, i % 3 == 0, Gender.values()[i % 2],
+                    i % 7 == 0 ? null : i % 4, i % 5 == 0 ? null : "R" + i % 3));
+
+        ExportColumnar.directory = directory.toString();
+        try (var export = new ExportColumnar(agents)) {
+            export.dump(1, 2020.0);
+            agents.get(0).age = 99;
+            export.dump(1, 2021.0);
+        }
+
+        try (var reader = new ColumnarPanelReader(new File(directory.toFile(), "Agent" + ExportColumnar.EXTENSION))) {
+            assertEquals(List.of("age", "children", "employed", "gender", "income", "region"),
+                    reader.getColumnNames());
+            assertEquals(ColumnType.LONG, reader.getColumnType(reader.getColumnIndex("children")));
+            assertTrue(reader.isNullable(reader.getColumnIndex("children")));
+            assertFalse(reader.isNullable(reader.getColumnIndex("age")));
+
+            for (double time : new double[] { 2020.0, 2021.0 }) {
+                assertTrue(reader.nextRowGroup());
+                assertEquals(agents.size(), reader.getRowCount());
+                assertEquals(1, reader.getRun());
+                assertEquals(time, reader.getTime());
+                long[] ids = reader.getIds();
+                long[] ages = reader.getLongs(reader.getColumnIndex("age"));
+                double[] incomes = reader.getDoubles(reader.getColumnIndex("income"));
+                boolean[] employed = reader.getBooleans(reader.getColumnIndex("employed"));
+                String[] genders = reader.getStrings(reader.getColumnIndex("gender"));
+                long[] children = reader.getLongs(reader.getColumnIndex("children"));
+                boolean[] noChildren = reader.getNulls(reader.getColumnIndex("children"));
+                String[] regions = reader.getStrings(reader.getColumnIndex("region"));
+                for (int i = 0; i < agents.size(); i++) {
+                    Agent agent = agents.get(i);
+                    assertEquals(agent.key.getId(), ids[i]);
+                    assertEquals(time == 2020.0 && i == 0 ? 20 : agent.age, ages[i]);
+                    assertEquals(agent.income, incomes[i]);
+                    assertEquals(agent.employed, employed[i]);
+                    assertEquals(agent.gender.name(), genders[i]);
+                    assertEquals(agent.children == null, noChildren[i]);
+                    if (agent.children != null)
+                        assertEquals(agent.children.longValue(), children[i]);
+                    assertEquals(agent.region, regions[i]);
+                }
+            }
+            assertFalse(reader.nextRowGroup());
+        }
+    }
+
+    @Test
+    void appendsToExistingFile(@TempDir Path directory) throws Exception {
+        ExportColumnar.directory = directory.toString();
+        var agents = List.of(new Agent(1, 30, 1.0, true, Gender.Male, 2, "North"));
+        for (int run = 0; run < 2; run++) {
+            try (var export = new ExportColumnar(agents)) {
+                export.dump(run, 2020.0);
+            }
+        }
+        try (var reader = new ColumnarPanelReader(new File(directory.toFile(), "Agent" + ExportColumnar.EXTENSION))) {
+            assertTrue(reader.nextRowGroup());
+            assertEquals(0, reader.getRun());
+            assertNull(reader.getNulls(reader.getColumnIndex("region")));
+            assertTrue(reader.nextRowGroup());
+            assertEquals(1, reader.getRun());
+            assertArrayEquals(new long[] { 1 }, reader.getIds());
+            assertFalse(reader.nextRowGroup());
+        }
+    }
+
+    @Test
+    void snapshotsMatchDirectExport(@TempDir Path directory) throws Exception {
+        List<Agent> agents = new ArrayList<>();
+        for (int i = 0; i < 50; i++)
+            agents.add(new Agent(i, i, i / 3.0, i % 2 == 0, Gender.Female, i % 3 == 0 ? null : i, "R" + i % 4));
+
+        ExportColumnar.directory = directory.toString();
+        var snapshot = new PanelSnapshot(ExportFields.of(Agent.class));
+        try (var export = new ExportColumnar(agents)) {
+            export.dump(0, 1.0);
+            snapshot.capture(agents, 0, 2.0);
+            agents.forEach(agent -> agent.age = -1); // changes after the capture are not exported
+            export.dump(snapshot);
+        }
+
+        try (var reader = new ColumnarPanelReader(new File(directory.toFile(), "Agent" + ExportColumnar.EXTENSION))) {
+            assertTrue(reader.nextRowGroup());
+            long[] ids = reader.getIds();
+            long[] ages = reader.getLongs(reader.getColumnIndex("age"));
+            long[] children = reader.getLongs(reader.getColumnIndex("children"));
+            String[] regions = reader.getStrings(reader.getColumnIndex("region"));
+            assertTrue(reader.nextRowGroup());
+            assertEquals(2.0, reader.getTime());
+            assertArrayEquals(ids, reader.getIds());
+            assertArrayEquals(ages, reader.getLongs(reader.getColumnIndex("age")));
+            assertArrayEquals(children, reader.getLongs(reader.getColumnIndex("children")));
+            assertArrayEquals(regions, reader.getStrings(reader.getColumnIndex("region")));
+        }
+    }
+
+    @Test
+    void deltaRowGroupsRebuildCrossSections(@TempDir Path directory) throws Exception {
+        List<Agent> agents = new ArrayList<>();
+        for (int i = 0; i < 20; i++)
+            agents.add(new Agent(i, 30, 1.0, true, Gender.Male, null, "North"));
+
+        ExportColumnar.directory = directory.toString();
+        ExportColumnar.delta = true;
+        try (var export = new ExportColumnar(agents)) {
+            export.dump(0, 2020.0);
+            agents.get(3).age = 31;
+            agents.remove(5);
+            agents.add(new Agent(100, 18, 0.0, false, Gender.Female, 0, "South"));
+            export.dump(0, 2021.0);
+        } finally {
+            ExportColumnar.delta = false;
+        }
+
+        try (var reader = new ColumnarPanelReader(new File(directory.toFile(), "Agent" + ExportColumnar.EXTENSION))) {
+            var crossSection = new HashMap<Long, Object[]>();
+            assertTrue(reader.nextRowGroup());
+            assertFalse(reader.isDelta());
+            assertEquals(20, reader.updateCrossSection(crossSection).size());
+
+            assertTrue(reader.nextRowGroup());
+            assertTrue(reader.isDelta());
+            assertArrayEquals(new long[] { 3, 100 }, reader.getIds());
+            assertArrayEquals(new long[] { 5 }, reader.getRemovedIds());
+            reader.updateCrossSection(crossSection);
+            assertEquals(agents.size(), crossSection.size());
+            int age = reader.getColumnIndex("age");
+            for (Agent agent : agents)
+                assertEquals((long) agent.age, crossSection.get(agent.key.getId())[age]);
+            assertNull(crossSection.get(5L));
+            assertFalse(reader.nextRowGroup());
+        }
+    }
+
+    @Test
+    void closedExportsReopenForAppending(@TempDir Path directory) throws Exception {
+        ExportColumnar.directory = directory.toString();
+        var agents = List.of(new Agent(1, 30, 1.0, true, Gender.Male, 2, "North"));
+        var export = new ExportColumnar(agents);
+        export.dump(0, 2020.0);
+        export.close();
+        export.close();
+        export.dump(0, 2021.0);
+        export.close();
+
+        var dataExport = new DataExport(agents, false, false, true);
+        dataExport.export();
+        dataExport.close();
+        dataExport.export();
+        dataExport.close();
+
+        try (var reader = new ColumnarPanelReader(new File(directory.toFile(), "Agent" + ExportColumnar.EXTENSION))) {
+            double engineTime = SimulationEngine.getInstance().getTime();
+            for (double time : new double[] { 2020.0, 2021.0, engineTime, engineTime }) {
+                assertTrue(reader.nextRowGroup());
+                assertEquals(time, reader.getTime());
+                assertArrayEquals(new long[] { 1 }, reader.getIds());
+            }
+            assertFalse(reader.nextRowGroup());
+        }
+    }
+
+    static class Account {
+        PanelEntityKey key;
+        Long balance;
+        String code;
+
+        Account(long id, Long balance, String code) {
+            key = new PanelEntityKey(id);
+            this.balance = balance;
+            this.code = code;
+        }
+    }
+
+    @Test
+    void deltaDetectsChangesWithEqualHashCodes(@TempDir Path directory) throws Exception {
+        var accounts = List.of(new Account(1, 0L, "x"), new Account(2, 5L, "Aa"), new Account(3, 7L, "y"));
+        ExportColumnar.directory = directory.toString();
+        ExportColumnar.delta = true;
+        try (var export = new ExportColumnar(accounts)) {
+            export.dump(0, 2020.0);
+            accounts.get(0).balance = -1L; // Long.hashCode(0) == Long.hashCode(-1)
+            accounts.get(1).code = "BB"; // "Aa".hashCode() == "BB".hashCode()
+            export.dump(0, 2021.0);
+        } finally {
+            ExportColumnar.delta = false;
+        }
+
+        try (var reader = new ColumnarPanelReader(new File(directory.toFile(), "Account" + ExportColumnar.EXTENSION))) {
+            assertTrue(reader.nextRowGroup());
+            assertTrue(reader.nextRowGroup());
+            assertTrue(reader.isDelta());
+            assertArrayEquals(new long[] { 1, 2 }, reader.getIds());
+            assertArrayEquals(new long[] { -1, 5 }, reader.getLongs(reader.getColumnIndex("balance")));
+            assertArrayEquals(new String[] { "x", "BB" }, reader.getStrings(reader.getColumnIndex("code")));
+        }
+    }
+}
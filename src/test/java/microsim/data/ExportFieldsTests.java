@@ -0,0 +1,75 @@
+package microsim.data;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import jakarta.persistence.Transient;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.data.db.PanelEntityKey;
+
+class ExportFieldsTests {
+
+    enum Status {
+        Student, Employed
+    }
+
+    static class Person {
+        int age = 37;
+        long wealth = -9_000_000_000L;
+        double income = 1234.5;
+        float hours = 37.25f;
+        boolean employed = true;
+        byte children = 2;
+        short year = 2024;
+        char sex = 'F';
+    }
+
+    static class Worker extends Person { // the id must be declared by the exported class itself
+        PanelEntityKey key = new PanelEntityKey(42);
+        Double bonus = null;
+        Integer grade = 7;
+        Character band = 'B';
+        Status status = Status.Employed;
+        String region = "North";
+        List<String> skills = List.of("java");
+        @Transient
+        double scratch = 99.;
+    }
+
+    @Test
+    void exportableFieldsAreSortedAndFiltered() {
+        assertEquals(List.of("age", "band", "bonus", "children", "employed", "grade", "hours", "income", "region",
+                "sex", "status", "wealth", "year"), ExportFields.exportableFieldNames(Worker.class));
+    }
+
+    @Test
+    void valuesAreFormattedAsStringValueOf() throws Exception {
+        var worker = new Worker();
+        ExportFields fields = ExportFields.of(Worker.class);
+        assertEquals(42L, fields.getId(worker));
+        var row = new StringBuilder();
+        var expected = new StringBuilder();
+        for (int c = 0; c < fields.size(); c++) {
+            fields.appendTo(row.append(','), worker, c);
+            var field = ExportFields.findField(Worker.class, fields.getName(c));
+            field.setAccessible(true);
+            expected.append(',').append(String.valueOf(field.get(worker)));
+        }
+        assertEquals(expected.toString(), row.toString());
+        assertEquals(",37,B,null,2,true,7,37.25,1234.5,North,F,Employed,-9000000000,2024", row.toString());
+    }
+
+    @Test
+    void accessorsAreSharedPerClassAndColumns() {
+        assertEquals(ExportFields.of(Worker.class), ExportFields.of(Worker.class));
+        var subset = ExportFields.of(Worker.class, List.of("wealth", "age"));
+        assertEquals(2, subset.size());
+        var row = new StringBuilder();
+        subset.appendTo(row, new Worker(), 0);
+        subset.appendTo(row.append(';'), new Worker(), 1);
+        assertEquals("-9000000000;37", row.toString());
+    }
+}
@@ -0,0 +1,193 @@
+package microsim.data.db;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.EmbeddedId;
+import jakarta.persistence.Entity;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EnumType;
+import jakarta.persistence.Enumerated;
+import jakarta.persistence.Table;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import microsim.engine.SimulationEngine;
+
+class DatabaseUtilsTests {
+
+    enum Gender {
+        Female, Male
+    }
+
+    @Entity(name = "SnapshotRow")
+    @Table(name = "snapshot_row")
+    static class SnapshotRow {
+        @EmbeddedId
+        PanelEntityKey key;
+
+        @Column(name = "age")
+        int age;
+
+        @Column(name = "income")
+        double income;
+
+        @Enumerated(EnumType.STRING)
+        @Column(name = "gender")
+        Gender gender;
+
+        SnapshotRow() {
+        }
+
+        SnapshotRow(long id, int age, double income, Gender gender) {
+            key = new PanelEntityKey(id);
+            this.age = age;
+            this.income = income;
+            this.gender = gender;
+        }
+    }
+
+    private static SessionFactory factory;
+
+    @BeforeAll
+    static void open() {
+        factory = new Configuration()
+                .addAnnotatedClass(SnapshotRow.class)
+                .setProperty("hibernate.connection.url", "jdbc:h2:mem:database-utils-tests;DB_CLOSE_DELAY=-1")
+                .setProperty("hibernate.connection.username", "sa")
+                .setProperty("hibernate.hbm2ddl.auto", "create-drop")
+                .buildSessionFactory();
+    }
+
+    @AfterAll
+    static void close() {
+        factory.close();
+    }
+
+    @BeforeEach
+    void clear() {
+        try (Session em = factory.openSession()) {
+            em.getTransaction().begin();
+            em.createMutationQuery("delete from SnapshotRow").executeUpdate();
+            em.getTransaction().commit();
+        }
+    }
+
+    private boolean experimentSet;
+    private Object previousExperiment;
+
+    /** Snapshots are stamped with the id of the current experiment, which only a full engine start sets up. */
+    private void setExperiment(long id) throws Exception {
+        var experiment = new Experiment();
+        experiment.id = id;
+        var field = experimentField();
+        if (!experimentSet) {
+            previousExperiment = field.get(SimulationEngine.getInstance());
+            experimentSet = true;
+        }
+        field.set(SimulationEngine.getInstance(), experiment);
+    }
+
+    @AfterEach
+    void restoreExperiment() throws Exception {
+        if (experimentSet)
+            experimentField().set(SimulationEngine.getInstance(), previousExperiment);
+    }
+
+    private static Field experimentField() throws NoSuchFieldException {
+        var field = SimulationEngine.class.getDeclaredField("currentExperiment");
+        field.setAccessible(true);
+        return field;
+    }
+
+    private static List<SnapshotRow> population(int n) {
+        var rows = new ArrayList<SnapshotRow>();
+        for (int i = 0; i < n; i++)
+            rows.add(new SnapshotRow(100 + i, 20 + i % 60, 1500.25 * i, Gender.values()[i % 2]));
+        return rows;
+    }
+
+    private static List<SnapshotRow> read(EntityManager em, long run) {
+        var rows = new ArrayList<>(em
+                .createQuery("from SnapshotRow r where r.key.simulationRun = :run", SnapshotRow.class)
+                .setParameter("run", run)
+                .getResultList());
+        rows.sort(Comparator.comparingLong(r -> r.key.getId()));
+        return rows;
+    }
+
+    @Test
+    void bulkSnapWritesTheSameRowsAsSnap() throws Exception {
+        var population = population(2500); // several JDBC batches
+        var keys = population.stream().map(r -> r.key).toList();
+        try (Session em = factory.openSession()) {
+            setExperiment(1);
+            DatabaseUtils.snap(em, 1L, SimulationEngine.getInstance().getTime(), population);
+            setExperiment(2);
+            DatabaseUtils.bulkSnap(em, 2L, SimulationEngine.getInstance().getTime(), population);
+        }
+        for (int i = 0; i < population.size(); i++)
+            assertSame(keys.get(i), population.get(i).key); // the keys of the agents are restored
+
+        try (Session em = factory.openSession()) {
+            var merged = read(em, 1);
+            var inserted = read(em, 2);
+            assertEquals(population.size(), merged.size());
+            assertEquals(merged.size(), inserted.size());
+            for (int i = 0; i < merged.size(); i++) {
+                SnapshotRow expected = merged.get(i), actual = inserted.get(i);
+                assertEquals(expected.key.getId(), actual.key.getId());
+                assertEquals(expected.key.getSimulationTime(), actual.key.getSimulationTime());
+                assertEquals(expected.key.getWorkingId(), actual.key.getWorkingId());
+                assertEquals(expected.age, actual.age);
+                assertEquals(expected.income, actual.income);
+                assertEquals(expected.gender, actual.gender);
+            }
+        }
+    }
+
+    @Test
+    void streamTableVisitsEveryRowAcrossChunks() throws Exception {
+        setExperiment(3);
+        try (Session em = factory.openSession()) {
+            DatabaseUtils.bulkSnap(em, 3L, SimulationEngine.getInstance().getTime(), population(25));
+        }
+
+        for (boolean parallel : new boolean[] { false, true }) {
+            var chunkSizes = new ArrayList<Integer>();
+            var ids = new ArrayList<Long>();
+            long count;
+            try (Session em = factory.openSession()) {
+                count = DatabaseUtils.streamTable(em, SnapshotRow.class, 10, row -> row.key.getId(), parallel,
+                        chunk -> {
+                            chunkSizes.add(chunk.size());
+                            ids.addAll(chunk);
+                        });
+            }
+            assertEquals(25, count);
+            assertEquals(List.of(10, 10, 5), chunkSizes);
+            ids.sort(null);
+            assertEquals(LongStream.range(100, 125).boxed().toList(), ids);
+        }
+
+        try (Session em = factory.openSession()) {
+            var chunks = new ArrayList<Integer>();
+            assertEquals(25, DatabaseUtils.streamTable(em, SnapshotRow.class, 25, chunk -> chunks.add(chunk.size())));
+            assertEquals(List.of(25), chunks);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package microsim.data.db.space;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import microsim.engine.SimulationEngine;
+import microsim.space.DoubleSpace;
+import microsim.space.IntSpace;
+
+class SpaceEntityPersisterTests {
+
+    private static int databases;
+
+    private SessionFactory factory;
+
+    @BeforeEach
+    void open() {
+        factory = new Configuration()
+                .setProperty("hibernate.connection.url", "jdbc:h2:mem:space-" + databases++ + ";DB_CLOSE_DELAY=-1")
+                .setProperty("hibernate.connection.username", "sa")
+                .buildSessionFactory();
+    }
+
+    @AfterEach
+    void close() {
+        factory.close();
+        SpaceEntityPersister.compressSnapshots = true;
+    }
+
+    private static long run() {
+        return SimulationEngine.getInstance().getCurrentRunNumber();
+    }
+
+    private static double time() {
+        return SimulationEngine.getInstance().getTime();
+    }
+
+    @Test
+    void snapshotsRoundTrip() {
+        var ints = new IntSpace(7, 5);
+        var doubles = new DoubleSpace(3, 11);
+        for (int i = 0; i < ints.getMatrix().length; i++)
+            ints.getMatrix()[i] = i * i - 17;
+        for (int i = 0; i < doubles.getMatrix().length; i++)
+            doubles.getMatrix()[i] = Math.sqrt(i) - 0.5;
+
+        for (boolean compressed : new boolean[] { true, false }) {
+            SpaceEntityPersister.compressSnapshots = compressed;
+            String suffix = compressed ? "-deflated" : "-raw";
+            try (Session em = factory.openSession()) {
+                SpaceEntityPersister.persistIntSpaceSnapshot(em, ints, "land" + suffix);
+                SpaceEntityPersister.persistDoubleSpaceSnapshot(em, doubles, "price" + suffix);
+            }
+            try (Session em = factory.openSession()) {
+                IntSpace loadedInts = SpaceEntityPersister.loadIntSpace(em, run(), time(), "land" + suffix);
+                DoubleSpace loadedDoubles = SpaceEntityPersister.loadDoubleSpace(em, run(), time(),
+                        "price" + suffix);
+                assertArrayEquals(ints.getMatrix(), loadedInts.getMatrix());
+                assertArrayEquals(doubles.getMatrix(), loadedDoubles.getMatrix());
+                assertThrows(IllegalArgumentException.class,
+                        () -> SpaceEntityPersister.loadDoubleSpace(em, run(), time(), "land" + suffix));
+                assertNull(SpaceEntityPersister.loadIntSpace(em, run(), time() + 1, "land" + suffix));
+            }
+        }
+    }
+
+    @Test
+    void loadingDoesNotCreateTheTable() throws Exception {
+        try (Session em = factory.openSession()) {
+            assertNull(SpaceEntityPersister.loadIntSpace(em, run(), time(), "land"));
+            boolean exists = em.doReturningWork(connection -> {
+                try (var tables = connection.getMetaData().getTables(null, null,
+                        SpaceEntityPersister.SNAPSHOT_TABLE.toUpperCase(), null)) {
+                    return tables.next();
+                }
+            });
+            assertFalse(exists);
+        }
+    }
+}
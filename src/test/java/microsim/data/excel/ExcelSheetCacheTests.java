@@ -0,0 +1,56 @@
+package microsim.data.excel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ExcelSheetCacheTests {
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTrip() throws Exception {
+        var builder = new ExcelSheet.Builder();
+        builder.addCell(0, 0, "REGRESSOR");
+        builder.addCell(0, 1, "COEFFICIENT");
+        builder.addCell(2, 0, "age");
+        builder.addCell(2, 1, 0.25);
+        builder.addCell(3, 0, "married");
+        builder.addCell(3, 1, true);
+        builder.addCell(3, 2, 7);
+        var sheet = builder.build();
+
+        Path file = directory.resolve("sheet.bin");
+        ExcelSheetCache.write(file, sheet);
+        var cached = ExcelSheetCache.read(file);
+
+        assertEquals(3, cached.getLastRowNum());
+        assertNull(cached.getRow(1));
+        assertEquals(2, cached.getPhysicalNumberOfCells(0));
+        assertArrayEquals(sheet.getRow(3), cached.getRow(3));
+        assertEquals(0.25, cached.getCellValue(2, 1));
+
+        var map = ExcelAssistant.toCoefficientMap(cached, 1, 1, 1, Integer.MAX_VALUE);
+        assertEquals(0.25, map.getValue("age"));
+        assertEquals(true, map.getValue("married"));
+    }
+
+    @Test
+    void createsPrivateDirectory() throws Exception {
+        var builder = new ExcelSheet.Builder();
+        builder.addCell(0, 0, "REGRESSOR");
+        Path file = directory.resolve("cache").resolve("sheet.bin");
+        ExcelSheetCache.write(file, builder.build());
+
+        assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        assertEquals(PosixFilePermissions.fromString("rwx------"), Files.getPosixFilePermissions(file.getParent()));
+    }
+}
@@ -0,0 +1,86 @@
+package microsim.data.excel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import microsim.data.MultiKeyCoefficientMap;
+
+class ParameterBundleLoaderTests {
+    @TempDir
+    Path directory;
+
+    /** Writes a workbook of sheets {@code s0, s1, ...}, with rates depending on the sheet and the age. */
+    private String workbook(String name, int numSheets, double scale) throws Exception {
+        File file = directory.resolve(name).toFile();
+        try (var workbook = new XSSFWorkbook(); var out = new FileOutputStream(file)) {
+            for (int s = 0; s < numSheets; s++) {
+                var sheet = workbook.createSheet("s" + s);
+                var header = sheet.createRow(0);
+                header.createCell(0).setCellValue("age");
+                header.createCell(1).setCellValue("gender");
+                header.createCell(2).setCellValue("rate");
+                header.createCell(3).setCellValue("sd");
+                for (int r = 1; r <= 50; r++) {
+                    var row = sheet.createRow(r);
+                    row.createCell(0).setCellValue((r - 1) / 2);
+                    row.createCell(1).setCellValue(r % 2 == 0 ? "Female" : "Male");
+                    row.createCell(2).setCellValue(scale * (s + 1) * r / 100.);
+                    row.createCell(3).setCellValue(0.5 * r);
+                }
+            }
+            workbook.write(out);
+        }
+        return file.getPath();
+    }
+
+    @Test
+    void bundleMatchesSheetBySheetLoading() throws Exception {
+        String first = workbook("first.xlsx", 4, 1.);
+        String second = workbook("second.xlsx", 2, 3.);
+        var loader = new ParameterBundleLoader();
+        for (int s = 0; s < 4; s++)
+            loader.add("first" + s, first, "s" + s, 2);
+        loader.add("second0", second, "s0", 2, 1);
+        loader.add("second1", second, "s1", 2);
+
+        for (int parallelism : new int[] { 1, 3 }) {
+            var bundle = loader.load(parallelism);
+            assertEquals(6, bundle.getMaps().size());
+            for (int s = 0; s < 4; s++)
+                assertSameMap(ExcelAssistant.loadCoefficientMap(first, "s" + s, 2, 2), bundle.get("first" + s));
+            assertSameMap(ExcelAssistant.loadCoefficientMap(second, "s0", 2, 1), bundle.get("second0"));
+            assertSameMap(ExcelAssistant.loadCoefficientMap(second, "s1", 2, 2), bundle.get("second1"));
+            assertEquals(3. * 2 * 7 / 100., bundle.get("second1").getValue(3, "Male", "rate"));
+        }
+    }
+
+    private static void assertSameMap(MultiKeyCoefficientMap expected, MultiKeyCoefficientMap actual) {
+        assertArrayEquals(expected.getKeysNames(), actual.getKeysNames());
+        assertArrayEquals(expected.getValuesNames(), actual.getValuesNames());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (var key : expected.keySet()) {
+            Object value = expected.get(key);
+            if (value instanceof Object[] values)
+                assertArrayEquals(values, (Object[]) actual.get(key));
+            else
+                assertEquals(value, actual.get(key));
+        }
+    }
+
+    @Test
+    void missingSheetIsReported() throws Exception {
+        String file = workbook("one.xlsx", 1, 1.);
+        var loader = new ParameterBundleLoader().add("a", file, "s0", 2).add("b", file, "missing", 2);
+        assertThrows(IllegalArgumentException.class, () -> loader.load(2));
+        assertThrows(IllegalArgumentException.class, () -> loader.add("a", file, "s0", 1));
+    }
+}
@@ -0,0 +1,70 @@
+package microsim.data.excel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class XlsxStreamingReaderTests {
+    @TempDir
+    Path directory;
+
+    private File workbook() throws Exception {
+        File file = directory.resolve("parameters.xlsx").toFile();
+        try (var workbook = new XSSFWorkbook(); var out = new FileOutputStream(file)) {
+            var sheet = workbook.createSheet("coefficients");
+            var header = sheet.createRow(0);
+            header.createCell(0).setCellValue("REGRESSOR");
+            header.createCell(1).setCellValue("COEFFICIENT");
+            var age = sheet.createRow(1);
+            age.createCell(0).setCellValue("age");
+            age.createCell(1).setCellValue(0.25);
+            var married = sheet.createRow(3); // row 2 left empty
+            married.createCell(0).setCellValue("married");
+            married.createCell(1).setCellValue(true);
+            married.createCell(3).setCellValue(7);
+            married.createCell(4).setCellFormula("B2*2");
+            workbook.createSheet("other").createRow(0).createCell(0).setCellValue("unused");
+            workbook.write(out);
+        }
+        return file;
+    }
+
+    @Test
+    void streamingMatchesUserModel() throws Exception {
+        File file = workbook();
+        var streamed = XlsxStreamingReader.read(file, List.of("coefficients", "missing")).get("coefficients");
+        var expected = ExcelAssistant.readWorkbook(file, List.of("coefficients")).get("coefficients");
+
+        assertEquals(expected.getLastRowNum(), streamed.getLastRowNum());
+        for (int r = 0; r <= expected.getLastRowNum(); r++) {
+            assertArrayEquals(expected.getRow(r), streamed.getRow(r), "row " + r);
+            assertEquals(expected.getPhysicalNumberOfCells(r), streamed.getPhysicalNumberOfCells(r));
+        }
+        assertNull(streamed.getRow(2));
+        assertEquals(7, streamed.getCellValue(3, 3));
+        assertNull(streamed.getCellValue(3, 4)); // formula cells read as null
+    }
+
+    @Test
+    void readsOnlyRequestedSheets() throws Exception {
+        var sheets = XlsxStreamingReader.read(workbook(), List.of("other", "missing"));
+        assertEquals("unused", sheets.get("other").getCellValue(0, 0));
+        assertFalse(sheets.containsKey("coefficients"));
+        assertFalse(sheets.containsKey("missing"));
+    }
+
+    @Test
+    void cacheIsOptIn() {
+        assertNull(ExcelAssistant.getCacheDirectory());
+    }
+}
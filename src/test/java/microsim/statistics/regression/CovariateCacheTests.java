@@ -0,0 +1,80 @@
+package microsim.statistics.regression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.engine.SimulationEngine;
+import microsim.event.Event;
+import microsim.statistics.IDoubleSource;
+
+class CovariateCacheTests {
+
+    enum Regressors {
+        Age, Income
+    }
+
+    /** Counts the requests per covariate; the value is the number of requests so far. */
+    static final class Agent implements IDoubleSource {
+        final int[] calls = new int[Regressors.values().length];
+
+        @Override
+        public double getDoubleValue(Enum<?> variableID) {
+            return ++calls[variableID.ordinal()];
+        }
+    }
+
+    @Test
+    void reusesValuesWithinATick() {
+        var agent = new Agent();
+        var cache = new CovariateCache(agent);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(1., cache.getDoubleValue(Regressors.Age), 0.);
+            assertEquals(1., cache.getDoubleValue(Regressors.Income), 0.);
+        }
+        assertEquals(1, agent.calls[Regressors.Age.ordinal()]);
+        assertEquals(1, agent.calls[Regressors.Income.ordinal()]);
+    }
+
+    @Test
+    void invalidateRecomputes() {
+        var agent = new Agent();
+        var cache = new CovariateCache(agent);
+        cache.getDoubleValue(Regressors.Age);
+        cache.invalidate();
+        assertEquals(2., cache.getDoubleValue(Regressors.Age), 0.);
+        cache.updateSource();
+        assertEquals(3., cache.getDoubleValue(Regressors.Age), 0.);
+        assertEquals(3., cache.getDoubleValue(Regressors.Age), 0.);
+    }
+
+    @Test
+    void disabledCacheAlwaysCallsTheAgent() {
+        var agent = new Agent();
+        var cache = new CovariateCache(agent);
+        cache.setEnabled(false);
+        cache.getDoubleValue(Regressors.Income);
+        cache.getDoubleValue(Regressors.Income);
+        assertEquals(2, agent.calls[Regressors.Income.ordinal()]);
+    }
+
+    @Test
+    void laterSimulationTimeRecomputes() throws Exception {
+        var agent = new Agent();
+        var cache = new CovariateCache(agent);
+        cache.getDoubleValue(Regressors.Age);
+        cache.getDoubleValue(Regressors.Age);
+
+        var queue = SimulationEngine.getInstance().getEventQueue();
+        queue.scheduleOnce(new Event() {
+            @Override
+            public void fireEvent() {
+            }
+        }, queue.getTime() + 1., 0);
+        queue.step();
+
+        assertEquals(2., cache.getDoubleValue(Regressors.Age), 0.);
+        assertEquals(2., cache.getDoubleValue(Regressors.Age), 0.);
+        assertEquals(0, agent.calls[Regressors.Income.ordinal()]);
+    }
+}
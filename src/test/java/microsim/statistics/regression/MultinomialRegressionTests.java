@@ -0,0 +1,65 @@
+package microsim.statistics.regression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.data.MultiKeyCoefficientMap;
+import microsim.statistics.IDoubleSource;
+
+class MultinomialRegressionTests {
+
+    enum Outcome implements IntegerValuedEnum {
+        Low(0), Medium(1), High(2);
+
+        private final int value;
+
+        Outcome(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int getValue() {
+            return value;
+        }
+    }
+
+    enum Regressors {
+        Age, Income, Constant
+    }
+
+    record Person(double age, double income) implements IDoubleSource {
+        @Override
+        public double getDoubleValue(Enum<?> variableID) {
+            return switch ((Regressors) variableID) {
+                case Age -> age;
+                case Income -> income;
+                case Constant -> 1.0;
+            };
+        }
+    }
+
+    @Test
+    void matrixScoringMatchesSoftmax() {
+        var coefficients = new MultiKeyCoefficientMap(new String[] { "REGRESSOR" }, new String[] { "COEFFICIENT" });
+        coefficients.putValue("Age_Medium", 0.02);
+        coefficients.putValue("Constant_Medium", -0.4);
+        coefficients.putValue("Income_High", 0.3);
+        coefficients.putValue("Constant_High", -1.2);
+        var regression = new MultinomialRegression<>(RegressionType.MultinomialLogit, Outcome.class, coefficients);
+
+        var person = new Person(40.0, 2.5);
+        double medium = Math.exp(0.02 * 40.0 - 0.4);
+        double high = Math.exp(0.3 * 2.5 - 1.2);
+        double denominator = 1.0 + medium + high;
+
+        var probs = new double[3];
+        regression.getProbabilities(person, Regressors.class, probs);
+        assertEquals(1.0 / denominator, probs[0], 1e-12);
+        assertEquals(medium / denominator, probs[1], 1e-12);
+        assertEquals(high / denominator, probs[2], 1e-12);
+
+        var map = regression.getProbabilities(person, Regressors.class);
+        assertEquals(probs[1], map.get(Outcome.Medium), 0.0);
+    }
+}
@@ -0,0 +1,30 @@
+package microsim.statistics.regression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+import cern.jet.random.Normal;
+import cern.jet.random.engine.MersenneTwister;
+
+class ProbabilityCalculatorTests {
+    private static final double[] SCORES = { -40.0, -3.2, -0.7, 0.0, 0.25, 1.96, 8.5 };
+
+    @Test
+    void logitArrayMatchesScalar() {
+        var calculator = new ProbabilityCalculator(RegressionType.Logit);
+        var out = new double[SCORES.length];
+        ProbabilityCalculator.toProbabilities(SCORES, out, RegressionType.OrderedLogit);
+        for (int i = 0; i < SCORES.length; i++)
+            assertEquals(calculator.getProbability(SCORES[i]), out[i], 0.0);
+    }
+
+    @Test
+    void probitArrayMatchesNormalCdf() {
+        var normal = new Normal(0.0, 1.0, new MersenneTwister(0));
+        var out = SCORES.clone();
+        new ProbabilityCalculator(RegressionType.Probit).getProbabilities(out, out);
+        for (int i = 0; i < SCORES.length; i++)
+            assertEquals(normal.cdf(SCORES[i]), out[i], 0.0);
+    }
+}
@@ -0,0 +1,125 @@
+package microsim.statistics.regression;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import microsim.data.MultiKeyCoefficientMap;
+import microsim.statistics.IDoubleSource;
+
+class RegressionScorersTests {
+
+    enum Regressors {
+        Age, Income, Employed, Constant
+    }
+
+    public static class Person implements IDoubleSource {
+        private final double age;
+        private final double income;
+        private final String gender;
+
+        public Person(double age, double income, String gender) {
+            this.age = age;
+            this.income = income;
+            this.gender = gender;
+        }
+
+        public String getGender() {
+            return gender;
+        }
+
+        @Override
+        public double getDoubleValue(Enum<?> variableID) {
+            return switch ((Regressors) variableID) {
+                case Age -> age;
+                case Income -> income;
+                case Employed -> income > 1. ? 1. : 0.;
+                case Constant -> 1.;
+            };
+        }
+    }
+
+    private static final Person[] PEOPLE = { new Person(25., 0.4, "Female"), new Person(40., 2.5, "Male"),
+            new Person(67., 1.1, "Female"), new Person(83., 0., "Male") };
+
+    private static MultiKeyCoefficientMap singleKeyMap() {
+        var map = new MultiKeyCoefficientMap(new String[] { "REGRESSOR" }, new String[] { "COEFFICIENT" });
+        map.putValue("Age", 0.031);
+        map.putValue("Income", -0.27);
+        map.putValue("Employed", 0.0);
+        map.putValue("Constant", -1.4);
+        return map;
+    }
+
+    private static MultiKeyCoefficientMap genderMap() {
+        var map = new MultiKeyCoefficientMap(new String[] { "REGRESSOR", "gender" }, new String[] { "COEFFICIENT" });
+        map.putValue("Age", "Female", 0.02);
+        map.putValue("Age", "Male", 0.035);
+        map.putValue("Constant", "Female", -0.9);
+        map.putValue("Constant", "Male", -1.3);
+        return map;
+    }
+
+    private static boolean isGenerated(RegressionScorer scorer) {
+        return scorer.getClass().getName().startsWith(RegressionScorers.class.getName() + "$Compiled");
+    }
+
+    @Test
+    void generatedScorerMatchesInterpretedScore() {
+        var map = singleKeyMap();
+        RegressionScorer scorer = RegressionScorers.compile(map, Regressors.class, Person.class);
+        RegressionScorer untyped = RegressionScorers.compile(map, Regressors.class, null);
+        assertTrue(isGenerated(scorer));
+        assertTrue(isGenerated(untyped));
+        for (Person person : PEOPLE) {
+            double expected = LinearRegression.computeScore(map, person, Regressors.class, true);
+            assertEquals(expected, scorer.getScore(person), 0.);
+            assertEquals(expected, untyped.getScore(person), 0.);
+        }
+    }
+
+    @Test
+    void compiledScoringMatchesProbabilityCalculatorAndLinearRegression() {
+        var map = singleKeyMap();
+        var interpreted = new ProbabilityCalculator(RegressionType.Logit);
+        var compiled = new ProbabilityCalculator(RegressionType.Logit);
+        compiled.setCompiledScoring(true);
+        var regression = new LinearRegression(map);
+        var compiledRegression = new LinearRegression(map);
+        compiledRegression.setCompiledScoring(true);
+        for (Person person : PEOPLE) {
+            assertEquals(interpreted.getScore(map, person, Regressors.class),
+                    compiled.getScore(map, person, Regressors.class), 0.);
+            assertEquals(regression.getScore(person, Regressors.class),
+                    compiledRegression.getScore(person, Regressors.class), 0.);
+        }
+    }
+
+    @Test
+    void conditioningKeysFallBackToInterpretedScoring() {
+        var map = genderMap();
+        RegressionScorer scorer = RegressionScorers.compile(map, Regressors.class, Person.class);
+        assertFalse(isGenerated(scorer));
+        for (Person person : PEOPLE)
+            assertEquals(LinearRegression.computeScore(map, person, Regressors.class), scorer.getScore(person), 0.);
+    }
+
+    @Test
+    void fallbackIsKeptPerMap() {
+        var fallback = genderMap();
+        var single = singleKeyMap();
+        var cache = new RegressionScorers.Cache();
+        RegressionScorer first = cache.getScorer(fallback, Regressors.class, PEOPLE[0]);
+        assertFalse(isGenerated(first));
+        assertSame(first, cache.getScorer(fallback, Regressors.class, PEOPLE[1]));
+        assertTrue(isGenerated(cache.getScorer(single, Regressors.class, PEOPLE[0])));
+
+        cache.clear();
+        RegressionScorer rebuilt = cache.getScorer(fallback, Regressors.class, PEOPLE[0]);
+        assertFalse(first == rebuilt);
+        assertEquals(first.getScore(PEOPLE[2]), rebuilt.getScore(PEOPLE[2]), 0.);
+    }
+}